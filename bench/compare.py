@@ -0,0 +1,57 @@
+#!/usr/bin/env python3
+"""Compares two JMH JSON result files and fails if any benchmark regressed.
+
+Usage: compare.py baseline.json candidate.json [--threshold PERCENT]
+
+A benchmark regresses when its score moves in the slow direction by more than
+the threshold (default 10%) and by more than the combined error of the two
+runs.
+"""
+import argparse
+import json
+import sys
+
+
+def load(path):
+    with open(path) as f:
+        results = {}
+        for run in json.load(f):
+            params = ",".join("%s=%s" % kv for kv in sorted(run.get("params", {}).items()))
+            name = run["benchmark"] + ("[" + params + "]" if params else "")
+            metric = run["primaryMetric"]
+            error = metric.get("scoreError")
+            results[name] = (run["mode"], metric["score"],
+                             0.0 if error in (None, "NaN") else float(error), metric["scoreUnit"])
+        return results
+
+
+def main():
+    parser = argparse.ArgumentParser()
+    parser.add_argument("baseline")
+    parser.add_argument("candidate")
+    parser.add_argument("--threshold", type=float, default=10.0)
+    args = parser.parse_args()
+
+    baseline = load(args.baseline)
+    candidate = load(args.candidate)
+    regressions = 0
+    for name in sorted(baseline.keys() | candidate.keys()):
+        if name not in candidate or name not in baseline:
+            print("%-70s %s" % (name, "only in baseline" if name in baseline else "new"))
+            continue
+        mode, old, old_error, unit = baseline[name]
+        _, new, new_error, _ = candidate[name]
+        # Throughput is better when higher, every other mode when lower
+        slower = new < old if mode == "thrpt" else new > old
+        change = (new - old) / old * 100 if old else 0.0
+        regressed = slower and abs(change) > args.threshold and abs(new - old) > old_error + new_error
+        regressions += regressed
+        print("%-70s %12.3f -> %12.3f %-8s %+7.1f%%%s" % (name, old, new, unit, change,
+                                                         "  REGRESSION" if regressed else ""))
+    if regressions:
+        print("%d benchmark(s) regressed by more than %.1f%%" % (regressions, args.threshold))
+        sys.exit(1)
+
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,11 @@
+#!/bin/sh
+# Builds the benchmarks and writes the results to a JSON file.
+# Usage: bench/run.sh [results.json] [extra JMH arguments, e.g. a benchmark regex]
+# bench/pom.xml is a separate build, not a module of the root pom.xml. It
+# compiles ../src with the benchmarks into target/benchmarks.jar.
+set -e
+cd "$(dirname "$0")"
+out="${1:-results.json}"
+[ $# -gt 0 ] && shift
+mvn -B -q package
+java -jar target/benchmarks.jar -rf json -rff "$out" "$@"
@@ -0,0 +1,71 @@
+package bench;
+
+import java.math.BigInteger;
+
+import RSA.DeterministicRandom;
+import RSA.RSAPrivateCrtKey;
+import RSA.RandomSource;
+import RSA.Util;
+
+/**
+ * Inputs shared by the benchmarks. Everything is derived from a fixed seed so
+ * every run measures the same keys, primes and messages.
+ */
+public class Fixtures {
+
+	public static final long SEED = 0x5EED;
+
+	/**
+	 * Generates the same key for a modulus size on every run.
+	 *
+	 * @param bits The size of the modulus
+	 * @return A CRT key with the public exponent 65537
+	 * @throws Exception Thrown if the key cannot be built
+	 */
+	public static RSAPrivateCrtKey key(int bits) throws Exception {
+		RandomSource saved = Util.random;
+		Util.random = new DeterministicRandom(SEED + bits);
+		try {
+			BigInteger e = BigInteger.valueOf(65537);
+			while (true) {
+				BigInteger p = Util.randomPrime(bits / 2);
+				BigInteger q = Util.randomPrime(bits - bits / 2);
+				BigInteger m = p.subtract(BigInteger.ONE).multiply(q.subtract(BigInteger.ONE));
+				if (!p.equals(q) && e.gcd(m).equals(BigInteger.ONE)) {
+					return RSAPrivateCrtKey.fromPrimes(p, q, e);
+				}
+			}
+		} finally {
+			Util.random = saved;
+		}
+	}
+
+	/**
+	 * Generates the same prime of a given size on every run.
+	 *
+	 * @param bits The size of the prime
+	 * @return A prime of size bits
+	 */
+	public static BigInteger prime(int bits) {
+		RandomSource saved = Util.random;
+		Util.random = new DeterministicRandom(SEED ^ bits);
+		try {
+			return Util.randomPrime(bits);
+		} finally {
+			Util.random = saved;
+		}
+	}
+
+	/**
+	 * Returns the same bytes for a length and salt on every run.
+	 *
+	 * @param length The number of bytes
+	 * @param salt   Separates fixtures of the same length
+	 * @return The bytes
+	 */
+	public static byte[] bytes(int length, long salt) {
+		byte[] res = new byte[length];
+		new DeterministicRandom(SEED + salt).nextBytes(res);
+		return res;
+	}
+}
@@ -0,0 +1,66 @@
+package bench;
+
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import RSA.DeterministicRandom;
+import RSA.OAEP;
+import RSA.RandomSource;
+
+/**
+ * OAEP padding, unpadding and the MGF1 mask generator.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OAEPBenchmark {
+
+	@Param({ "1024", "2048", "4096" })
+	public int keySize;
+
+	private RandomSource random;
+	private MessageDigest md;
+	private byte[] message;
+	private byte[] padded;
+	private byte[] maskInput;
+
+	@Setup
+	public void setup() throws Exception {
+		random = new DeterministicRandom(Fixtures.SEED);
+		md = MessageDigest.getInstance("SHA-1");
+		message = Fixtures.bytes(32, 2);
+		padded = OAEP.pad(message, keySize, random);
+		maskInput = Fixtures.bytes(md.getDigestLength(), 3);
+	}
+
+	@Benchmark
+	public byte[] pad() throws Exception {
+		return OAEP.pad(message, keySize, random);
+	}
+
+	@Benchmark
+	public byte[] unpad() throws Exception {
+		return OAEP.unpad(padded, keySize);
+	}
+
+	@Benchmark
+	public byte[] maskGenerator() throws Exception {
+		// The data block mask, the longest mask OAEP asks for
+		return OAEP.maskGenerator(maskInput, keySize / 8 - md.getDigestLength() - 1, md);
+	}
+}
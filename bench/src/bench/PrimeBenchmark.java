@@ -0,0 +1,74 @@
+package bench;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import RSA.DeterministicRandom;
+import RSA.RandomSource;
+import RSA.Util;
+
+/**
+ * Primality checks on primes and on composites without small factors, and the
+ * random prime search.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PrimeBenchmark {
+
+	@Param({ "256", "512", "1024", "2048" })
+	public int bits;
+
+	private BigInteger prime;
+	private BigInteger composite;
+	private RandomSource saved;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		prime = Fixtures.prime(bits);
+		// A product of two primes has no small factor so it reaches Miller Rabin
+		composite = Fixtures.prime(bits / 2).multiply(Fixtures.prime(bits - bits / 2 + 1));
+		// The same candidate stream on every run
+		saved = Util.random;
+		Util.random = new DeterministicRandom(Fixtures.SEED);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		Util.random = saved;
+	}
+
+	@Benchmark
+	public boolean isPrimePrime() {
+		return Util.isPrime(prime);
+	}
+
+	@Benchmark
+	public boolean isPrimeComposite() {
+		return Util.isPrime(composite);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public BigInteger randomPrime() {
+		return Util.randomPrime(bits);
+	}
+}
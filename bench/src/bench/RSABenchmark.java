@@ -0,0 +1,83 @@
+package bench;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import RSA.RSA;
+import RSA.RSAKeyContext;
+import RSA.RSAPrivateCrtKey;
+
+/**
+ * RSA encryption and decryption with the plain, CRT and context entry points.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RSABenchmark {
+
+	@Param({ "1024", "2048", "3072", "4096" })
+	public int bits;
+
+	private BigInteger modulus;
+	private BigInteger publicExponent;
+	private BigInteger privateExponent;
+	private RSAPrivateCrtKey key;
+	private RSAKeyContext publicContext;
+	private RSAKeyContext privateContext;
+	private byte[] plainText;
+	private byte[] cypherText;
+
+	@Setup
+	public void setup() throws Exception {
+		key = Fixtures.key(bits);
+		modulus = key.getModulus();
+		publicExponent = key.getPublicExponent();
+		privateExponent = key.getPrivateExponent();
+		publicContext = new RSAKeyContext(modulus, publicExponent);
+		privateContext = new RSAKeyContext(key);
+		// A leading zero keeps the message positive and below the modulus
+		plainText = Fixtures.bytes(bits / 8, 1);
+		plainText[0] = 0;
+		cypherText = RSA.encrypt(plainText, modulus, publicExponent);
+	}
+
+	@Benchmark
+	public byte[] encrypt() throws Exception {
+		return RSA.encrypt(plainText, modulus, publicExponent);
+	}
+
+	@Benchmark
+	public byte[] decrypt() throws Exception {
+		return RSA.decrypt(cypherText, modulus, privateExponent);
+	}
+
+	@Benchmark
+	public byte[] decryptCrt() throws Exception {
+		return RSA.decrypt(cypherText, key);
+	}
+
+	@Benchmark
+	public byte[] encryptContext() throws Exception {
+		return RSA.encrypt(plainText, publicContext);
+	}
+
+	@Benchmark
+	public byte[] decryptContext() throws Exception {
+		return RSA.decrypt(cypherText, privateContext);
+	}
+}
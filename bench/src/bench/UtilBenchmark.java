@@ -0,0 +1,51 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import RSA.Util;
+
+/**
+ * Hex conversion of large buffers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UtilBenchmark {
+
+	@Param({ "1024", "65536", "1048576" })
+	public int size;
+
+	private byte[] data;
+	private String hex;
+
+	@Setup
+	public void setup() {
+		data = Fixtures.bytes(size, 4);
+		hex = Util.toHex(data);
+	}
+
+	@Benchmark
+	public String toHex() {
+		return Util.toHex(data);
+	}
+
+	@Benchmark
+	public byte[] toAscii() {
+		return Util.toAscii(hex);
+	}
+}
@@ -0,0 +1,150 @@
+package RSA;
+
+import java.math.BigInteger;
+
+/**
+ * The Baillie-PSW test, a Miller Rabin round with base 2 followed by a strong
+ * Lucas test. No composite is known to pass it and unlike random base Miller
+ * Rabin its strength does not depend on the input being random. Source:
+ * https://en.wikipedia.org/wiki/Baillie%E2%80%93PSW_primality_test
+ */
+public class BailliePSW implements PrimalityTest {
+
+	private static final BigInteger TWO = BigInteger.valueOf(2);
+
+	@Override
+	public boolean isProbablePrime(BigInteger n, Trace trace) {
+		if (n.compareTo(BigInteger.valueOf(4)) < 0) {
+			return n.compareTo(BigInteger.ONE) > 0;
+		} else if (!n.testBit(0)) {
+			return false;
+		}
+		trace.stepIn(() -> "Miller Rabin base 2");
+		boolean probablePrime = MillerRabin.isStrongProbablePrime(n, TWO, trace);
+		trace.stepOut();
+		if (!probablePrime) {
+			return false;
+		}
+		trace.stepIn(() -> "Strong Lucas");
+		probablePrime = isStrongLucasProbablePrime(n, trace);
+		trace.stepOut();
+		return probablePrime;
+	}
+
+	/**
+	 * Runs the strong Lucas test with the parameters picked by Selfridge's method
+	 * A.
+	 *
+	 * @param n     An odd number greater than 3
+	 * @param trace The trace the steps are logged to
+	 * @return False if n is definitely composite
+	 */
+	static boolean isStrongLucasProbablePrime(BigInteger n, Trace trace) {
+		// A perfect square has no D with (D/n) = -1
+		BigInteger root = n.sqrt();
+		if (root.multiply(root).equals(n)) {
+			trace.log(() -> n.toString() + " is a perfect square.");
+			return false;
+		}
+		// Find the first D in 5, -7, 9, -11, ... with jacobi(D, n) = -1
+		long d = 5;
+		while (true) {
+			int j = jacobi(BigInteger.valueOf(d), n);
+			if (j == -1) {
+				break;
+			} else if (j == 0 && !BigInteger.valueOf(Math.abs(d)).equals(n)) {
+				long factor = Math.abs(d);
+				trace.log(() -> n.toString() + " shares a factor with " + factor + ".");
+				return false;
+			}
+			d = d > 0 ? -(d + 2) : -(d - 2);
+		}
+		long p = 1;
+		long q = (1 - d) / 4;
+		long dValue = d;
+		trace.log(() -> "D = " + dValue + ", P = " + p + ", Q = " + q);
+
+		// n + 1 = 2^s * k
+		BigInteger nPlusOne = n.add(BigInteger.ONE);
+		int s = nPlusOne.getLowestSetBit();
+		BigInteger k = nPlusOne.shiftRight(s);
+		BigInteger bigD = BigInteger.valueOf(d).mod(n);
+		BigInteger bigQ = BigInteger.valueOf(q).mod(n);
+
+		// Compute U_k, V_k and Q^k from the top bit of k down
+		BigInteger u = BigInteger.ONE;
+		BigInteger v = BigInteger.valueOf(p);
+		BigInteger qk = bigQ;
+		for (int i = k.bitLength() - 2; i >= 0; i--) {
+			// Double the index
+			u = u.multiply(v).mod(n);
+			v = v.multiply(v).subtract(qk.shiftLeft(1)).mod(n);
+			qk = qk.multiply(qk).mod(n);
+			if (k.testBit(i)) {
+				// Add one to the index
+				BigInteger newU = half(u.multiply(BigInteger.valueOf(p)).add(v), n);
+				v = half(bigD.multiply(u).add(v.multiply(BigInteger.valueOf(p))), n);
+				u = newU;
+				qk = qk.multiply(bigQ).mod(n);
+			}
+		}
+		if (u.signum() == 0 || v.signum() == 0) {
+			trace.log(() -> "We can declare that " + n.toString() + " is prime.");
+			return true;
+		}
+		for (int r = 1; r < s; r++) {
+			v = v.multiply(v).subtract(qk.shiftLeft(1)).mod(n);
+			qk = qk.multiply(qk).mod(n);
+			if (v.signum() == 0) {
+				trace.log(() -> "We can declare that " + n.toString() + " is prime.");
+				return true;
+			}
+		}
+		trace.log(() -> "We can declare that " + n.toString() + " is composite.");
+		return false;
+	}
+
+	/**
+	 * Returns x / 2 mod n for an odd n.
+	 *
+	 * @param x Some value
+	 * @param n An odd modulus
+	 * @return x * 2^-1 mod n
+	 */
+	private static BigInteger half(BigInteger x, BigInteger n) {
+		x = x.mod(n);
+		if (x.testBit(0)) {
+			x = x.add(n);
+		}
+		return x.shiftRight(1);
+	}
+
+	/**
+	 * Returns the Jacobi symbol (a/n).
+	 *
+	 * @param a Some integer
+	 * @param n An odd positive integer
+	 * @return The Jacobi symbol, -1, 0 or 1
+	 */
+	static int jacobi(BigInteger a, BigInteger n) {
+		a = a.mod(n);
+		int result = 1;
+		while (a.signum() != 0) {
+			int twos = a.getLowestSetBit();
+			a = a.shiftRight(twos);
+			// (2/n) = -1 when n is 3 or 5 mod 8
+			int nMod8 = n.intValue() & 7;
+			if ((twos & 1) == 1 && (nMod8 == 3 || nMod8 == 5)) {
+				result = -result;
+			}
+			// Quadratic reciprocity flips the sign when both are 3 mod 4
+			if ((a.intValue() & 3) == 3 && (n.intValue() & 3) == 3) {
+				result = -result;
+			}
+			BigInteger t = a;
+			a = n.mod(t);
+			n = t;
+		}
+		return n.equals(BigInteger.ONE) ? result : 0;
+	}
+}
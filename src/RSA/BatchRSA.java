@@ -0,0 +1,226 @@
+package RSA;
+
+import java.math.BigInteger;
+
+/**
+ * Fiat's batch RSA. One modulus is shared by several keys whose public
+ * exponents are small and pairwise coprime. A batch with one cypher text per
+ * exponent is combined up a product tree, decrypted with a single full size
+ * exponentiation and split back down the tree, so the private key cost is paid
+ * once per batch instead of once per message. Source:
+ * https://crypto.stanford.edu/~dabo/papers/ssl_batch.pdf
+ */
+public class BatchRSA {
+
+	private final BigInteger modulus;
+	private final BigInteger p;
+	private final BigInteger q;
+	private final BigInteger qInv;
+	private final RSAPrivateCrtKey[] keys;
+
+	/**
+	 * Builds the keys for every exponent over the modulus p * q.
+	 *
+	 * @param p         The first prime factor of the modulus
+	 * @param q         The second prime factor of the modulus
+	 * @param exponents Small, distinct, pairwise coprime public exponents
+	 * @throws Exception Thrown if the exponents are not pairwise coprime or one of
+	 *                   them is not invertible modulo (p-1)(q-1)
+	 */
+	public BatchRSA(BigInteger p, BigInteger q, long[] exponents) throws Exception {
+		if (exponents.length == 0) {
+			throw new Exception("At least one exponent is needed.");
+		}
+		BigInteger m = (p.subtract(BigInteger.ONE)).multiply(q.subtract(BigInteger.ONE));
+		keys = new RSAPrivateCrtKey[exponents.length];
+		for (int i = 0; i < exponents.length; i++) {
+			BigInteger e = BigInteger.valueOf(exponents[i]);
+			if (e.compareTo(BigInteger.ONE) <= 0) {
+				throw new Exception("Exponents should be greater than 1.");
+			} else if (!e.gcd(m).equals(BigInteger.ONE)) {
+				throw new Exception("The exponent " + e + " is not coprime to (p-1)(q-1).");
+			}
+			for (int j = 0; j < i; j++) {
+				if (!e.gcd(keys[j].getPublicExponent()).equals(BigInteger.ONE)) {
+					throw new Exception("The exponents should be pairwise coprime.");
+				}
+			}
+			keys[i] = RSAPrivateCrtKey.fromPrimes(p, q, e);
+		}
+		this.p = p;
+		this.q = q;
+		modulus = keys[0].getModulus();
+		qInv = keys[0].getQInv();
+	}
+
+	/**
+	 * Decrypts a batch. data[i] must have been encrypted with exponent i and may
+	 * be null if there is no message for that exponent.
+	 *
+	 * @param data The cypher texts, one slot per exponent
+	 * @return The plain texts, null where data was null
+	 * @throws Exception Thrown if the batch has the wrong size or a cypher text is
+	 *                   too large for the key
+	 */
+	public byte[][] decrypt(byte[][] data) throws Exception {
+		if (data.length != keys.length) {
+			throw new Exception("The batch should have one slot per exponent.");
+		}
+		Util.globalLog.stepIn(() -> "Batch Decrypting: " + data.length + " cypher texts");
+		byte[][] res = new byte[data.length][];
+		int[] batch = new int[data.length];
+		BigInteger[] values = new BigInteger[data.length];
+		int size = 0;
+		for (int i = 0; i < data.length; i++) {
+			if (data[i] == null) {
+				continue;
+			}
+			BigInteger cyphertext = new BigInteger(data[i]);
+			if (cyphertext.signum() < 0 || cyphertext.compareTo(modulus) >= 0) {
+				throw new Exception("Key too small for data");
+			}
+			values[i] = cyphertext;
+			if (cyphertext.gcd(modulus).equals(BigInteger.ONE)) {
+				batch[size++] = i;
+			} else {
+				// Splitting needs inverses, so these are decrypted on their own
+				res[i] = keys[i].modPow(cyphertext).toByteArray();
+			}
+		}
+		if (size > 0) {
+			Node root = combine(batch, 0, size, values);
+			Util.globalLog.log(() -> "Batch Exponent: " + root.e.toString());
+			BigInteger[] numerators = new BigInteger[data.length];
+			BigInteger[] denominators = new BigInteger[data.length];
+			split(root, rootPow(root), BigInteger.ONE, numerators, denominators);
+			invertAll(batch, size, denominators);
+			for (int j = 0; j < size; j++) {
+				int i = batch[j];
+				res[i] = numerators[i].multiply(denominators[i]).mod(modulus).toByteArray();
+			}
+		}
+		for (int i = 0; i < res.length; i++) {
+			int index = i;
+			if (res[i] != null) {
+				Util.globalLog
+						.log(() -> "Plain Text " + index + ": " + Util.globalLog.secret(() -> Util.toHex(res[index])));
+			}
+		}
+		Util.globalLog.stepOut();
+		return res;
+	}
+
+	/**
+	 * Builds the product tree over batch[from, to). A node for the exponents e_i
+	 * of its leaves holds e = prod e_i and v = prod c_i^(e / e_i), so that v^(1/e)
+	 * is the product of the plain texts below it.
+	 */
+	private Node combine(int[] batch, int from, int to, BigInteger[] values) {
+		if (to - from == 1) {
+			int i = batch[from];
+			return new Node(i, keys[i].getPublicExponent(), values[i], null, null);
+		}
+		int mid = (from + to) >>> 1;
+		Node left = combine(batch, from, mid, values);
+		Node right = combine(batch, mid, to, values);
+		BigInteger v = left.v.modPow(right.e, modulus).multiply(right.v.modPow(left.e, modulus)).mod(modulus);
+		return new Node(-1, left.e.multiply(right.e), v, left, right);
+	}
+
+	/**
+	 * Takes the e-th root of the root node with the Chinese Remainder Theorem.
+	 * This is the only full size exponentiation of the batch.
+	 */
+	private BigInteger rootPow(Node root) {
+		BigInteger pMinusOne = p.subtract(BigInteger.ONE);
+		BigInteger qMinusOne = q.subtract(BigInteger.ONE);
+		BigInteger m1 = root.v.mod(p).modPow(root.e.modInverse(pMinusOne), p);
+		BigInteger m2 = root.v.mod(q).modPow(root.e.modInverse(qMinusOne), q);
+		BigInteger h = qInv.multiply(m1.subtract(m2)).mod(p);
+		return m2.add(h.multiply(q));
+	}
+
+	/**
+	 * Splits the product m = num / den of the plain texts below node into its
+	 * factors. With X = 0 mod e_L and X = 1 mod e_R, m^X = v_L^(X / e_L) * v_R^((X
+	 * - 1) / e_R) * m_R, which gives m_R and then m_L = m / m_R. The values are
+	 * kept as fractions so the divisions can share one inversion at the leaves.
+	 */
+	private void split(Node node, BigInteger num, BigInteger den, BigInteger[] numerators,
+			BigInteger[] denominators) {
+		if (node.index >= 0) {
+			numerators[node.index] = num;
+			denominators[node.index] = den;
+			return;
+		}
+		BigInteger eL = node.left.e;
+		BigInteger eR = node.right.e;
+		BigInteger t = eL.modInverse(eR);
+		BigInteger x = eL.multiply(t);
+		BigInteger known = node.left.v.modPow(t, modulus)
+				.multiply(node.right.v.modPow(x.subtract(BigInteger.ONE).divide(eR), modulus)).mod(modulus);
+		// m_R = num^X / (den^X * known)
+		BigInteger numR = num.modPow(x, modulus);
+		BigInteger denR = den.modPow(x, modulus).multiply(known).mod(modulus);
+		// m_L = (num * den_R) / (den * num_R)
+		BigInteger numL = num.multiply(denR).mod(modulus);
+		BigInteger denL = den.multiply(numR).mod(modulus);
+		split(node.left, numL, denL, numerators, denominators);
+		split(node.right, numR, denR, numerators, denominators);
+	}
+
+	/**
+	 * Replaces every denominator of the batch by its inverse with Montgomery's
+	 * trick, one modular inversion and three multiplications per value.
+	 */
+	private void invertAll(int[] batch, int size, BigInteger[] denominators) {
+		BigInteger[] prefix = new BigInteger[size];
+		BigInteger acc = BigInteger.ONE;
+		for (int j = 0; j < size; j++) {
+			prefix[j] = acc;
+			acc = acc.multiply(denominators[batch[j]]).mod(modulus);
+		}
+		BigInteger inv = acc.modInverse(modulus);
+		for (int j = size - 1; j >= 0; j--) {
+			int i = batch[j];
+			BigInteger d = denominators[i];
+			denominators[i] = inv.multiply(prefix[j]).mod(modulus);
+			inv = inv.multiply(d).mod(modulus);
+		}
+	}
+
+	/**
+	 * Returns the key of one exponent, senders encrypt with its modulus and public
+	 * exponent.
+	 *
+	 * @param index The index of the exponent
+	 * @return The CRT private key for that exponent
+	 */
+	public RSAPrivateCrtKey getKey(int index) {
+		return keys[index];
+	}
+
+	public int getBatchSize() {
+		return keys.length;
+	}
+
+	public BigInteger getModulus() {
+		return modulus;
+	}
+
+	private static class Node {
+		private final int index;
+		private final BigInteger e;
+		private final BigInteger v;
+		private final Node left;
+		private final Node right;
+
+		Node(int index, BigInteger e, BigInteger v, Node left, Node right) {
+			this.index = index;
+			this.e = e;
+			this.v = v;
+			this.left = left;
+			this.right = right;
+		}
+	}
+}
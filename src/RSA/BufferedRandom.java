@@ -0,0 +1,78 @@
+package RSA;
+
+import java.security.DrbgParameters;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * A non blocking random source. Each thread has its own DRBG that is seeded once
+ * from the system and hands out bytes from a large buffer, so threads never
+ * contend and small requests do not each pay for a generate call.
+ */
+public class BufferedRandom implements RandomSource {
+
+	public static final int DEFAULT_BUFFER_SIZE = 4096;
+
+	private final int bufferSize;
+	private final ThreadLocal<State> state;
+
+	private static class State {
+		private final SecureRandom drbg;
+		private final byte[] buffer;
+		private int position;
+
+		State(int bufferSize) {
+			SecureRandom random;
+			try {
+				random = SecureRandom.getInstance("DRBG",
+						DrbgParameters.instantiation(256, DrbgParameters.Capability.RESEED_ONLY, null));
+			} catch (NoSuchAlgorithmException e) {
+				// The default instance does not block on Linux either
+				random = new SecureRandom();
+			}
+			drbg = random;
+			buffer = new byte[bufferSize];
+			position = bufferSize;
+		}
+	}
+
+	/**
+	 * Creates a source with the default buffer size.
+	 */
+	public BufferedRandom() {
+		this(DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Creates a source that refills each thread's buffer bufferSize bytes at a
+	 * time.
+	 *
+	 * @param bufferSize The size of the per thread buffer
+	 */
+	public BufferedRandom(int bufferSize) {
+		if (bufferSize <= 0) {
+			throw new IllegalArgumentException("The buffer size should be positive.");
+		}
+		this.bufferSize = bufferSize;
+		state = ThreadLocal.withInitial(() -> new State(bufferSize));
+	}
+
+	@Override
+	public void nextBytes(byte[] bytes, int offset, int length) {
+		State s = state.get();
+		while (length > 0) {
+			if (s.position == bufferSize) {
+				s.drbg.nextBytes(s.buffer);
+				s.position = 0;
+			}
+			int copy = Math.min(length, bufferSize - s.position);
+			System.arraycopy(s.buffer, s.position, bytes, offset, copy);
+			// Do not leave handed out bytes behind in the buffer
+			Arrays.fill(s.buffer, s.position, s.position + copy, (byte) 0);
+			s.position += copy;
+			offset += copy;
+			length -= copy;
+		}
+	}
+}
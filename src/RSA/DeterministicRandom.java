@@ -0,0 +1,63 @@
+package RSA;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A random source that always produces the same bytes for the same seed. The
+ * output is SHA-256(seed || counter) for counter = 0, 1, 2, ... This is only
+ * meant for reproducible tests.
+ */
+public class DeterministicRandom implements RandomSource {
+
+	private final MessageDigest md;
+	private final byte[] seed = new byte[8];
+	private final byte[] counter = new byte[8];
+	private final byte[] block;
+	private int position;
+	private long blockIndex;
+
+	/**
+	 * Creates a source from a seed.
+	 *
+	 * @param seed The seed
+	 */
+	public DeterministicRandom(long seed) {
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		for (int i = 0; i < 8; i++) {
+			this.seed[i] = (byte) (seed >>> (56 - 8 * i));
+		}
+		block = new byte[md.getDigestLength()];
+		position = block.length;
+	}
+
+	@Override
+	public synchronized void nextBytes(byte[] bytes, int offset, int length) {
+		while (length > 0) {
+			if (position == block.length) {
+				for (int i = 0; i < 8; i++) {
+					counter[i] = (byte) (blockIndex >>> (56 - 8 * i));
+				}
+				blockIndex++;
+				md.update(seed);
+				md.update(counter);
+				try {
+					md.digest(block, 0, block.length);
+				} catch (DigestException e) {
+					throw new IllegalStateException(e);
+				}
+				position = 0;
+			}
+			int copy = Math.min(length, block.length - position);
+			System.arraycopy(block, position, bytes, offset, copy);
+			position += copy;
+			offset += copy;
+			length -= copy;
+		}
+	}
+}
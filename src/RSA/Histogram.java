@@ -0,0 +1,164 @@
+package RSA;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non negative longs with log linear buckets in the style of
+ * HdrHistogram. Values below 64 are counted exactly, larger values fall into one
+ * of 32 buckets per power of two so percentiles are within about 3% of the true
+ * value. Recording is lock free and never allocates.
+ */
+public class Histogram implements HistogramMBean {
+
+	private static final int LINEAR = 64;
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = LINEAR + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+	private final String unit;
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Creates an empty histogram.
+	 *
+	 * @param unit The unit of the recorded values, shown over JMX
+	 */
+	public Histogram(String unit) {
+		this.unit = unit;
+	}
+
+	/**
+	 * Records one value. Negative values are recorded as 0.
+	 *
+	 * @param value The value
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts.incrementAndGet(index(value));
+		count.increment();
+		sum.add(value);
+		min.accumulate(value);
+		max.accumulate(value);
+	}
+
+	/**
+	 * Returns the smallest recorded value v such that p percent of the values are
+	 * at most v, up to the precision of the buckets.
+	 *
+	 * @param percentile The percentile, between 0 and 100
+	 * @return The value at the percentile, 0 if nothing was recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long total = 0;
+		long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long target = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= target) {
+				return Math.min(highestInBucket(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	/**
+	 * Returns the bucket of a value.
+	 */
+	static int index(long value) {
+		if (value < LINEAR) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		int top = (int) (value >>> shift) - SUB_BUCKETS;
+		return LINEAR + (shift - 1) * SUB_BUCKETS + top;
+	}
+
+	/**
+	 * Returns the largest value that falls into a bucket.
+	 */
+	static long highestInBucket(int index) {
+		if (index < LINEAR) {
+			return index;
+		}
+		int shift = (index - LINEAR) / SUB_BUCKETS + 1;
+		long top = (index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+		return ((top + 1) << shift) - 1;
+	}
+
+	@Override
+	public String getUnit() {
+		return unit;
+	}
+
+	@Override
+	public long getCount() {
+		return count.sum();
+	}
+
+	@Override
+	public long getMin() {
+		long res = min.get();
+		return res == Long.MAX_VALUE ? 0 : res;
+	}
+
+	@Override
+	public long getMax() {
+		return max.get();
+	}
+
+	@Override
+	public double getMean() {
+		long n = count.sum();
+		return n == 0 ? 0 : (double) sum.sum() / n;
+	}
+
+	@Override
+	public long getPercentile50() {
+		return getValueAtPercentile(50);
+	}
+
+	@Override
+	public long getPercentile90() {
+		return getValueAtPercentile(90);
+	}
+
+	@Override
+	public long getPercentile99() {
+		return getValueAtPercentile(99);
+	}
+
+	@Override
+	public long getPercentile999() {
+		return getValueAtPercentile(99.9);
+	}
+
+	/**
+	 * Clears the histogram. Values recorded while this runs may be partly kept.
+	 */
+	@Override
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		count.reset();
+		sum.reset();
+		min.reset();
+		max.reset();
+	}
+}
@@ -0,0 +1,27 @@
+package RSA;
+
+/**
+ * The JMX view of a {@link Histogram}.
+ */
+public interface HistogramMBean {
+
+	String getUnit();
+
+	long getCount();
+
+	long getMin();
+
+	long getMax();
+
+	double getMean();
+
+	long getPercentile50();
+
+	long getPercentile90();
+
+	long getPercentile99();
+
+	long getPercentile999();
+
+	void reset();
+}
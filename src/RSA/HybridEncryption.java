@@ -0,0 +1,239 @@
+package RSA;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * A static class for encrypting data of any size. A random AES key is wrapped
+ * with OAEP and RSA and the data is encrypted with AES-GCM in fixed size
+ * chunks, so memory use does not depend on the size of the data. Each chunk
+ * uses its index as the nonce and is authenticated with a flag that marks the
+ * last chunk, so chunks cannot be reordered, dropped or truncated.
+ *
+ * The format is: magic (4 bytes) || version (1 byte) || chunk size (4 bytes) ||
+ * wrapped key length (4 bytes) || wrapped key || chunks, where each chunk is
+ * the cypher text followed by a 16 byte tag.
+ */
+public class HybridEncryption {
+
+	public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+	private static final byte[] MAGIC = { 'P', 'J', 'R', 'H' };
+	private static final byte VERSION = 1;
+	private static final int HEADER_SIZE = MAGIC.length + 1 + 4 + 4;
+	private static final int KEY_SIZE = 32;
+	private static final int NONCE_SIZE = 12;
+	private static final int TAG_SIZE = 16;
+	// How much of the input file is mapped at a time
+	private static final int MAP_WINDOW = 16 * 1024 * 1024;
+
+	/**
+	 * Encrypts the file at in into the file at out.
+	 *
+	 * @param in        The plain text file
+	 * @param out       The cypher text file, replaced if it exists
+	 * @param publicKey The public key context the data key is wrapped with
+	 * @throws Exception Thrown if the files cannot be read or written or the key
+	 *                   is too small to wrap the data key
+	 */
+	public static void encrypt(Path in, Path out, RSAKeyContext publicKey) throws Exception {
+		try (FileChannel input = FileChannel.open(in, StandardOpenOption.READ);
+				FileChannel output = FileChannel.open(out, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+						StandardOpenOption.TRUNCATE_EXISTING)) {
+			encrypt(input, output, publicKey, DEFAULT_CHUNK_SIZE);
+		}
+	}
+
+	/**
+	 * Decrypts the file at in into the file at out. If the data fails to
+	 * authenticate out is deleted.
+	 *
+	 * @param in         The cypher text file
+	 * @param out        The plain text file, replaced if it exists
+	 * @param privateKey The private key context the data key is unwrapped with
+	 * @throws Exception Thrown if the files cannot be read or written or the data
+	 *                   was modified
+	 */
+	public static void decrypt(Path in, Path out, RSAKeyContext privateKey) throws Exception {
+		try (FileChannel input = FileChannel.open(in, StandardOpenOption.READ);
+				FileChannel output = FileChannel.open(out, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+						StandardOpenOption.TRUNCATE_EXISTING)) {
+			decrypt(input, output, privateKey);
+		} catch (Exception e) {
+			Files.deleteIfExists(out);
+			throw e;
+		}
+	}
+
+	/**
+	 * Encrypts everything from the current position of input to its end.
+	 *
+	 * @param input     The plain text, read through memory mapped windows
+	 * @param output    The cypher text is written from its current position
+	 * @param publicKey The public key context the data key is wrapped with
+	 * @param chunkSize The number of plain text bytes per chunk
+	 * @throws Exception Thrown if the channels fail or the key is too small to
+	 *                   wrap the data key
+	 */
+	public static void encrypt(FileChannel input, FileChannel output, RSAKeyContext publicKey, int chunkSize)
+			throws Exception {
+		if (chunkSize <= 0 || chunkSize > MAP_WINDOW) {
+			throw new Exception("Chunk size should be between 1 and " + MAP_WINDOW + " bytes");
+		}
+		Util.globalLog.stepIn(() -> "Hybrid Encrypt");
+		byte[] dataKey = new byte[KEY_SIZE];
+		Util.random.nextBytes(dataKey);
+		byte[] wrappedKey = Util.I2OSP(
+				new BigInteger(1, RSA.encrypt(OAEP.pad(dataKey, publicKey.getBitLength()), publicKey)),
+				publicKey.getByteLength());
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + wrappedKey.length);
+		header.put(MAGIC).put(VERSION).putInt(chunkSize).putInt(wrappedKey.length).put(wrappedKey).flip();
+		writeFully(output, header);
+
+		Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+		SecretKeySpec key = new SecretKeySpec(dataKey, "AES");
+		ByteBuffer chunkOut = ByteBuffer.allocateDirect(chunkSize + TAG_SIZE);
+		long position = input.position();
+		long size = input.size();
+		long index = 0;
+		// Map whole chunks at a time so a chunk never spans two windows
+		int window = MAP_WINDOW / chunkSize * chunkSize;
+		do {
+			int mapped = (int) Math.min(window, size - position);
+			MappedByteBuffer map = input.map(FileChannel.MapMode.READ_ONLY, position, mapped);
+			int offset = 0;
+			do {
+				int length = Math.min(chunkSize, mapped - offset);
+				boolean last = position + offset + length == size;
+				map.limit(offset + length).position(offset);
+				chunkOut.clear();
+				initChunk(cipher, Cipher.ENCRYPT_MODE, key, index++, last);
+				cipher.doFinal(map, chunkOut);
+				chunkOut.flip();
+				writeFully(output, chunkOut);
+				offset += length;
+			} while (offset < mapped);
+			position += mapped;
+		} while (position < size);
+		long chunks = index;
+		Util.globalLog.log(() -> "Chunks: " + chunks);
+		Util.globalLog.stepOut();
+	}
+
+	/**
+	 * Decrypts everything from the current position of input to its end.
+	 *
+	 * @param input      The cypher text, read through memory mapped windows
+	 * @param output     The plain text is written from its current position
+	 * @param privateKey The private key context the data key is unwrapped with
+	 * @throws Exception Thrown if the channels fail or the data was modified
+	 */
+	public static void decrypt(FileChannel input, FileChannel output, RSAKeyContext privateKey) throws Exception {
+		Util.globalLog.stepIn(() -> "Hybrid Decrypt");
+		long position = input.position();
+		long size = input.size();
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		readFully(input, header, position);
+		header.flip();
+		byte[] magic = new byte[MAGIC.length];
+		header.get(magic);
+		if (!Arrays.equals(magic, MAGIC) || header.get() != VERSION) {
+			throw new Exception("Not a hybrid encrypted file");
+		}
+		int chunkSize = header.getInt();
+		int wrappedLength = header.getInt();
+		if (chunkSize <= 0 || chunkSize > MAP_WINDOW || wrappedLength != privateKey.getByteLength()) {
+			throw new Exception("Invalid header");
+		}
+		position += HEADER_SIZE;
+		ByteBuffer wrapped = ByteBuffer.allocate(wrappedLength);
+		readFully(input, wrapped, position);
+		position += wrappedLength;
+		// RSA.decrypt reads signed values and drops leading zeros from its result
+		byte[] unwrapped = RSA.decrypt(new BigInteger(1, wrapped.array()).toByteArray(), privateKey);
+		byte[] padded = Util.I2OSP(new BigInteger(1, unwrapped), privateKey.getBitLength() / 8);
+		byte[] dataKey = OAEP.unpad(padded, privateKey.getBitLength());
+		if (dataKey.length != KEY_SIZE) {
+			throw new Exception("Invalid data key");
+		}
+
+		Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+		SecretKeySpec key = new SecretKeySpec(dataKey, "AES");
+		ByteBuffer chunkOut = ByteBuffer.allocateDirect(chunkSize);
+		int sealedSize = chunkSize + TAG_SIZE;
+		long index = 0;
+		int window = MAP_WINDOW / sealedSize * sealedSize;
+		do {
+			int mapped = (int) Math.min(window, size - position);
+			if (mapped < TAG_SIZE) {
+				throw new Exception("Data was truncated");
+			}
+			MappedByteBuffer map = input.map(FileChannel.MapMode.READ_ONLY, position, mapped);
+			int offset = 0;
+			do {
+				int length = Math.min(sealedSize, mapped - offset);
+				if (length < TAG_SIZE) {
+					throw new Exception("Data was truncated");
+				}
+				boolean last = position + offset + length == size;
+				map.limit(offset + length).position(offset);
+				chunkOut.clear();
+				initChunk(cipher, Cipher.DECRYPT_MODE, key, index++, last);
+				try {
+					cipher.doFinal(map, chunkOut);
+				} catch (AEADBadTagException e) {
+					throw new Exception("Chunk " + (index - 1) + " failed to authenticate", e);
+				}
+				chunkOut.flip();
+				writeFully(output, chunkOut);
+				offset += length;
+			} while (offset < mapped);
+			position += mapped;
+		} while (position < size);
+		long chunks = index;
+		Util.globalLog.log(() -> "Chunks: " + chunks);
+		Util.globalLog.stepOut();
+	}
+
+	/**
+	 * Sets up the cipher for one chunk. The nonce is the chunk index and the
+	 * associated data marks the last chunk.
+	 */
+	private static void initChunk(Cipher cipher, int mode, SecretKeySpec key, long index, boolean last)
+			throws Exception {
+		byte[] nonce = new byte[NONCE_SIZE];
+		for (int i = 0; i < 8; i++) {
+			nonce[NONCE_SIZE - 1 - i] = (byte) (index >>> (i << 3));
+		}
+		cipher.init(mode, key, new GCMParameterSpec(TAG_SIZE * 8, nonce));
+		cipher.updateAAD(new byte[] { (byte) (last ? 1 : 0) });
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws Exception {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				throw new Exception("Data was truncated");
+			}
+			position += read;
+		}
+	}
+}
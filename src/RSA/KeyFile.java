@@ -0,0 +1,111 @@
+package RSA;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A file of concatenated DER keys, each either a PKCS#1 RSAPublicKey or
+ * RSAPrivateKey. The file is memory mapped and only the headers are read when
+ * it is opened, a key is decoded the first time it is asked for.
+ */
+public class KeyFile {
+
+	private final MappedByteBuffer map;
+	private int[] offsets;
+	private final int count;
+
+	/**
+	 * Maps the file and finds where each key starts.
+	 *
+	 * @param path The file of DER keys
+	 * @throws Exception Thrown if the file cannot be read, is larger than 2GB or
+	 *                   is not a sequence of DER structures
+	 */
+	public KeyFile(Path path) throws Exception {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new Exception("Key files are limited to 2GB.");
+			}
+			map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		offsets = new int[16];
+		int n = 0;
+		ByteBuffer view = map.duplicate();
+		while (view.hasRemaining()) {
+			int size = PKCS1.elementSize(view);
+			if (size > view.remaining()) {
+				throw new Exception("Key " + n + " is truncated.");
+			}
+			if (n == offsets.length) {
+				offsets = Arrays.copyOf(offsets, n * 2);
+			}
+			offsets[n++] = view.position();
+			view.position(view.position() + size);
+		}
+		count = n;
+	}
+
+	/**
+	 * Returns the number of keys in the file.
+	 *
+	 * @return The number of keys
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Returns true if the key at index is an RSAPrivateKey.
+	 *
+	 * @param index The index of the key
+	 * @return If the key is private
+	 * @throws Exception Thrown if the key is not a valid DER SEQUENCE
+	 */
+	public boolean isPrivate(int index) throws Exception {
+		return PKCS1.countFields(at(index)) != 2;
+	}
+
+	/**
+	 * Decodes the key at index as a public key context. For a private key the
+	 * modulus and public exponent are used.
+	 *
+	 * @param index The index of the key
+	 * @return The public key context
+	 * @throws Exception Thrown if the key is not valid
+	 */
+	public RSAKeyContext getPublicKey(int index) throws Exception {
+		if (isPrivate(index)) {
+			RSAPrivateCrtKey key = getPrivateKey(index);
+			return new RSAKeyContext(key.getModulus(), key.getPublicExponent());
+		}
+		return PKCS1.decodePublicKey(at(index));
+	}
+
+	/**
+	 * Decodes the key at index as a private key.
+	 *
+	 * @param index The index of the key
+	 * @return The CRT private key
+	 * @throws Exception Thrown if the key is not a valid RSAPrivateKey
+	 */
+	public RSAPrivateCrtKey getPrivateKey(int index) throws Exception {
+		return PKCS1.decodePrivateKey(at(index));
+	}
+
+	/**
+	 * Returns an independent view positioned at the key so concurrent reads do not
+	 * share a position.
+	 */
+	private ByteBuffer at(int index) {
+		if (index < 0 || index >= count) {
+			throw new IndexOutOfBoundsException("Key " + index + " of " + count);
+		}
+		ByteBuffer view = map.duplicate();
+		view.position(offsets[index]);
+		return view;
+	}
+}
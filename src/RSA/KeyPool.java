@@ -0,0 +1,364 @@
+package RSA;
+
+import java.math.BigInteger;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out CRT key pairs generated ahead of time by background workers. There
+ * is one bounded pool per prime size. Once the depth of a pool drops to the low
+ * watermark the workers refill it up to the high watermark, so a warm pool
+ * answers {@link #take(int)} without generating anything. The workers do not
+ * write to the trace since the trace sinks are not thread safe.
+ *
+ * A take that finds its pool empty waits on the pool and is woken when a key is
+ * added, when a worker of the pool fails or when the key pool is closed, so it
+ * never waits for keys that will not come.
+ */
+public class KeyPool implements AutoCloseable {
+
+	private final BigInteger publicExponent;
+	private final int lowWatermark;
+	private final int highWatermark;
+	private final int workers;
+	private final ExecutorService executor;
+	private final ConcurrentHashMap<Integer, Pool> pools = new ConcurrentHashMap<Integer, Pool>();
+	private volatile boolean closed;
+
+	/**
+	 * The counters of one pool at the time {@link KeyPool#getStats(int)} was
+	 * called.
+	 */
+	public static class Stats {
+		private final int depth;
+		private final long generated;
+		private final long hits;
+		private final long misses;
+		private final long generationNanos;
+
+		private Stats(Pool pool) {
+			depth = pool.keys.size();
+			generated = pool.generated.get();
+			hits = pool.hits.get();
+			misses = pool.misses.get();
+			generationNanos = pool.generationNanos.get();
+		}
+
+		/**
+		 * Returns the number of keys ready to be taken.
+		 *
+		 * @return The depth of the pool
+		 */
+		public int getDepth() {
+			return depth;
+		}
+
+		public long getGenerated() {
+			return generated;
+		}
+
+		/**
+		 * Returns the number of takes that found a key waiting.
+		 *
+		 * @return The number of takes served from the pool
+		 */
+		public long getHits() {
+			return hits;
+		}
+
+		/**
+		 * Returns the number of takes that had to wait for a worker.
+		 *
+		 * @return The number of takes that found the pool empty
+		 */
+		public long getMisses() {
+			return misses;
+		}
+
+		/**
+		 * Returns the average time a worker spent generating one key.
+		 *
+		 * @return The average generation time in nanoseconds, 0 if none was made
+		 */
+		public long getAverageGenerationNanos() {
+			return generated == 0 ? 0 : generationNanos / generated;
+		}
+	}
+
+	/**
+	 * Creates a pool of keys with the public exponent 65537 and one worker per
+	 * processor.
+	 *
+	 * @param lowWatermark  The depth at which a pool is refilled
+	 * @param highWatermark The depth a pool is refilled to
+	 */
+	public KeyPool(int lowWatermark, int highWatermark) {
+		this(BigInteger.valueOf(65537), lowWatermark, highWatermark, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a pool of keys.
+	 *
+	 * @param publicExponent The public exponent of every key
+	 * @param lowWatermark   The depth at which a pool is refilled
+	 * @param highWatermark  The depth a pool is refilled to
+	 * @param workers        The number of background threads
+	 */
+	public KeyPool(BigInteger publicExponent, int lowWatermark, int highWatermark, int workers) {
+		if (publicExponent.compareTo(BigInteger.ONE) <= 0 || !publicExponent.testBit(0)) {
+			throw new IllegalArgumentException("The public exponent should be odd and greater than 1.");
+		} else if (lowWatermark < 0 || highWatermark < 1 || lowWatermark >= highWatermark) {
+			throw new IllegalArgumentException("The watermarks should satisfy 0 <= low < high.");
+		} else if (workers < 1) {
+			throw new IllegalArgumentException("A key pool needs at least 1 worker.");
+		}
+		this.publicExponent = publicExponent;
+		this.lowWatermark = lowWatermark;
+		this.highWatermark = highWatermark;
+		this.workers = workers;
+		AtomicInteger count = new AtomicInteger();
+		executor = new ThreadPoolExecutor(workers, workers, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				r -> {
+					Thread t = new Thread(r, "key-pool-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				});
+		((ThreadPoolExecutor) executor).allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Starts filling the pool for a prime size without taking a key.
+	 *
+	 * @param bits The size of p and q
+	 */
+	public void warm(int bits) {
+		refill(pool(bits));
+	}
+
+	/**
+	 * Takes a key, waiting for a worker if the pool is empty.
+	 *
+	 * @param bits The size of p and q
+	 * @return A key pair that has not been handed out before
+	 * @throws InterruptedException  Thrown if the calling thread is interrupted
+	 * @throws IllegalStateException Thrown if the pool is empty and the key pool
+	 *                               is closed or its workers failed
+	 */
+	public RSAPrivateCrtKey take(int bits) throws InterruptedException {
+		Pool pool = pool(bits);
+		RSAPrivateCrtKey key = pool.keys.poll();
+		if (key != null) {
+			pool.hits.incrementAndGet();
+		} else {
+			pool.misses.incrementAndGet();
+			refill(pool);
+			key = await(pool, false, 0);
+		}
+		refill(pool);
+		return key;
+	}
+
+	/**
+	 * Takes a key, waiting at most timeout for a worker if the pool is empty.
+	 *
+	 * @param bits    The size of p and q
+	 * @param timeout How long to wait
+	 * @param unit    The unit of timeout
+	 * @return A key pair that has not been handed out before, or null if none was
+	 *         ready in time
+	 * @throws InterruptedException  Thrown if the calling thread is interrupted
+	 * @throws IllegalStateException Thrown if the pool is empty and the key pool
+	 *                               is closed or its workers failed
+	 */
+	public RSAPrivateCrtKey take(int bits, long timeout, TimeUnit unit) throws InterruptedException {
+		Pool pool = pool(bits);
+		RSAPrivateCrtKey key = pool.keys.poll();
+		if (key != null) {
+			pool.hits.incrementAndGet();
+		} else {
+			pool.misses.incrementAndGet();
+			refill(pool);
+			key = await(pool, true, unit.toNanos(timeout));
+		}
+		refill(pool);
+		return key;
+	}
+
+	/**
+	 * Returns the counters of the pool for a prime size.
+	 *
+	 * @param bits The size of p and q
+	 * @return A snapshot of the pool
+	 */
+	public Stats getStats(int bits) {
+		return new Stats(pool(bits));
+	}
+
+	/**
+	 * Stops the workers. Keys already in the pools can still be taken, takes that
+	 * find their pool empty fail instead of waiting.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		executor.shutdownNow();
+		for (Pool pool : pools.values()) {
+			synchronized (pool) {
+				pool.notifyAll();
+			}
+		}
+	}
+
+	private Pool pool(int bits) {
+		if (bits < PrimeSieve.MIN_BITS) {
+			throw new IllegalArgumentException("The primes need at least " + PrimeSieve.MIN_BITS + " bits.");
+		}
+		return pools.computeIfAbsent(bits, b -> new Pool(b, highWatermark));
+	}
+
+	/**
+	 * Waits for a worker to add a key to an empty pool.
+	 *
+	 * @return The key, or null if timed and none came within nanos
+	 */
+	private RSAPrivateCrtKey await(Pool pool, boolean timed, long nanos) throws InterruptedException {
+		long deadline = System.nanoTime() + nanos;
+		synchronized (pool) {
+			RSAPrivateCrtKey key;
+			while ((key = pool.keys.poll()) == null) {
+				if (pool.failure != null) {
+					throw new IllegalStateException("The workers could not generate a key.", pool.failure);
+				} else if (closed) {
+					throw new IllegalStateException("The key pool is closed.");
+				} else if (!timed) {
+					pool.wait();
+				} else if (deadline - System.nanoTime() > 0) {
+					TimeUnit.NANOSECONDS.timedWait(pool, deadline - System.nanoTime());
+				} else {
+					return null;
+				}
+			}
+			return key;
+		}
+	}
+
+	/**
+	 * Starts workers for a pool that has dropped to the low watermark, at most one
+	 * per thread.
+	 */
+	private void refill(Pool pool) {
+		int depth = pool.keys.size();
+		if (depth > lowWatermark || depth + pool.pending.get() >= highWatermark || executor.isShutdown()
+				|| pool.failure != null) {
+			return;
+		}
+		while (true) {
+			int running = pool.fillers.get();
+			if (running >= workers) {
+				return;
+			} else if (pool.fillers.compareAndSet(running, running + 1)) {
+				try {
+					executor.execute(() -> fill(pool));
+				} catch (RejectedExecutionException e) {
+					// Lost a race with close
+					pool.fillers.decrementAndGet();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Generates keys until the pool and the keys in progress reach the high
+	 * watermark.
+	 */
+	private void fill(Pool pool) {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				// Reserve a slot so the workers do not overshoot together
+				int pending = pool.pending.incrementAndGet();
+				if (pool.keys.size() + pending > highWatermark) {
+					pool.pending.decrementAndGet();
+					return;
+				}
+				try {
+					long start = System.nanoTime();
+					RSAPrivateCrtKey key = generate(pool.bits);
+					long elapsed = System.nanoTime() - start;
+					pool.generationNanos.addAndGet(elapsed);
+					Metrics.record(Metrics.KEY_GENERATION, pool.bits, elapsed);
+					pool.generated.incrementAndGet();
+					pool.keys.offer(key);
+					synchronized (pool) {
+						pool.notifyAll();
+					}
+				} finally {
+					pool.pending.decrementAndGet();
+				}
+			}
+		} catch (Exception e) {
+			// Nothing is left to catch it here, so the takers get it
+			synchronized (pool) {
+				pool.failure = e;
+				pool.notifyAll();
+			}
+		} finally {
+			pool.fillers.decrementAndGet();
+			// A take may have missed this worker while it was stopping
+			refill(pool);
+		}
+	}
+
+	/**
+	 * Generates a key whose primes p and q do not have p - 1 or q - 1 share a
+	 * factor with the public exponent. Each prime gets its own sieve: a sieve
+	 * walks up from one random start, so two primes from the same sieve would be
+	 * close enough for Fermat factorisation.
+	 */
+	private RSAPrivateCrtKey generate(int bits) throws Exception {
+		BigInteger p = nextPrime(new PrimeSieve(bits));
+		BigInteger q;
+		do {
+			q = nextPrime(new PrimeSieve(bits));
+		} while (q.equals(p));
+		return RSAPrivateCrtKey.fromPrimes(p, q, publicExponent);
+	}
+
+	private BigInteger nextPrime(PrimeSieve sieve) {
+		while (true) {
+			BigInteger candidate = sieve.next();
+			if (candidate.subtract(BigInteger.ONE).gcd(publicExponent).equals(BigInteger.ONE)
+					&& Util.isPrime(candidate, Trace.NONE, Trace.NONE)) {
+				return candidate;
+			}
+		}
+	}
+
+	/**
+	 * The keys of one prime size. Takers waiting for a key wait on the pool.
+	 */
+	private static class Pool {
+		private final int bits;
+		// Set once a worker fails, guarded by the pool
+		private volatile Exception failure;
+		private final ArrayBlockingQueue<RSAPrivateCrtKey> keys;
+		private final AtomicInteger fillers = new AtomicInteger();
+		private final AtomicInteger pending = new AtomicInteger();
+		private final AtomicLong generated = new AtomicLong();
+		private final AtomicLong hits = new AtomicLong();
+		private final AtomicLong misses = new AtomicLong();
+		private final AtomicLong generationNanos = new AtomicLong();
+
+		Pool(int bits, int capacity) {
+			this.bits = bits;
+			keys = new ArrayBlockingQueue<RSAPrivateCrtKey>(capacity);
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package RSA;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms for the RSA operations, published as MBeans
+ * under the domain "RSA". There is one histogram per operation and key size.
+ * Collection is off unless the system property rsa.metrics is true or
+ * {@link #setEnabled(boolean)} is called, and while off every instrumented call
+ * costs a single field read.
+ */
+public class Metrics {
+
+	public static final String ENCRYPT = "encrypt";
+	public static final String DECRYPT = "decrypt";
+	public static final String PAD = "pad";
+	public static final String UNPAD = "unpad";
+	public static final String KEY_GENERATION = "keyGeneration";
+	/**
+	 * Miller Rabin rounds run per primality check.
+	 */
+	public static final String PRIME_ROUNDS = "isPrimeRounds";
+	/**
+	 * Candidates rejected per random prime.
+	 */
+	public static final String PRIME_REJECTED = "randomPrimeRejected";
+
+	private static volatile boolean enabled = Boolean.getBoolean("rsa.metrics");
+	private static final ConcurrentHashMap<String, Histogram> HISTOGRAMS = new ConcurrentHashMap<String, Histogram>();
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Turns collection on or off. Recorded values are kept while off.
+	 *
+	 * @param enabled If values should be recorded
+	 */
+	public static void setEnabled(boolean enabled) {
+		Metrics.enabled = enabled;
+	}
+
+	/**
+	 * Returns the start time of a timed operation.
+	 *
+	 * @return The current nano time, or 0 if collection is off
+	 */
+	public static long start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Records the time since start for an operation. Nothing is recorded if
+	 * collection was off when the operation started.
+	 *
+	 * @param name  The operation
+	 * @param bits  The key or prime size
+	 * @param start The value returned by {@link #start()}
+	 */
+	public static void stop(String name, int bits, long start) {
+		if (start != 0 && enabled) {
+			histogram(name, bits).record(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Records a value for an operation if collection is on.
+	 *
+	 * @param name  The operation
+	 * @param bits  The key or prime size
+	 * @param value The value
+	 */
+	public static void record(String name, int bits, long value) {
+		if (enabled) {
+			histogram(name, bits).record(value);
+		}
+	}
+
+	/**
+	 * Returns the histogram of an operation, registering it as an MBean the first
+	 * time.
+	 *
+	 * @param name The operation
+	 * @param bits The key or prime size
+	 * @return The histogram
+	 */
+	public static Histogram histogram(String name, int bits) {
+		String key = name + ":" + bits;
+		Histogram histogram = HISTOGRAMS.get(key);
+		if (histogram != null) {
+			return histogram;
+		}
+		return HISTOGRAMS.computeIfAbsent(key, k -> {
+			boolean counts = name.equals(PRIME_ROUNDS) || name.equals(PRIME_REJECTED);
+			Histogram res = new Histogram(counts ? "count" : "ns");
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(res, objectName(name, bits));
+			} catch (JMException e) {
+				// Already registered, for example by another class loader
+			}
+			return res;
+		});
+	}
+
+	/**
+	 * Returns the name the histogram of an operation is published under.
+	 *
+	 * @param name The operation
+	 * @param bits The key or prime size
+	 * @return The object name
+	 * @throws JMException Thrown if name is not a valid key property
+	 */
+	public static ObjectName objectName(String name, int bits) throws JMException {
+		return new ObjectName("RSA:type=Metrics,name=" + name + ",bits=" + bits);
+	}
+}
@@ -0,0 +1,297 @@
+package RSA;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The Miller Rabin test with random bases. The test stops at the first witness
+ * of compositeness, so composites usually cost a single round. Source:
+ * http://home.sandiego.edu/~dhoffoss/teaching/cryptography/10-Rabin-Miller.pdf
+ */
+public class MillerRabin implements PrimalityTest {
+
+	private static final BigInteger TWO = BigInteger.valueOf(2);
+
+	/**
+	 * Numbers below this are looked up in a bitmap instead of being tested.
+	 */
+	public static final int SMALL_PRIME_LIMIT = 1 << 16;
+	/**
+	 * Bases that make Miller Rabin exact for every n < 2^64. Source:
+	 * https://miller-rabin.appspot.com
+	 */
+	public static final long[] LONG_BASES = { 2, 325, 9375, 28178, 450775, 9780504, 1795265022 };
+	// Bit i is set if 2i + 1 is prime
+	private static final long[] SMALL_PRIMES = smallPrimeBitmap(SMALL_PRIME_LIMIT);
+
+	private final int rounds;
+
+	/**
+	 * Creates a test that picks the number of rounds from the bit length of the
+	 * number being tested, see {@link #roundsFor(int)}.
+	 */
+	public MillerRabin() {
+		this(0);
+	}
+
+	/**
+	 * Creates a test with a fixed number of rounds.
+	 *
+	 * @param rounds The number of rounds, or 0 to pick them from the bit length
+	 */
+	public MillerRabin(int rounds) {
+		if (rounds < 0) {
+			throw new IllegalArgumentException("The number of rounds should not be negative.");
+		}
+		this.rounds = rounds;
+	}
+
+	/**
+	 * Returns the number of rounds needed on a random candidate of the given size.
+	 * The error probability matches the security level of an RSA key twice the
+	 * size, from 2^-80 up to 2^-256, using the bounds in FIPS 186-4 Appendix F.1.
+	 * They do not hold for numbers picked by an adversary.
+	 *
+	 * @param bits The bit length of the candidate
+	 * @return The number of rounds to run
+	 */
+	public static int roundsFor(int bits) {
+		if (bits >= 3747) {
+			return 3;
+		} else if (bits >= 1345) {
+			return 4;
+		} else if (bits >= 476) {
+			return 5;
+		} else if (bits >= 400) {
+			return 6;
+		} else if (bits >= 347) {
+			return 7;
+		} else if (bits >= 308) {
+			return 8;
+		} else if (bits >= 55) {
+			return 27;
+		}
+		return 34;
+	}
+
+	@Override
+	public boolean isProbablePrime(BigInteger n, Trace trace) {
+		if (n.compareTo(BigInteger.valueOf(4)) < 0) {
+			return n.compareTo(BigInteger.ONE) > 0;
+		} else if (!n.testBit(0)) {
+			return false;
+		}
+		int count = rounds > 0 ? rounds : roundsFor(n.bitLength());
+		Witness witness = new Witness(n, trace);
+		BigInteger nMinusThree = n.subtract(BigInteger.valueOf(3));
+		for (int i = 0; i < count; i++) {
+			int trial = i;
+			trace.stepIn(() -> "Trial " + trial);
+			// Pick a uniformly in [2, n-2]
+			BigInteger a;
+			do {
+				a = new BigInteger(n.bitLength(), ThreadLocalRandom.current());
+			} while (a.compareTo(nMinusThree) > 0);
+			boolean probablePrime = witness.test(a.add(TWO));
+			trace.stepOut();
+			if (!probablePrime) {
+				trace.log(() -> "n is composite after " + (trial + 1) + " trials.");
+				Metrics.record(Metrics.PRIME_ROUNDS, n.bitLength(), trial + 1);
+				return false;
+			}
+		}
+		trace.log(() -> "n passed all " + count + " trials.");
+		Metrics.record(Metrics.PRIME_ROUNDS, n.bitLength(), count);
+		return true;
+	}
+
+	/**
+	 * Runs a single Miller Rabin round on n with a fixed base.
+	 *
+	 * @param n     An odd number greater than 3
+	 * @param a     The base, 2 <= a <= n - 2
+	 * @param trace The trace the steps are logged to
+	 * @return False if a is a witness that n is composite
+	 */
+	static boolean isStrongProbablePrime(BigInteger n, BigInteger a, Trace trace) {
+		return new Witness(n, trace).test(a);
+	}
+
+	/**
+	 * Returns true if n is prime. This is deterministic and runs in O(log n)
+	 * multiplications for any non negative long.
+	 *
+	 * @param n The number to test
+	 * @return If n is a prime number
+	 */
+	public static boolean isPrime(long n) {
+		if (n < SMALL_PRIME_LIMIT) {
+			if (n < 2) {
+				return false;
+			} else if ((n & 1) == 0) {
+				return n == 2;
+			}
+			int i = (int) (n >>> 1);
+			return (SMALL_PRIMES[i >>> 6] & (1L << i)) != 0;
+		} else if ((n & 1) == 0) {
+			return false;
+		}
+		// n - 1 = 2^s * m
+		long nMinusOne = n - 1;
+		int s = Long.numberOfTrailingZeros(nMinusOne);
+		long m = nMinusOne >>> s;
+		// Work in Montgomery form with R = 2^64
+		long nInv = n;
+		for (int i = 0; i < 5; i++) {
+			nInv *= 2 - n * nInv;
+		}
+		nInv = -nInv;
+		long one = Long.remainderUnsigned(-n, n);
+		long minusOne = n - one;
+		// R^2 mod n, computed by doubling R mod n 64 times
+		long rSquared = one;
+		for (int i = 0; i < 64; i++) {
+			rSquared = addMod(rSquared, rSquared, n);
+		}
+		for (long base : LONG_BASES) {
+			long a = base % n;
+			if (a == 0) {
+				continue;
+			}
+			long x = montgomeryPow(montgomeryMultiply(a, rSquared, n, nInv), m, one, n, nInv);
+			if (x == one || x == minusOne) {
+				continue;
+			}
+			boolean witness = true;
+			for (int j = 1; j < s; j++) {
+				x = montgomeryMultiply(x, x, n, nInv);
+				if (x == minusOne) {
+					witness = false;
+					break;
+				} else if (x == one) {
+					break;
+				}
+			}
+			if (witness) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns a * b * 2^-64 mod n. The 128 bit product is formed with
+	 * {@link Math#multiplyHigh} so nothing overflows.
+	 *
+	 * @param a    A value less than n
+	 * @param b    A value less than n
+	 * @param n    An odd modulus less than 2^63
+	 * @param nInv -n^-1 mod 2^64
+	 * @return The Montgomery product
+	 */
+	private static long montgomeryMultiply(long a, long b, long n, long nInv) {
+		long lo = a * b;
+		long hi = Math.multiplyHigh(a, b);
+		long q = lo * nInv;
+		// Unsigned high half of q * n, n is positive so only q can have its top bit set
+		long qnHi = Math.multiplyHigh(q, n) + ((q >> 63) & n);
+		// lo + low half of q * n is 0 mod 2^64 and only carries if lo is not 0
+		long t = hi + qnHi + (lo != 0 ? 1 : 0);
+		return Long.compareUnsigned(t, n) >= 0 ? t - n : t;
+	}
+
+	private static long montgomeryPow(long base, long exponent, long one, long n, long nInv) {
+		long res = one;
+		while (exponent != 0) {
+			if ((exponent & 1) != 0) {
+				res = montgomeryMultiply(res, base, n, nInv);
+			}
+			base = montgomeryMultiply(base, base, n, nInv);
+			exponent >>>= 1;
+		}
+		return res;
+	}
+
+	private static long addMod(long a, long b, long n) {
+		long sum = a + b;
+		return Long.compareUnsigned(sum, n) >= 0 ? sum - n : sum;
+	}
+
+	private static long[] smallPrimeBitmap(int limit) {
+		long[] bitmap = new long[(limit / 2 + 63) / 64];
+		// Start with every odd number except 1 marked prime
+		Arrays.fill(bitmap, -1L);
+		bitmap[0] &= ~1L;
+		for (int p = 3; p * p < limit; p += 2) {
+			if ((bitmap[p >>> 7] & (1L << (p >>> 1))) != 0) {
+				for (int j = p * p; j < limit; j += 2 * p) {
+					bitmap[j >>> 7] &= ~(1L << (j >>> 1));
+				}
+			}
+		}
+		return bitmap;
+	}
+
+	/**
+	 * The state shared by every round on the same n, n - 1 = 2^s * m.
+	 */
+	private static class Witness {
+		private final BigInteger n;
+		private final BigInteger nMinusOne;
+		private final BigInteger m;
+		private final int s;
+		private final Trace trace;
+		// Square in Montgomery form so the inner loop does not allocate
+		private final Montgomery engine;
+		private final Montgomery.Scratch scratch;
+		private final int[] one;
+		private final int[] minusOne;
+		private final int[] x;
+
+		Witness(BigInteger n, Trace trace) {
+			this.n = n;
+			this.trace = trace;
+			nMinusOne = n.subtract(BigInteger.ONE);
+			// Find out how many times we can divide (n-1) by 2
+			s = nMinusOne.getLowestSetBit();
+			m = nMinusOne.shiftRight(s);
+			trace.log(() -> n.toString() + " - 1 = 2^" + s + " * " + m.toString());
+			engine = new Montgomery(n);
+			scratch = engine.scratch();
+			one = engine.newLimbs();
+			engine.one(one);
+			minusOne = engine.newLimbs();
+			engine.toMontgomery(Montgomery.toLimbs(nMinusOne, engine.getLimbs()), minusOne, scratch);
+			x = engine.newLimbs();
+		}
+
+		boolean test(BigInteger a) {
+			trace.log(() -> "Checking if n is prime using a=" + a.toString() + ".");
+			// First iteration is a^m % n
+			BigInteger res = a.modPow(m, n);
+			trace.log(() -> "a^m % n = " + res.toString());
+			// On first iteration if |a^m mod n| = 1 then say it is prime
+			if (res.equals(BigInteger.ONE) || res.equals(nMinusOne)) {
+				trace.log(() -> "We can declare that " + n.toString() + " is prime.");
+				return true;
+			}
+			engine.toMontgomery(Montgomery.toLimbs(res, engine.getLimbs()), x, scratch);
+			for (int j = 1; j < s; j++) {
+				engine.square(x, scratch);
+				int power = j;
+				trace.log(() -> "a^(2^" + power + " * m) % n = " + engine.valueOf(x, scratch).toString());
+				if (Arrays.equals(x, one)) {
+					// If a^[(2^j)*m] % n = 1 then we say is is composite
+					break;
+				} else if (Arrays.equals(x, minusOne)) {
+					// If a^[(2^j)*m] % n = -1 then we say is is prime
+					trace.log(() -> "We can declare that " + n.toString() + " is prime.");
+					return true;
+				}
+			}
+			trace.log(() -> "We can declare that " + n.toString() + " is composite.");
+			return false;
+		}
+	}
+}
@@ -0,0 +1,423 @@
+package RSA;
+
+import java.math.BigInteger;
+
+/**
+ * Fixed width Montgomery arithmetic for a single odd modulus. Numbers are
+ * stored as little endian arrays of 32 bit limbs and all intermediate values
+ * live in a reusable {@link Scratch} so a steady state exponentiation does not
+ * allocate. Source: https://www.microsoft.com/en-us/research/wp-content/uploads/1996/01/j37acmon.pdf
+ */
+public class Montgomery {
+
+	private static final long MASK = 0xFFFFFFFFL;
+	private static final int MAX_WINDOW = 6;
+
+	private final BigInteger modulus;
+	private final int[] n;
+	private final int limbs;
+	private final int byteLength;
+	// -n^-1 mod 2^32
+	private final int n0Inv;
+	// R^2 mod n, used to convert into Montgomery form
+	private final int[] rSquared;
+	// R mod n, which is 1 in Montgomery form
+	private final int[] one;
+	private final ThreadLocal<Scratch> scratch;
+
+	/**
+	 * Working buffers for one thread. A scratch may only be used with the engine
+	 * that created it.
+	 */
+	public class Scratch {
+		private final int[] t = new int[limbs + 2];
+		private final int[] acc = new int[limbs];
+		private final int[] base = new int[limbs];
+		private final int[] product = new int[limbs];
+		private final int[][] table = new int[1 << (MAX_WINDOW - 1)][limbs];
+
+		private Scratch() {
+		}
+	}
+
+	/**
+	 * Creates an engine for an odd modulus.
+	 *
+	 * @param modulus The odd modulus
+	 * @throws ArithmeticException Thrown if the modulus is not odd and greater
+	 *                             than 1
+	 */
+	public Montgomery(BigInteger modulus) {
+		if (modulus.signum() <= 0 || !modulus.testBit(0) || modulus.equals(BigInteger.ONE)) {
+			throw new ArithmeticException("Montgomery modulus should be odd and greater than 1.");
+		}
+		this.modulus = modulus;
+		limbs = (modulus.bitLength() + 31) >>> 5;
+		byteLength = (modulus.bitLength() + 7) >>> 3;
+		n = toLimbs(modulus, limbs);
+		// Newton iteration doubles the number of correct bits each step
+		int inv = n[0];
+		for (int i = 0; i < 5; i++) {
+			inv *= 2 - n[0] * inv;
+		}
+		n0Inv = -inv;
+		BigInteger r = BigInteger.ONE.shiftLeft(32 * limbs);
+		rSquared = toLimbs(r.multiply(r).mod(modulus), limbs);
+		one = toLimbs(r.mod(modulus), limbs);
+		scratch = ThreadLocal.withInitial(Scratch::new);
+	}
+
+	/**
+	 * Returns the scratch buffers for the calling thread.
+	 *
+	 * @return This thread's scratch
+	 */
+	public Scratch scratch() {
+		return scratch.get();
+	}
+
+	/**
+	 * Computes base^exponent mod n. Both values are big endian byte arrays and the
+	 * result is written as exactly {@link #getByteLength()} bytes into dst.
+	 * Precondition: base < n.
+	 *
+	 * @param src      The base as an unsigned big endian byte array
+	 * @param srcOff   Offset of the base in src
+	 * @param srcLen   Length of the base in src
+	 * @param exponent The exponent as little endian limbs, see {@link #toLimbs}
+	 * @param dst      The output array
+	 * @param dstOff   Offset of the output in dst
+	 * @param s        The scratch of the calling thread
+	 */
+	public void modPow(byte[] src, int srcOff, int srcLen, int[] exponent, byte[] dst, int dstOff, Scratch s) {
+		fromBytes(src, srcOff, srcLen, s.product);
+		toMontgomery(s.product, s.base, s);
+		modPowMontgomery(s.base, exponent, s.acc, s);
+		fromMontgomery(s.acc, s.product, s);
+		toBytes(s.product, dst, dstOff, byteLength);
+	}
+
+	/**
+	 * Computes base^exponent mod n. This allocates the input and output
+	 * conversions but the exponentiation itself runs in scratch space.
+	 *
+	 * @param base     The base, 0 <= base < n
+	 * @param exponent The exponent as little endian limbs
+	 * @return base^exponent mod n
+	 */
+	public BigInteger modPow(BigInteger base, int[] exponent) {
+		Scratch s = scratch();
+		byte[] in = base.toByteArray();
+		byte[] out = new byte[byteLength];
+		modPow(in, 0, in.length, exponent, out, 0, s);
+		return new BigInteger(1, out);
+	}
+
+	/**
+	 * Converts x into Montgomery form, out = x * R mod n.
+	 *
+	 * @param x   A value less than n
+	 * @param out The output limbs, may not alias x
+	 * @param s   The scratch of the calling thread
+	 */
+	public void toMontgomery(int[] x, int[] out, Scratch s) {
+		multiply(x, rSquared, out, s);
+	}
+
+	/**
+	 * Converts x out of Montgomery form, out = x * R^-1 mod n.
+	 *
+	 * @param x   A value in Montgomery form
+	 * @param out The output limbs, may alias x
+	 * @param s   The scratch of the calling thread
+	 */
+	public void fromMontgomery(int[] x, int[] out, Scratch s) {
+		int[] t = s.t;
+		System.arraycopy(x, 0, t, 0, limbs);
+		t[limbs] = 0;
+		t[limbs + 1] = 0;
+		for (int i = 0; i < limbs; i++) {
+			reduceStep(t);
+		}
+		finish(t, out);
+	}
+
+	/**
+	 * Computes base^exponent in Montgomery form using a sliding window.
+	 *
+	 * @param base     The base in Montgomery form
+	 * @param exponent The exponent as little endian limbs
+	 * @param out      The result in Montgomery form, may not alias base
+	 * @param s        The scratch of the calling thread
+	 */
+	public void modPowMontgomery(int[] base, int[] exponent, int[] out, Scratch s) {
+		int bits = bitLength(exponent);
+		if (bits == 0) {
+			System.arraycopy(one, 0, out, 0, limbs);
+			return;
+		}
+		int window = windowSize(bits);
+		// table[i] = base^(2i+1)
+		int[][] table = s.table;
+		System.arraycopy(base, 0, table[0], 0, limbs);
+		if (window > 1) {
+			multiply(base, base, s.product, s);
+			for (int i = 1; i < 1 << (window - 1); i++) {
+				multiply(table[i - 1], s.product, table[i], s);
+			}
+		}
+		System.arraycopy(one, 0, out, 0, limbs);
+		int i = bits - 1;
+		while (i >= 0) {
+			if (!testBit(exponent, i)) {
+				square(out, s);
+				i--;
+				continue;
+			}
+			// Find the longest window ending in a set bit
+			int low = Math.max(i - window + 1, 0);
+			while (!testBit(exponent, low)) {
+				low++;
+			}
+			int value = 0;
+			for (int j = i; j >= low; j--) {
+				square(out, s);
+				value = (value << 1) | (testBit(exponent, j) ? 1 : 0);
+			}
+			multiply(out, table[value >>> 1], s.product, s);
+			System.arraycopy(s.product, 0, out, 0, limbs);
+			i = low - 1;
+		}
+	}
+
+	/**
+	 * Computes out = a * b * R^-1 mod n with the CIOS method.
+	 *
+	 * @param a   The first factor in Montgomery form
+	 * @param b   The second factor in Montgomery form
+	 * @param out The product, may alias a or b
+	 * @param s   The scratch of the calling thread
+	 */
+	public void multiply(int[] a, int[] b, int[] out, Scratch s) {
+		int[] t = s.t;
+		for (int i = 0; i < t.length; i++) {
+			t[i] = 0;
+		}
+		for (int i = 0; i < limbs; i++) {
+			long bi = b[i] & MASK;
+			long carry = 0;
+			for (int j = 0; j < limbs; j++) {
+				long sum = (t[j] & MASK) + (a[j] & MASK) * bi + carry;
+				t[j] = (int) sum;
+				carry = sum >>> 32;
+			}
+			long sum = (t[limbs] & MASK) + carry;
+			t[limbs] = (int) sum;
+			t[limbs + 1] = (int) (sum >>> 32);
+			reduceStep(t);
+		}
+		finish(t, out);
+	}
+
+	/**
+	 * Adds a multiple of n to t so the lowest limb is 0 and shifts t down by one
+	 * limb.
+	 *
+	 * @param t The accumulator of length limbs + 2
+	 */
+	private void reduceStep(int[] t) {
+		long m = (t[0] * n0Inv) & MASK;
+		long carry = ((t[0] & MASK) + m * (n[0] & MASK)) >>> 32;
+		for (int j = 1; j < limbs; j++) {
+			long sum = (t[j] & MASK) + m * (n[j] & MASK) + carry;
+			t[j - 1] = (int) sum;
+			carry = sum >>> 32;
+		}
+		long sum = (t[limbs] & MASK) + carry;
+		t[limbs - 1] = (int) sum;
+		t[limbs] = t[limbs + 1] + (int) (sum >>> 32);
+		t[limbs + 1] = 0;
+	}
+
+	/**
+	 * Copies t to out, subtracting n once if t >= n.
+	 *
+	 * @param t   The accumulator of length limbs + 2
+	 * @param out The output limbs
+	 */
+	private void finish(int[] t, int[] out) {
+		boolean subtract = t[limbs] != 0;
+		if (!subtract) {
+			subtract = true;
+			for (int i = limbs - 1; i >= 0; i--) {
+				if (t[i] != n[i]) {
+					subtract = Integer.compareUnsigned(t[i], n[i]) > 0;
+					break;
+				}
+			}
+		}
+		if (subtract) {
+			long borrow = 0;
+			for (int i = 0; i < limbs; i++) {
+				long diff = (t[i] & MASK) - (n[i] & MASK) - borrow;
+				out[i] = (int) diff;
+				borrow = (diff >>> 63);
+			}
+		} else {
+			System.arraycopy(t, 0, out, 0, limbs);
+		}
+	}
+
+	/**
+	 * Reads an unsigned big endian byte array into little endian limbs.
+	 *
+	 * @param src The source array
+	 * @param off Offset of the value in src
+	 * @param len Length of the value in src
+	 * @param out The output limbs, zero filled above the value
+	 */
+	private void fromBytes(byte[] src, int off, int len, int[] out) {
+		for (int i = 0; i < out.length; i++) {
+			out[i] = 0;
+		}
+		for (int i = 0; i < len; i++) {
+			int b = src[off + len - 1 - i] & 0xFF;
+			if (b != 0) {
+				out[i >>> 2] |= b << ((i & 3) << 3);
+			}
+		}
+	}
+
+	/**
+	 * Writes little endian limbs as a fixed length big endian byte array.
+	 *
+	 * @param x   The limbs
+	 * @param dst The output array
+	 * @param off Offset of the output in dst
+	 * @param len Number of bytes to write
+	 */
+	private static void toBytes(int[] x, byte[] dst, int off, int len) {
+		for (int i = 0; i < len; i++) {
+			dst[off + len - 1 - i] = (byte) (x[i >>> 2] >>> ((i & 3) << 3));
+		}
+	}
+
+	/**
+	 * Converts a non negative BigInteger to little endian limbs.
+	 *
+	 * @param x     The value
+	 * @param limbs The number of limbs, at least enough to hold x
+	 * @return The limbs of x
+	 */
+	public static int[] toLimbs(BigInteger x, int limbs) {
+		int[] res = new int[limbs];
+		byte[] bytes = x.toByteArray();
+		for (int i = 0; i < bytes.length && (i >>> 2) < limbs; i++) {
+			res[i >>> 2] |= (bytes[bytes.length - 1 - i] & 0xFF) << ((i & 3) << 3);
+		}
+		return res;
+	}
+
+	/**
+	 * Converts a non negative exponent to the smallest limb array that holds it.
+	 *
+	 * @param x The exponent
+	 * @return The limbs of x
+	 */
+	public static int[] toLimbs(BigInteger x) {
+		return toLimbs(x, Math.max(1, (x.bitLength() + 31) >>> 5));
+	}
+
+	/**
+	 * Converts limbs of this engine's width into a BigInteger.
+	 *
+	 * @param x The limbs
+	 * @return The value of x
+	 */
+	public BigInteger toBigInteger(int[] x) {
+		byte[] bytes = new byte[limbs * 4];
+		toBytes(x, bytes, 0, bytes.length);
+		return new BigInteger(1, bytes);
+	}
+
+	private static boolean testBit(int[] x, int bit) {
+		return ((x[bit >>> 5] >>> (bit & 31)) & 1) != 0;
+	}
+
+	private static int bitLength(int[] x) {
+		for (int i = x.length - 1; i >= 0; i--) {
+			if (x[i] != 0) {
+				return i * 32 + 32 - Integer.numberOfLeadingZeros(x[i]);
+			}
+		}
+		return 0;
+	}
+
+	private static int windowSize(int bits) {
+		if (bits > 671) {
+			return MAX_WINDOW;
+		} else if (bits > 239) {
+			return 5;
+		} else if (bits > 79) {
+			return 4;
+		} else if (bits > 23) {
+			return 3;
+		} else if (bits > 1) {
+			return 2;
+		}
+		return 1;
+	}
+
+	/**
+	 * Converts a value in Montgomery form back into a BigInteger.
+	 *
+	 * @param x The value in Montgomery form
+	 * @param s The scratch of the calling thread
+	 * @return x * R^-1 mod n
+	 */
+	public BigInteger valueOf(int[] x, Scratch s) {
+		fromMontgomery(x, s.product, s);
+		return toBigInteger(s.product);
+	}
+
+	/**
+	 * Squares x in place in Montgomery form.
+	 *
+	 * @param x The value to square
+	 * @param s The scratch of the calling thread
+	 */
+	public void square(int[] x, Scratch s) {
+		multiply(x, x, s.product, s);
+		System.arraycopy(s.product, 0, x, 0, limbs);
+	}
+
+	/**
+	 * Allocates a limb array of this engine's width.
+	 *
+	 * @return A zeroed limb array
+	 */
+	public int[] newLimbs() {
+		return new int[limbs];
+	}
+
+	/**
+	 * Copies R mod n, the Montgomery form of 1, into out.
+	 *
+	 * @param out The output limbs
+	 */
+	public void one(int[] out) {
+		System.arraycopy(one, 0, out, 0, limbs);
+	}
+
+	public BigInteger getModulus() {
+		return modulus;
+	}
+
+	public int getLimbs() {
+		return limbs;
+	}
+
+	public int getByteLength() {
+		return byteLength;
+	}
+}
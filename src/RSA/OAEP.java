@@ -1,8 +1,9 @@
 package RSA;
 
+import java.nio.ByteBuffer;
+import java.security.DigestException;
 import java.security.MessageDigest;
-import java.security.SecureRandom;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.Arrays;
 
 /**
  * A static class containing methods for OAEP padding. Source:
@@ -10,6 +11,13 @@ import java.util.concurrent.ThreadLocalRandom;
  */
 public class OAEP {
 
+	// The only error an invalid padding gives, so failures cannot be told apart
+	private static final String DECRYPTION_ERROR = "Decryption error";
+
+	// The smallest block size of the supported digests, below this an input fits
+	// in the buffer of the digest and priming it saves nothing
+	private static final int DIGEST_BLOCK_SIZE = 64;
+
 	/**
 	 * Pads the data to a certain keySize using the OAEP SHA-1 protocol. It also
 	 * uses a random seed for the random mask.
@@ -20,11 +28,12 @@ public class OAEP {
 	 * @throws Exception Thrown if the size of data is too large
 	 */
 	public static byte[] pad(byte[] data, int keySize) throws Exception {
-		return pad(data, keySize, ThreadLocalRandom.current().nextLong());
+		return pad(data, keySize, Util.random);
 	}
 
 	/**
-	 * Pads the data to a certain keySize using the OAEP SHA-1 protocol.
+	 * Pads the data to a certain keySize using the OAEP SHA-1 protocol. The same
+	 * seed always gives the same padding, so this is only meant for tests.
 	 * 
 	 * @param data    The data to be padded
 	 * @param keySize The size of the key that will encrypt the data
@@ -33,62 +42,83 @@ public class OAEP {
 	 * @throws Exception Thrown if the size of data is too large
 	 */
 	public static byte[] pad(byte[] data, int keySize, long seed) throws Exception {
-		Util.globalLog.stepIn("Pad: " + Util.toHex(data));
+		return pad(data, keySize, new DeterministicRandom(seed));
+	}
+
+	/**
+	 * Pads the data to a certain keySize using the OAEP SHA-1 protocol.
+	 * 
+	 * @param data    The data to be padded
+	 * @param keySize The size of the key that will encrypt the data
+	 * @param random  The source of the random mask
+	 * @return The masked data
+	 * @throws Exception Thrown if the size of data is too large
+	 */
+	public static byte[] pad(byte[] data, int keySize, RandomSource random) throws Exception {
+		return pad(data, keySize, OAEPParameters.SHA1, random);
+	}
+
+	/**
+	 * Pads the data to a certain keySize using OAEP with the given hashes and
+	 * label.
+	 * 
+	 * @param data    The data to be padded
+	 * @param keySize The size of the key that will encrypt the data
+	 * @param params  The hashes and label
+	 * @param random  The source of the random mask
+	 * @return The masked data
+	 * @throws Exception Thrown if the size of data is too large
+	 */
+	public static byte[] pad(byte[] data, int keySize, OAEPParameters params, RandomSource random)
+			throws Exception {
+		long start = Metrics.start();
+		Util.globalLog.stepIn(() -> "Pad: " + Util.globalLog.secret(() -> Util.toHex(data)));
 		int keySizeBytes = keySize / 8;
-		MessageDigest md = MessageDigest.getInstance("SHA-1");
-		int hashSize = md.getDigestLength();
+		MessageDigest md = params.workspace.get().md;
+		int hashSize = params.getHashSize();
 		int maxMessageSize = keySizeBytes - 2 * hashSize - 2;
 		int padSize = maxMessageSize - data.length;
-		Util.globalLog.log("Key Size (Bytes): " + keySizeBytes);
-		Util.globalLog.log("Hash Size: " + hashSize);
-		Util.globalLog.log("Message Size: " + data.length);
-		Util.globalLog.log("Pad Size: " + padSize);
+		Util.globalLog.log(() -> "Key Size (Bytes): " + keySizeBytes);
+		Util.globalLog.log(() -> "Hash Size: " + hashSize);
+		Util.globalLog.log(() -> "Message Size: " + data.length);
+		Util.globalLog.log(() -> "Pad Size: " + padSize);
 		if (data.length > maxMessageSize) {
 			throw new Exception("Message too big after masking");
 		}
 		// Size of lHash || PS || 0x01 || M
 		byte[] db = new byte[hashSize + padSize + 1 + data.length];
-		// Assume optional label is left blank
-		byte[] lHash = md.digest();
-		Util.globalLog.log("Label Hash: " + Util.toHex(lHash));
-		for (int i = 0; i < hashSize; i++) {
-			db[i] = lHash[i];
-		}
+		byte[] lHash = params.labelHash();
+		Util.globalLog.log(() -> "Label Hash: " + Util.toHex(lHash));
+		System.arraycopy(lHash, 0, db, 0, hashSize);
 		// Leave padding 0x00 so that pad.length=keySize - 2*HASH_SIZE - data.length -2
 		// Add the 0x01 to db
 		db[hashSize + padSize] = 1;
 		// Add the message to db
-		for (int i = 0; i < data.length; i++) {
-			db[hashSize + padSize + 1 + i] = data[i];
-		}
+		System.arraycopy(data, 0, db, hashSize + padSize + 1, data.length);
 		// Create a random string length HASH_SIZE and randomize its contents
 		byte[] randomSeed = new byte[hashSize];
-		SecureRandom.getInstanceStrong().setSeed(seed);
-		SecureRandom.getInstanceStrong().nextBytes(randomSeed);
-		Util.globalLog.log("Random Seed: " + Util.toHex(randomSeed));
+		random.nextBytes(randomSeed);
+		Util.globalLog.log(() -> "Random Seed: " + Util.globalLog.secret(() -> Util.toHex(randomSeed)));
 		// The random mask from the mgf
 		byte[] dbMask = maskGenerator(randomSeed, keySizeBytes - hashSize - 1, md);
-		Util.globalLog.log("MGF(random): " + Util.toHex(dbMask));
+		Util.globalLog.log(() -> "MGF(random): " + Util.globalLog.secret(() -> Util.toHex(dbMask)));
 		// XOR db and randomSeed
 		for (int i = 0; i < db.length; i++) {
 			db[i] = (byte) (db[i] ^ dbMask[i]);
 		}
 
 		byte[] seedMask = maskGenerator(db, hashSize, md);
-		Util.globalLog.log("MGF(db): " + seedMask);
+		Util.globalLog.log(() -> "MGF(db): " + Util.globalLog.secret(() -> Util.toHex(seedMask)));
 		for (int i = 0; i < seedMask.length; i++) {
 			seedMask[i] = (byte) (seedMask[i] ^ randomSeed[i]);
 		}
 		// Concatenate 0x00 || db || seedMask to get the final result
 		byte[] res = new byte[keySizeBytes];
-		for (int i = 0; i < seedMask.length; i++) {
-			res[i + 1] = seedMask[i];
-		}
-		for (int i = 0; i < db.length; i++) {
-			res[seedMask.length + i + 1] = db[i];
-		}
-		Util.globalLog.log("Padded Data: " + Util.toHex(res));
+		System.arraycopy(seedMask, 0, res, 1, seedMask.length);
+		System.arraycopy(db, 0, res, seedMask.length + 1, db.length);
+		Util.globalLog.log(() -> "Padded Data: " + Util.globalLog.secret(() -> Util.toHex(res)));
 		Util.globalLog.stepOut();
+		Metrics.stop(Metrics.PAD, keySize, start);
 		return res;
 	}
 
@@ -102,61 +132,99 @@ public class OAEP {
 	 *                   there was an error unpadding the message
 	 */
 	public static byte[] unpad(byte[] data, int keySize) throws Exception {
-		Util.globalLog.stepIn("Unpad: " + Util.toHex(data));
+		return unpad(data, keySize, OAEPParameters.SHA1);
+	}
+
+	/**
+	 * Unpads the data using OAEP with the given hashes and label.
+	 * 
+	 * @param data    The padded data
+	 * @param keySize The size of the key used to encrypt the padded data
+	 * @param params  The hashes and label
+	 * @return The unpadded version of data
+	 * @throws Exception Thrown if the data size is not equal to the key size or
+	 *                   there was an error unpadding the message
+	 */
+	public static byte[] unpad(byte[] data, int keySize, OAEPParameters params) throws Exception {
+		long start = Metrics.start();
+		Util.globalLog.stepIn(() -> "Unpad: " + Util.globalLog.secret(() -> Util.toHex(data)));
 		int keySizeBytes = keySize / 8;
-		MessageDigest md = MessageDigest.getInstance("SHA-1");
+		MessageDigest md = params.workspace.get().md;
 		if (data.length != keySizeBytes) {
 			throw new Exception("Data size is not equal to key size");
 		}
-		int hashSize = md.getDigestLength();
-		Util.globalLog.log("Key Size (Bytes): " + keySizeBytes);
-		Util.globalLog.log("Hash Size: " + hashSize);
-		Util.globalLog.log("Message Size: " + data.length);
+		int hashSize = params.getHashSize();
+		Util.globalLog.log(() -> "Key Size (Bytes): " + keySizeBytes);
+		Util.globalLog.log(() -> "Hash Size: " + hashSize);
+		Util.globalLog.log(() -> "Message Size: " + data.length);
 
 		// Get the MGF of the db
 		byte[] dbXor = new byte[data.length - hashSize - 1];
-		for (int i = 0; i < dbXor.length; i++) {
-			dbXor[i] = data[1 + hashSize + i];
-		}
+		System.arraycopy(data, 1 + hashSize, dbXor, 0, dbXor.length);
 		byte[] hash = maskGenerator(dbXor, hashSize, md);
-		Util.globalLog.log("MGF(db): " + Util.toHex(hash));
+		Util.globalLog.log(() -> "MGF(db): " + Util.globalLog.secret(() -> Util.toHex(hash)));
 		// XOR the hash with seedMask to get seed
 		byte[] randomSeed = new byte[hashSize];
 		for (int i = 0; i < hashSize; i++) {
 			randomSeed[i] = (byte) (hash[i] ^ data[1 + i]);
 		}
-		Util.globalLog.log("Random Seed: " + Util.toHex(randomSeed));
+		Util.globalLog.log(() -> "Random Seed: " + Util.globalLog.secret(() -> Util.toHex(randomSeed)));
 		// This is what the mask should have been when masking db
 		byte[] dbMask = maskGenerator(randomSeed, keySizeBytes - hashSize - 1, md);
-		Util.globalLog.log("MGF(random): " + Util.toHex(dbMask));
+		Util.globalLog.log(() -> "MGF(random): " + Util.globalLog.secret(() -> Util.toHex(dbMask)));
 		byte[] db = new byte[data.length - hashSize - 1];
 		for (int i = 0; i < db.length; i++) {
 			db[i] = (byte) (data[1 + hashSize + i] ^ dbMask[i]);
 		}
-		// Once again assume label is blank
-		byte[] labelHash = md.digest();
-		for (int i = 0; i < labelHash.length; i++) {
-			if (labelHash[i] != db[i]) {
-				throw new Exception("The label used when padding was not blank.");
-			}
-		}
-		int dataStart = labelHash.length;
-		while (db[dataStart] == 0x00) {
-			dataStart++;
+		int dataStart = messageStart(data[0], db, 0, db.length, params.labelHash());
+		if (dataStart < 0) {
+			throw new Exception(DECRYPTION_ERROR);
 		}
-		if (db[dataStart] != 0x01) {
-			throw new Exception("The start of the message was not marked with a 0x01 byte.");
-		}
-		dataStart++;
 		byte[] res = new byte[db.length - dataStart];
-		for (int i = 0; i < res.length; i++) {
-			res[i] = db[dataStart + i];
-		}
-		Util.globalLog.log("Unpadded data: " + Util.toHex(res));
+		System.arraycopy(db, dataStart, res, 0, res.length);
+		Util.globalLog.log(() -> "Unpadded data: " + Util.globalLog.secret(() -> Util.toHex(res)));
 		Util.globalLog.stepOut();
+		Metrics.stop(Metrics.UNPAD, keySize, start);
 		return res;
 	}
 
+	/**
+	 * Checks an unmasked data block, lHash || PS || 0x01 || M, and the byte before
+	 * the masked seed. Every byte is read and the checks are combined with masks
+	 * instead of branches, so the time taken does not depend on which check fails
+	 * or where the 0x01 separator is.
+	 * 
+	 * @param first     The first byte of the padded block, which should be 0
+	 * @param db        The array holding the data block
+	 * @param offset    The start of the data block in db
+	 * @param length    The length of the data block
+	 * @param labelHash The expected label hash
+	 * @return The index in db where the message starts, or -1 if the padding is
+	 *         not valid
+	 */
+	private static int messageStart(byte first, byte[] db, int offset, int length, byte[] labelHash) {
+		int bad = first;
+		for (int i = 0; i < labelHash.length; i++) {
+			bad |= db[offset + i] ^ labelHash[i];
+		}
+		// -1 once the separator has been seen
+		int found = 0;
+		int separator = 0;
+		for (int i = offset + labelHash.length; i < offset + length; i++) {
+			int b = db[i] & 0xFF;
+			int isZero = (b - 1) >> 31;
+			int isOne = ((b ^ 1) - 1) >> 31;
+			separator |= ~found & isOne & i;
+			// Only zeros may come before the separator
+			bad |= ~found & ~isZero & ~isOne;
+			found |= isOne;
+		}
+		bad |= ~found;
+		// -1 if anything was bad, 0 otherwise
+		int invalid = (bad | -bad) >> 31;
+		return (separator + 1) | invalid;
+	}
+
 	/**
 	 * Mask generator function creates a mask based on the input. Source:
 	 * https://en.wikipedia.org/wiki/Mask_generation_function
@@ -168,15 +236,198 @@ public class OAEP {
 	 */
 	public static byte[] maskGenerator(byte[] input, int length, MessageDigest md) {
 		byte[] res = new byte[length];
-		int idx = 0;
-		for (int i = 0; idx < res.length; i++) {
-			md.update(input, 0, input.length);
-			md.update(Util.I2OSP(i, 4), 0, 4);
-			byte[] hash = md.digest();
-			for (int j = 0; j < hash.length && idx < res.length; j++) {
-				res[idx++] = hash[j];
-			}
+		try {
+			xorMask(input, 0, input.length, res, 0, length, md, new byte[md.getDigestLength()], new byte[4]);
+		} catch (DigestException e) {
+			// The scratch is sized from the digest itself
+			throw new IllegalStateException(e);
 		}
 		return res;
 	}
+
+	/**
+	 * Pads the message between the position and limit of src using the OAEP SHA-1
+	 * protocol and writes exactly keySize / 8 bytes to dst. See
+	 * {@link #pad(ByteBuffer, ByteBuffer, int, OAEPParameters)}.
+	 * 
+	 * @param src     The message, consumed by this call
+	 * @param dst     Receives the padded block
+	 * @param keySize The size of the key that will encrypt the data
+	 * @throws Exception Thrown if the message is too large or dst too small
+	 */
+	public static void pad(ByteBuffer src, ByteBuffer dst, int keySize) throws Exception {
+		pad(src, dst, keySize, OAEPParameters.SHA1);
+	}
+
+	/**
+	 * Pads the message between the position and limit of src using OAEP with the
+	 * given hashes and label and writes exactly keySize / 8 bytes to dst. The seed
+	 * comes from {@link Util#random}. The digest and all intermediate values are
+	 * kept per thread so this does not allocate once the thread has padded a
+	 * message of the same key size. Nothing is traced.
+	 * 
+	 * @param src     The message, consumed by this call
+	 * @param dst     Receives the padded block
+	 * @param keySize The size of the key that will encrypt the data
+	 * @param params  The hashes and label
+	 * @throws Exception Thrown if the message is too large or dst too small
+	 */
+	public static void pad(ByteBuffer src, ByteBuffer dst, int keySize, OAEPParameters params) throws Exception {
+		long start = Metrics.start();
+		Workspace ws = params.workspace.get();
+		int k = keySize / 8;
+		int h = params.getHashSize();
+		int length = src.remaining();
+		if (length > k - 2 * h - 2) {
+			throw new Exception("Message too big after masking");
+		} else if (dst.remaining() < k) {
+			throw new Exception("Destination too small for the padded data");
+		}
+		byte[] em = ws.block(k);
+		// em = 0x00 || seed || lHash || PS || 0x01 || M
+		em[0] = 0;
+		Util.random.nextBytes(ws.seed);
+		System.arraycopy(ws.seed, 0, em, 1, h);
+		System.arraycopy(params.labelHash(), 0, em, 1 + h, h);
+		Arrays.fill(em, 1 + 2 * h, k - length - 1, (byte) 0);
+		em[k - length - 1] = 1;
+		src.get(em, k - length, length);
+		// maskedDB = DB ^ MGF(seed), maskedSeed = seed ^ MGF(maskedDB)
+		xorMask(ws.seed, 0, h, em, 1 + h, k - h - 1, ws.md, ws.hash, ws.counter);
+		xorMask(em, 1 + h, k - h - 1, em, 1, h, ws.md, ws.hash, ws.counter);
+		dst.put(em, 0, k);
+		Metrics.stop(Metrics.PAD, keySize, start);
+	}
+
+	/**
+	 * Unpads exactly keySize / 8 bytes from src using the OAEP SHA-1 protocol and
+	 * writes the message to dst. See
+	 * {@link #unpad(ByteBuffer, ByteBuffer, int, OAEPParameters)}.
+	 * 
+	 * @param src     The padded block, consumed by this call
+	 * @param dst     Receives the message
+	 * @param keySize The size of the key used to encrypt the padded data
+	 * @return The length of the message
+	 * @throws Exception Thrown if the block is not a valid padding or dst is too
+	 *                   small
+	 */
+	public static int unpad(ByteBuffer src, ByteBuffer dst, int keySize) throws Exception {
+		return unpad(src, dst, keySize, OAEPParameters.SHA1);
+	}
+
+	/**
+	 * Unpads exactly keySize / 8 bytes from src using OAEP with the given hashes
+	 * and label and writes the message to dst. Like
+	 * {@link #pad(ByteBuffer, ByteBuffer, int, OAEPParameters)} this does not
+	 * allocate in the steady state.
+	 * 
+	 * @param src     The padded block, consumed by this call
+	 * @param dst     Receives the message
+	 * @param keySize The size of the key used to encrypt the padded data
+	 * @param params  The hashes and label
+	 * @return The length of the message
+	 * @throws Exception Thrown if the block is not a valid padding or dst is too
+	 *                   small
+	 */
+	public static int unpad(ByteBuffer src, ByteBuffer dst, int keySize, OAEPParameters params) throws Exception {
+		long start = Metrics.start();
+		Workspace ws = params.workspace.get();
+		int k = keySize / 8;
+		int h = params.getHashSize();
+		if (src.remaining() != k) {
+			throw new Exception("Data size is not equal to key size");
+		}
+		byte[] em = ws.block(k);
+		src.get(em, 0, k);
+		// Recover the seed then the data block
+		xorMask(em, 1 + h, k - h - 1, em, 1, h, ws.md, ws.hash, ws.counter);
+		xorMask(em, 1, h, em, 1 + h, k - h - 1, ws.md, ws.hash, ws.counter);
+		int dataStart = messageStart(em[0], em, 1 + h, k - h - 1, params.labelHash());
+		if (dataStart < 0) {
+			throw new Exception(DECRYPTION_ERROR);
+		}
+		int length = k - dataStart;
+		if (dst.remaining() < length) {
+			throw new Exception("Destination too small for the unpadded data");
+		}
+		dst.put(em, dataStart, length);
+		Metrics.stop(Metrics.UNPAD, keySize, start);
+		return length;
+	}
+
+	/**
+	 * XORs MGF1(input) into target. When the input spans at least one digest block
+	 * and more than one counter block is needed the input is hashed once and the
+	 * primed digest is cloned for each counter, otherwise nothing is allocated.
+	 * 
+	 * @param input     The array holding the mask seed
+	 * @param inOff     Offset of the mask seed
+	 * @param inLength  Length of the mask seed
+	 * @param target    The array the mask is applied to, may not overlap the seed
+	 * @param offset    Offset of the masked region
+	 * @param length    Length of the masked region
+	 * @param md        A class to hash the data
+	 * @param hash      Scratch for one digest
+	 * @param counter   Scratch for the 4 byte counter
+	 * @throws DigestException Thrown if the hash scratch is too small
+	 */
+	private static void xorMask(byte[] input, int inOff, int inLength, byte[] target, int offset, int length,
+			MessageDigest md, byte[] hash, byte[] counter) throws DigestException {
+		int hashSize = md.getDigestLength();
+		boolean prime = inLength >= DIGEST_BLOCK_SIZE && length > hashSize;
+		if (prime) {
+			md.update(input, inOff, inLength);
+		}
+		for (int i = 0, idx = 0; idx < length; i++) {
+			counter[0] = (byte) (i >>> 24);
+			counter[1] = (byte) (i >>> 16);
+			counter[2] = (byte) (i >>> 8);
+			counter[3] = (byte) i;
+			MessageDigest block = md;
+			if (prime) {
+				try {
+					block = (MessageDigest) md.clone();
+				} catch (CloneNotSupportedException e) {
+					// Fall back to hashing the input again
+					prime = false;
+					md.reset();
+				}
+			}
+			if (!prime) {
+				block.update(input, inOff, inLength);
+			}
+			block.update(counter, 0, 4);
+			block.digest(hash, 0, hashSize);
+			for (int j = 0; j < hashSize && idx < length; j++) {
+				target[offset + idx++] ^= hash[j];
+			}
+		}
+		if (prime) {
+			md.reset();
+		}
+	}
+
+	/**
+	 * The MGF digest and scratch space of one thread for one parameter set.
+	 */
+	static class Workspace {
+		private final MessageDigest md;
+		private final byte[] seed;
+		private final byte[] hash;
+		private final byte[] counter = new byte[4];
+		private byte[] block = new byte[0];
+
+		Workspace(MessageDigest md, int hashSize) {
+			this.md = md;
+			seed = new byte[hashSize];
+			hash = new byte[md.getDigestLength()];
+		}
+
+		byte[] block(int size) {
+			if (block.length < size) {
+				block = new byte[size];
+			}
+			return block;
+		}
+	}
 }
@@ -0,0 +1,95 @@
+package RSA;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The hash, mask generation hash and label used by OAEP. The label hash is
+ * computed once when the parameters are created and each thread keeps its own
+ * digests and scratch space for every parameter set. Source:
+ * https://tools.ietf.org/html/rfc8017#appendix-A.2.1
+ */
+public class OAEPParameters {
+
+	/**
+	 * SHA-1 with MGF1-SHA-1 and an empty label, the padding this project has
+	 * always used.
+	 */
+	public static final OAEPParameters SHA1 = new OAEPParameters("SHA-1", "SHA-1", new byte[0]);
+	/**
+	 * SHA-256 with MGF1-SHA-256 and an empty label.
+	 */
+	public static final OAEPParameters SHA256 = new OAEPParameters("SHA-256", "SHA-256", new byte[0]);
+	/**
+	 * SHA-512 with MGF1-SHA-512 and an empty label.
+	 */
+	public static final OAEPParameters SHA512 = new OAEPParameters("SHA-512", "SHA-512", new byte[0]);
+
+	private final String digest;
+	private final String mgfDigest;
+	private final byte[] label;
+	private final byte[] labelHash;
+	final ThreadLocal<OAEP.Workspace> workspace;
+
+	/**
+	 * Creates a parameter set.
+	 *
+	 * @param digest    The name of the hash used for the label and seed
+	 * @param mgfDigest The name of the hash used by MGF1
+	 * @param label     The label bound to the padded data
+	 * @throws IllegalArgumentException Thrown if either hash is not available
+	 */
+	public OAEPParameters(String digest, String mgfDigest, byte[] label) {
+		this.digest = digest;
+		this.mgfDigest = mgfDigest;
+		this.label = label.clone();
+		labelHash = newDigest(digest).digest(label);
+		// Fail now rather than on first use
+		newDigest(mgfDigest);
+		workspace = ThreadLocal.withInitial(() -> new OAEP.Workspace(newDigest(mgfDigest), labelHash.length));
+	}
+
+	/**
+	 * Returns the same hashes with a different label.
+	 *
+	 * @param label The label bound to the padded data
+	 * @return The new parameter set
+	 */
+	public OAEPParameters withLabel(byte[] label) {
+		return new OAEPParameters(digest, mgfDigest, label);
+	}
+
+	static MessageDigest newDigest(String algorithm) {
+		try {
+			return MessageDigest.getInstance(algorithm);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalArgumentException("Unknown digest " + algorithm, e);
+		}
+	}
+
+	public String getDigest() {
+		return digest;
+	}
+
+	public String getMgfDigest() {
+		return mgfDigest;
+	}
+
+	public byte[] getLabel() {
+		return label.clone();
+	}
+
+	/**
+	 * Returns the cached hash of the label without copying it. Callers must not
+	 * modify the result.
+	 *
+	 * @return The label hash
+	 */
+	byte[] labelHash() {
+		return labelHash;
+	}
+
+	public int getHashSize() {
+		return labelHash.length;
+	}
+}
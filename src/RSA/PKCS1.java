@@ -0,0 +1,250 @@
+package RSA;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/**
+ * A static class for reading and writing PKCS#1 RSAPublicKey and RSAPrivateKey
+ * structures as DER or PEM. The integers are copied straight out of the
+ * encoding so no decimal conversion is involved. Source:
+ * https://tools.ietf.org/html/rfc8017#appendix-A.1
+ */
+public class PKCS1 {
+
+	public static final String PUBLIC_KEY_LABEL = "RSA PUBLIC KEY";
+	public static final String PRIVATE_KEY_LABEL = "RSA PRIVATE KEY";
+	private static final int SEQUENCE = 0x30;
+	private static final int INTEGER = 0x02;
+	// Number of INTEGERs in each structure
+	private static final int PUBLIC_KEY_FIELDS = 2;
+	private static final int PRIVATE_KEY_FIELDS = 9;
+
+	/**
+	 * Encodes a public key as a DER RSAPublicKey.
+	 *
+	 * @param modulus        The modulus n
+	 * @param publicExponent The public exponent e
+	 * @return The DER encoding
+	 */
+	public static byte[] encodePublicKey(BigInteger modulus, BigInteger publicExponent) {
+		return sequence(modulus, publicExponent);
+	}
+
+	/**
+	 * Encodes a private key as a DER RSAPrivateKey with two primes.
+	 *
+	 * @param key The CRT private key
+	 * @return The DER encoding
+	 */
+	public static byte[] encodePrivateKey(RSAPrivateCrtKey key) {
+		return sequence(BigInteger.ZERO, key.getModulus(), key.getPublicExponent(), key.getPrivateExponent(),
+				key.getP(), key.getQ(), key.getDP(), key.getDQ(), key.getQInv());
+	}
+
+	/**
+	 * Decodes a DER RSAPublicKey starting at the position of src. The position is
+	 * left after the structure.
+	 *
+	 * @param src The encoding
+	 * @return A context for the modulus and public exponent
+	 * @throws Exception Thrown if src does not hold a valid RSAPublicKey
+	 */
+	public static RSAKeyContext decodePublicKey(ByteBuffer src) throws Exception {
+		BigInteger[] fields = decodeSequence(src, PUBLIC_KEY_FIELDS);
+		return new RSAKeyContext(fields[0], fields[1]);
+	}
+
+	/**
+	 * Decodes a DER RSAPrivateKey starting at the position of src. The position is
+	 * left after the structure. The CRT components are taken as stored once they
+	 * are checked to be consistent with n, e and d.
+	 *
+	 * @param src The encoding
+	 * @return The CRT private key
+	 * @throws Exception Thrown if src does not hold a valid two prime
+	 *                   RSAPrivateKey
+	 */
+	public static RSAPrivateCrtKey decodePrivateKey(ByteBuffer src) throws Exception {
+		BigInteger[] f = decodeSequence(src, PRIVATE_KEY_FIELDS);
+		if (f[0].signum() != 0) {
+			throw new Exception("Only two prime keys (version 0) are supported.");
+		}
+		return new RSAPrivateCrtKey(f[1], f[2], f[3], f[4], f[5], f[6], f[7], f[8]);
+	}
+
+	/**
+	 * Wraps a DER encoding in PEM armour with 64 character lines.
+	 *
+	 * @param label The label of the BEGIN and END lines, such as
+	 *              {@link #PUBLIC_KEY_LABEL}
+	 * @param der   The DER encoding
+	 * @return The PEM text
+	 */
+	public static String toPem(String label, byte[] der) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("-----BEGIN ").append(label).append("-----\n");
+		sb.append(Base64.getMimeEncoder(64, new byte[] { '\n' }).encodeToString(der));
+		sb.append("\n-----END ").append(label).append("-----\n");
+		return sb.toString();
+	}
+
+	/**
+	 * Extracts the DER encoding from the first PEM block with the given label.
+	 *
+	 * @param label The label of the BEGIN and END lines
+	 * @param pem   The PEM text, anything around the block is ignored
+	 * @return The DER encoding
+	 * @throws Exception Thrown if there is no such block
+	 */
+	public static byte[] fromPem(String label, String pem) throws Exception {
+		String begin = "-----BEGIN " + label + "-----";
+		String end = "-----END " + label + "-----";
+		int start = pem.indexOf(begin);
+		int stop = start < 0 ? -1 : pem.indexOf(end, start);
+		if (stop < 0) {
+			throw new Exception("No " + label + " block found.");
+		}
+		try {
+			return Base64.getMimeDecoder().decode(pem.substring(start + begin.length(), stop));
+		} catch (IllegalArgumentException e) {
+			throw new Exception("Invalid base 64 in " + label + " block.", e);
+		}
+	}
+
+	/**
+	 * Returns the number of bytes of the DER element starting at the position of
+	 * src without decoding or consuming it.
+	 *
+	 * @param src The encoding
+	 * @return The size of the tag, length and contents
+	 * @throws Exception Thrown if the header is truncated or invalid
+	 */
+	static int elementSize(ByteBuffer src) throws Exception {
+		ByteBuffer view = src.duplicate();
+		if (!view.hasRemaining()) {
+			throw new Exception("The DER element is truncated.");
+		}
+		view.get();
+		int length = readLength(view);
+		return view.position() - src.position() + length;
+	}
+
+	/**
+	 * Returns the number of INTEGERs directly inside the SEQUENCE at the position
+	 * of src without decoding them or consuming anything.
+	 *
+	 * @param src The encoding
+	 * @return The number of fields
+	 * @throws Exception Thrown if the encoding is truncated or invalid
+	 */
+	static int countFields(ByteBuffer src) throws Exception {
+		ByteBuffer view = src.duplicate();
+		int end = enterSequence(view);
+		int count = 0;
+		while (view.position() < end) {
+			view.position(view.position() + elementSize(view));
+			count++;
+		}
+		return count;
+	}
+
+	private static BigInteger[] decodeSequence(ByteBuffer src, int fields) throws Exception {
+		int end = enterSequence(src);
+		BigInteger[] res = new BigInteger[fields];
+		byte[] scratch = new byte[0];
+		for (int i = 0; i < fields; i++) {
+			if (src.position() >= end || (src.get() & 0xff) != INTEGER) {
+				throw new Exception("Expected " + fields + " INTEGERs.");
+			}
+			int length = readLength(src);
+			if (length == 0 || src.position() + length > end) {
+				throw new Exception("Invalid INTEGER length.");
+			}
+			if (src.hasArray()) {
+				res[i] = new BigInteger(src.array(), src.arrayOffset() + src.position(), length);
+				src.position(src.position() + length);
+			} else {
+				if (scratch.length < length) {
+					scratch = new byte[length];
+				}
+				src.get(scratch, 0, length);
+				res[i] = new BigInteger(scratch, 0, length);
+			}
+		}
+		if (src.position() != end) {
+			throw new Exception("Unexpected data after " + fields + " INTEGERs.");
+		}
+		return res;
+	}
+
+	/**
+	 * Reads a SEQUENCE header and returns the position its contents end at.
+	 */
+	private static int enterSequence(ByteBuffer src) throws Exception {
+		if (!src.hasRemaining() || (src.get() & 0xff) != SEQUENCE) {
+			throw new Exception("Expected a SEQUENCE.");
+		}
+		int length = readLength(src);
+		if (length > src.remaining()) {
+			throw new Exception("The SEQUENCE is truncated.");
+		}
+		return src.position() + length;
+	}
+
+	private static int readLength(ByteBuffer src) throws Exception {
+		if (!src.hasRemaining()) {
+			throw new Exception("The DER length is truncated.");
+		}
+		int first = src.get() & 0xff;
+		if (first < 0x80) {
+			return first;
+		}
+		int bytes = first & 0x7f;
+		if (bytes == 0 || bytes > 3 || src.remaining() < bytes) {
+			throw new Exception("Unsupported DER length.");
+		}
+		int length = 0;
+		for (int i = 0; i < bytes; i++) {
+			length = (length << 8) | (src.get() & 0xff);
+		}
+		return length;
+	}
+
+	private static byte[] sequence(BigInteger... values) {
+		byte[][] integers = new byte[values.length][];
+		int contents = 0;
+		for (int i = 0; i < values.length; i++) {
+			integers[i] = values[i].toByteArray();
+			contents += 1 + lengthSize(integers[i].length) + integers[i].length;
+		}
+		ByteBuffer res = ByteBuffer.allocate(1 + lengthSize(contents) + contents);
+		res.put((byte) SEQUENCE);
+		putLength(res, contents);
+		for (byte[] integer : integers) {
+			res.put((byte) INTEGER);
+			putLength(res, integer.length);
+			res.put(integer);
+		}
+		return res.array();
+	}
+
+	private static int lengthSize(int length) {
+		if (length < 0x80) {
+			return 1;
+		}
+		return 1 + (32 - Integer.numberOfLeadingZeros(length) + 7) / 8;
+	}
+
+	private static void putLength(ByteBuffer dst, int length) {
+		int size = lengthSize(length);
+		if (size == 1) {
+			dst.put((byte) length);
+			return;
+		}
+		dst.put((byte) (0x80 | (size - 1)));
+		for (int i = size - 2; i >= 0; i--) {
+			dst.put((byte) (length >>> (i << 3)));
+		}
+	}
+}
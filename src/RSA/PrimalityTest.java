@@ -0,0 +1,19 @@
+package RSA;
+
+import java.math.BigInteger;
+
+/**
+ * A probabilistic primality test. Implementations can be plugged into
+ * {@link Util#primalityTest}.
+ */
+public interface PrimalityTest {
+
+	/**
+	 * Returns true if n is probably prime and false if n is definitely composite.
+	 *
+	 * @param n     The number to test
+	 * @param trace The trace the individual steps are logged to
+	 * @return If n is probably a prime number
+	 */
+	boolean isProbablePrime(BigInteger n, Trace trace);
+}
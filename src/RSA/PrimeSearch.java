@@ -0,0 +1,132 @@
+package RSA;
+
+import java.math.BigInteger;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A random prime search that races several workers. The first worker to find a
+ * prime completes the search and the others stop at their next candidate. The
+ * workers do not write to the trace since the trace sinks are not thread safe.
+ */
+public class PrimeSearch {
+
+	private final int bits;
+	private final CompletableFuture<BigInteger> result;
+
+	/**
+	 * Starts a search with one worker per processor on the common pool.
+	 *
+	 * @param bits The size of the prime that will be found
+	 */
+	public PrimeSearch(int bits) {
+		this(bits, Runtime.getRuntime().availableProcessors(), ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Starts a search with a number of workers on the given executor.
+	 *
+	 * @param bits     The size of the prime that will be found
+	 * @param workers  The number of candidate streams to race
+	 * @param executor The executor the workers run on
+	 */
+	public PrimeSearch(int bits, int workers, Executor executor) {
+		if (bits < 2) {
+			throw new IllegalArgumentException("A prime needs at least 2 bits.");
+		} else if (workers < 1) {
+			throw new IllegalArgumentException("A prime search needs at least 1 worker.");
+		}
+		this.bits = bits;
+		result = new CompletableFuture<BigInteger>();
+		for (int i = 0; i < workers; i++) {
+			executor.execute(this::search);
+		}
+	}
+
+	/**
+	 * Tests random candidates until this or another worker finds a prime or the
+	 * search is cancelled.
+	 */
+	private void search() {
+		try {
+			PrimeSieve sieve = bits >= PrimeSieve.MIN_BITS ? new PrimeSieve(bits) : null;
+			while (!result.isDone()) {
+				BigInteger candidate = sieve != null ? sieve.next() : Util.randomBigInteger(bits).setBit(0);
+				if (Util.isPrime(candidate, Trace.NONE, Trace.NONE)) {
+					result.complete(candidate);
+				}
+			}
+		} catch (Throwable t) {
+			result.completeExceptionally(t);
+		}
+	}
+
+	/**
+	 * Waits for the search to finish.
+	 *
+	 * @return A random prime of size bits
+	 * @throws InterruptedException  Thrown if the calling thread is interrupted
+	 * @throws CancellationException Thrown if the search was cancelled
+	 * @throws ExecutionException    Thrown if a worker failed
+	 */
+	public BigInteger get() throws InterruptedException, ExecutionException {
+		return result.get();
+	}
+
+	/**
+	 * Waits for the search to finish and cancels it if it takes too long.
+	 *
+	 * @param timeout The maximum time to wait
+	 * @param unit    The unit of timeout
+	 * @return A random prime of size bits
+	 * @throws InterruptedException  Thrown if the calling thread is interrupted
+	 * @throws CancellationException Thrown if the search was cancelled
+	 * @throws ExecutionException    Thrown if a worker failed
+	 * @throws TimeoutException      Thrown if no prime was found in time
+	 */
+	public BigInteger get(long timeout, TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		try {
+			return result.get(timeout, unit);
+		} catch (TimeoutException e) {
+			cancel();
+			throw e;
+		}
+	}
+
+	/**
+	 * Stops the search. Workers exit after the candidate they are testing.
+	 *
+	 * @return True if this call cancelled the search
+	 */
+	public boolean cancel() {
+		return result.cancel(false);
+	}
+
+	public boolean isDone() {
+		return result.isDone();
+	}
+
+	public boolean isCancelled() {
+		return result.isCancelled();
+	}
+
+	/**
+	 * Returns the search as a future so callers can compose on it. Cancelling the
+	 * future cancels the search.
+	 *
+	 * @return The future result of the search
+	 */
+	public CompletableFuture<BigInteger> future() {
+		return result;
+	}
+
+	public int getBits() {
+		return bits;
+	}
+}
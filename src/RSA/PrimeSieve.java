@@ -0,0 +1,158 @@
+package RSA;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Produces prime candidates that are not divisible by any small prime. A random
+ * odd start is picked and its residues modulo the small primes are computed
+ * once. The odd candidates after it are then sieved a window at a time: each
+ * small prime marks its multiples in the window from one int division, so a
+ * candidate costs a table lookup instead of a division per small prime. Only
+ * the survivors need the expensive Miller Rabin test. A sieve is not thread
+ * safe, each thread should use its own.
+ */
+public class PrimeSieve {
+
+	/**
+	 * The smallest bit size the sieve can be used for. Below this a candidate
+	 * could be one of the small primes itself.
+	 */
+	public static final int MIN_BITS = 16;
+	private static final int SMALL_PRIME_LIMIT = 1 << 14;
+	// How far to walk from one start before picking another
+	private static final int MAX_DELTA = 1 << 20;
+	// Number of odd candidates sieved at once
+	private static final int WINDOW = 1 << 12;
+	private static final int[] SMALL_PRIMES = smallPrimes(SMALL_PRIME_LIMIT);
+
+	private final int bits;
+	private final int[] residues = new int[SMALL_PRIMES.length];
+	// composite[j] is set if start + delta + 2j has a small prime factor, where
+	// delta is the offset of the window
+	private final boolean[] composite = new boolean[WINDOW];
+	private int position;
+	private BigInteger start;
+	private int delta;
+	private int maxDelta;
+	private long sieved;
+
+	/**
+	 * Creates a sieve for candidates of size bits.
+	 *
+	 * @param bits The size of the candidates
+	 */
+	public PrimeSieve(int bits) {
+		if (bits < MIN_BITS) {
+			throw new IllegalArgumentException("The sieve needs at least " + MIN_BITS + " bits.");
+		}
+		this.bits = bits;
+		reseed();
+	}
+
+	/**
+	 * Returns the next candidate that has no small prime factor. The first and
+	 * second bits of the candidate are set.
+	 *
+	 * @return An odd candidate of size bits
+	 */
+	public BigInteger next() {
+		while (true) {
+			if (delta > maxDelta) {
+				reseed();
+			}
+			if (position == WINDOW) {
+				sieveWindow();
+			}
+			int d = delta;
+			delta += 2;
+			if (!composite[position++]) {
+				return start.add(BigInteger.valueOf(d));
+			}
+			sieved++;
+		}
+	}
+
+	/**
+	 * Marks the candidates of the window starting at start + delta that are
+	 * divisible by one of the small primes.
+	 */
+	private void sieveWindow() {
+		Arrays.fill(composite, false);
+		for (int i = 0; i < SMALL_PRIMES.length; i++) {
+			int p = SMALL_PRIMES[i];
+			int r = (residues[i] + delta) % p;
+			// start + delta + 2j = 0 mod p for j = -r / 2 mod p, and 1 / 2 = (p + 1) / 2
+			for (int j = (p - r) % p * ((p + 1) / 2) % p; j < WINDOW; j += p) {
+				composite[j] = true;
+			}
+		}
+		position = 0;
+	}
+
+	/**
+	 * Picks a new random odd start and computes its residues.
+	 */
+	private void reseed() {
+		start = Util.randomBigInteger(bits).setBit(0);
+		delta = 0;
+		position = WINDOW;
+		// Stay below 2^bits so every candidate keeps its size
+		BigInteger room = BigInteger.ONE.shiftLeft(bits).subtract(start);
+		maxDelta = room.bitLength() > 31 ? MAX_DELTA : (int) Math.min(MAX_DELTA, room.longValue() - 1);
+		// Reduce by a product of several primes at once so only one BigInteger
+		// division is needed per group
+		int i = 0;
+		while (i < SMALL_PRIMES.length) {
+			long product = 1;
+			int end = i;
+			while (end < SMALL_PRIMES.length && product <= Long.MAX_VALUE / SMALL_PRIMES[end]) {
+				product *= SMALL_PRIMES[end++];
+			}
+			long r = start.mod(BigInteger.valueOf(product)).longValue();
+			for (; i < end; i++) {
+				residues[i] = (int) (r % SMALL_PRIMES[i]);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of candidates rejected by the sieve so far.
+	 *
+	 * @return The number of rejected candidates
+	 */
+	public long getSieved() {
+		return sieved;
+	}
+
+	public int getBits() {
+		return bits;
+	}
+
+	/**
+	 * Returns the odd primes below limit with the sieve of Eratosthenes.
+	 *
+	 * @param limit The exclusive upper bound
+	 * @return The odd primes below limit
+	 */
+	private static int[] smallPrimes(int limit) {
+		boolean[] composite = new boolean[limit];
+		int count = 0;
+		for (int i = 3; i < limit; i += 2) {
+			if (!composite[i]) {
+				count++;
+				for (long j = (long) i * i; j < limit; j += 2 * i) {
+					composite[(int) j] = true;
+				}
+			}
+		}
+		int[] res = new int[count];
+		int idx = 0;
+		for (int i = 3; i < limit; i += 2) {
+			if (!composite[i]) {
+				res[idx++] = i;
+			}
+		}
+		return res;
+	}
+}
@@ -20,8 +20,10 @@ public class RSA {
 	 * @throws Exception Thrown if a bad public key is received.
 	 */
 	public static byte[] encrypt(byte[] data, BigInteger publicKey, BigInteger publicExponent) throws Exception {
-		Util.globalLog.stepIn("Encrypting: " + Util.toHex(data));
-		Util.globalLog.log("Public Key: " + publicKey.toString() + "\nPublic Exponent: " + publicExponent.toString());
+		long start = Metrics.start();
+		Util.globalLog.stepIn(() -> "Encrypting: " + Util.globalLog.secret(() -> Util.toHex(data)));
+		Util.globalLog
+				.log(() -> "Public Key: " + publicKey.toString() + "\nPublic Exponent: " + publicExponent.toString());
 		// Catch invalid public keys
 		if (publicKey.compareTo(BigInteger.ZERO) < 0) {
 			throw new Exception("Public key should not be negative.");
@@ -34,8 +36,9 @@ public class RSA {
 			throw new Exception("Key too small for data");
 		}
 		byte[] res = plaintext.modPow(publicExponent, publicKey).toByteArray();
-		Util.globalLog.log("Cypher Text: " + Util.toHex(res));
+		Util.globalLog.log(() -> "Cypher Text: " + Util.toHex(res));
 		Util.globalLog.stepOut();
+		Metrics.stop(Metrics.ENCRYPT, publicKey.bitLength(), start);
 		return res;
 	}
 
@@ -50,8 +53,11 @@ public class RSA {
 	 * @throws Exception Thrown if a bad public key is received.
 	 */
 	public static byte[] decrypt(byte[] data, BigInteger publicKey, BigInteger privateExponent) throws Exception {
-		Util.globalLog.stepIn("Decrypting: " + Util.toHex(data));
-		Util.globalLog.log("Public Key: " + publicKey.toString() + "\nPrivate Exponent: " + privateExponent.toString());
+		long start = Metrics.start();
+		Util.globalLog.stepIn(() -> "Decrypting: " + Util.toHex(data));
+		Util.globalLog
+				.log(() -> "Public Key: " + publicKey.toString() + "\nPrivate Exponent: "
+						+ Util.globalLog.secret(privateExponent::toString));
 		// Catch invalid public keys
 		if (publicKey.compareTo(BigInteger.ZERO) < 0) {
 			throw new Exception("Public key should not be negative.");
@@ -64,9 +70,96 @@ public class RSA {
 			throw new Exception("Key too small for data");
 		}
 		byte[] res = cyphertext.modPow(privateExponent, publicKey).toByteArray();
-		Util.globalLog.log("Plain Text: " + Util.toHex(res));
+		Util.globalLog.log(() -> "Plain Text: " + Util.globalLog.secret(() -> Util.toHex(res)));
 		Util.globalLog.stepOut();
+		Metrics.stop(Metrics.DECRYPT, publicKey.bitLength(), start);
 		return res;
 	}
 
+	/**
+	 * Decrypts the data with a CRT private key. This does two exponentiations
+	 * modulo p and q instead of one modulo n and is roughly 3-4 times faster.
+	 *
+	 * @param data A byte array with the encrypted data
+	 * @param key  The private key that will be used to decrypt the data
+	 * @return The decrypted value of data
+	 * @throws Exception Thrown if the data is too large for the key.
+	 */
+	public static byte[] decrypt(byte[] data, RSAPrivateCrtKey key) throws Exception {
+		long start = Metrics.start();
+		Util.globalLog.stepIn(() -> "Decrypting (CRT): " + Util.toHex(data));
+		Util.globalLog.log(() -> "p: " + Util.globalLog.secret(key.getP()::toString) + "\nq: "
+				+ Util.globalLog.secret(key.getQ()::toString));
+		// Convert the data to a single BigInteger
+		BigInteger cyphertext = new BigInteger(data);
+		if (cyphertext.signum() < 0 || cyphertext.compareTo(key.getModulus()) >= 0) {
+			throw new Exception("Key too small for data");
+		}
+		byte[] res = key.modPow(cyphertext).toByteArray();
+		Util.globalLog.log(() -> "Plain Text: " + Util.globalLog.secret(() -> Util.toHex(res)));
+		Util.globalLog.stepOut();
+		Metrics.stop(Metrics.DECRYPT, key.getModulus().bitLength(), start);
+		return res;
+	}
+
+	/**
+	 * Encrypts the data with a precomputed key context. The key was validated
+	 * when the context was built so it is not checked again.
+	 *
+	 * @param data    A byte array with the data to be encrypted
+	 * @param context The public key context
+	 * @return The encrypted value of data
+	 * @throws Exception Thrown if the data is too large for the key.
+	 */
+	public static byte[] encrypt(byte[] data, RSAKeyContext context) throws Exception {
+		long start = Metrics.start();
+		Util.globalLog.stepIn(() -> "Encrypting: " + Util.globalLog.secret(() -> Util.toHex(data)));
+		Util.globalLog.log(() -> "Key Size (Bits): " + context.getBitLength());
+		byte[] res = apply(data, context);
+		Util.globalLog.log(() -> "Cypher Text: " + Util.toHex(res));
+		Util.globalLog.stepOut();
+		Metrics.stop(Metrics.ENCRYPT, context.getBitLength(), start);
+		return res;
+	}
+
+	/**
+	 * Decrypts the data with a precomputed key context. The key was validated
+	 * when the context was built so it is not checked again.
+	 *
+	 * @param data    A byte array with the encrypted data
+	 * @param context The private key context
+	 * @return The decrypted value of data
+	 * @throws Exception Thrown if the data is too large for the key.
+	 */
+	public static byte[] decrypt(byte[] data, RSAKeyContext context) throws Exception {
+		long start = Metrics.start();
+		Util.globalLog.stepIn(() -> "Decrypting: " + Util.toHex(data));
+		Util.globalLog.log(() -> "Key Size (Bits): " + context.getBitLength());
+		byte[] res = apply(data, context);
+		Util.globalLog.log(() -> "Plain Text: " + Util.globalLog.secret(() -> Util.toHex(res)));
+		Util.globalLog.stepOut();
+		Metrics.stop(Metrics.DECRYPT, context.getBitLength(), start);
+		return res;
+	}
+
+	/**
+	 * Raises data to the exponent of the context.
+	 *
+	 * @param data    The data as a big endian byte array
+	 * @param context The key context
+	 * @return The result as a big endian byte array
+	 * @throws Exception Thrown if the data is too large for the key.
+	 */
+	static byte[] apply(byte[] data, RSAKeyContext context) throws Exception {
+		// Anything longer than the modulus plus a sign byte cannot fit
+		if (data.length > context.getByteLength() + 1) {
+			throw new Exception("Key too small for data");
+		}
+		BigInteger value = new BigInteger(data);
+		if (value.signum() < 0 || value.compareTo(context.getModulus()) >= 0) {
+			throw new Exception("Key too small for data");
+		}
+		return context.modPow(value).toByteArray();
+	}
+
 }
@@ -0,0 +1,310 @@
+package RSA;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Runs key generation, primality checks and encryption on an executor and
+ * returns {@link CompletableFuture}s, so callers on event loop threads never
+ * block. Failures complete the future with a subclass of {@link RSAException}.
+ * Cancelling a future stops a prime search at the next candidate and cancelling
+ * a key stops the searches for both of its primes. Nothing is traced since the
+ * trace sinks are not thread safe.
+ */
+public class RSAAsync {
+
+	private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+	private final Executor executor;
+
+	/**
+	 * An operation that checks cancelled whenever it can stop early.
+	 */
+	private interface Operation<T> {
+		T run(BooleanSupplier cancelled) throws Exception;
+	}
+
+	/**
+	 * Creates a facade on {@link #newDefaultExecutor()}.
+	 */
+	public RSAAsync() {
+		this(newDefaultExecutor());
+	}
+
+	/**
+	 * Creates a facade on the given executor.
+	 *
+	 * @param executor Runs every operation
+	 */
+	public RSAAsync(Executor executor) {
+		if (executor == null) {
+			throw new IllegalArgumentException("The executor should not be null.");
+		}
+		this.executor = executor;
+	}
+
+	/**
+	 * Returns an executor that starts a virtual thread per operation when the
+	 * runtime has virtual threads, and a cached pool of daemon threads otherwise.
+	 *
+	 * @return A new executor
+	 */
+	public static ExecutorService newDefaultExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool(r -> {
+				Thread t = new Thread(r, "rsa-async-" + THREAD_COUNT.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			});
+		}
+	}
+
+	/**
+	 * Searches for a random prime. See {@link Util#randomPrime(int)}.
+	 *
+	 * @param bits The size of the prime
+	 * @return The prime, cancelling it stops the search
+	 */
+	public CompletableFuture<BigInteger> randomPrime(int bits) {
+		return submit(cancelled -> Util.randomPrime(bits, cancelled, Trace.NONE, Trace.NONE),
+				RSAException.KeyGenerationException::new);
+	}
+
+	/**
+	 * Checks whether n is probably prime. See {@link Util#isPrime(BigInteger)}.
+	 *
+	 * @param n The number to check
+	 * @return If n is probably prime
+	 */
+	public CompletableFuture<Boolean> isPrime(BigInteger n) {
+		return submit(cancelled -> Util.isPrime(n, Trace.NONE, Trace.NONE), RSAException.KeyGenerationException::new);
+	}
+
+	/**
+	 * Generates a CRT key pair, searching for p and q at the same time.
+	 *
+	 * @param bits           The size of the modulus
+	 * @param publicExponent The public exponent, odd and greater than 1
+	 * @return The key pair, cancelling it stops both prime searches
+	 */
+	public CompletableFuture<RSAPrivateCrtKey> generateKey(int bits, BigInteger publicExponent) {
+		return generate(bits, publicExponent, Metrics.start());
+	}
+
+	/**
+	 * Generates a key pair, timed from start including any retries.
+	 */
+	private CompletableFuture<RSAPrivateCrtKey> generate(int bits, BigInteger publicExponent, long start) {
+		CompletableFuture<RSAPrivateCrtKey> res = new CompletableFuture<RSAPrivateCrtKey>();
+		if (bits < 2 * PrimeSieve.MIN_BITS) {
+			res.completeExceptionally(new RSAException.KeyGenerationException(
+					"The modulus needs at least " + 2 * PrimeSieve.MIN_BITS + " bits.", null));
+			return res;
+		} else if (publicExponent.compareTo(BigInteger.ONE) <= 0 || !publicExponent.testBit(0)) {
+			res.completeExceptionally(new RSAException.KeyGenerationException(
+					"The public exponent should be odd and greater than 1.", null));
+			return res;
+		}
+		CompletableFuture<BigInteger> p = submit(cancelled -> keyPrime(bits / 2, publicExponent, cancelled),
+				RSAException.KeyGenerationException::new);
+		CompletableFuture<BigInteger> q = submit(cancelled -> keyPrime(bits - bits / 2, publicExponent, cancelled),
+				RSAException.KeyGenerationException::new);
+		res.whenComplete((key, t) -> {
+			if (res.isCancelled()) {
+				p.cancel(false);
+				q.cancel(false);
+			}
+		});
+		p.thenCombine(q, (a, b) -> new BigInteger[] { a, b }).whenComplete((primes, t) -> {
+			if (t != null) {
+				fail(res, t);
+			} else if (primes[0].equals(primes[1])) {
+				// Only likely for tiny keys, start over
+				CompletableFuture<RSAPrivateCrtKey> retry = generate(bits, publicExponent, start);
+				res.whenComplete((key, e) -> retry.cancel(false));
+				retry.whenComplete((key, e) -> {
+					if (e != null) {
+						fail(res, e);
+					} else {
+						res.complete(key);
+					}
+				});
+			} else {
+				try {
+					RSAPrivateCrtKey key = RSAPrivateCrtKey.fromPrimes(primes[0], primes[1], publicExponent);
+					// Recorded by prime size like the key pool
+					Metrics.stop(Metrics.KEY_GENERATION, bits / 2, start);
+					res.complete(key);
+				} catch (Exception e) {
+					res.completeExceptionally(new RSAException.KeyGenerationException(e.getMessage(), e));
+				}
+			}
+		});
+		return res;
+	}
+
+	/**
+	 * Raises data to the public exponent. See
+	 * {@link RSA#encrypt(byte[], RSAKeyContext)}.
+	 *
+	 * @param data    The data as a signed big endian number
+	 * @param context The public key context
+	 * @return The cypher text as a signed big endian number
+	 */
+	public CompletableFuture<byte[]> encrypt(byte[] data, RSAKeyContext context) {
+		return submit(cancelled -> {
+			long start = Metrics.start();
+			byte[] res = RSA.apply(data, context);
+			Metrics.stop(Metrics.ENCRYPT, context.getBitLength(), start);
+			return res;
+		}, RSAException.EncryptionException::new);
+	}
+
+	/**
+	 * Raises data to the private exponent. See
+	 * {@link RSA#decrypt(byte[], RSAKeyContext)}.
+	 *
+	 * @param data    The cypher text as a signed big endian number
+	 * @param context The private key context
+	 * @return The plain text as a signed big endian number
+	 */
+	public CompletableFuture<byte[]> decrypt(byte[] data, RSAKeyContext context) {
+		return submit(cancelled -> {
+			long start = Metrics.start();
+			byte[] res = RSA.apply(data, context);
+			Metrics.stop(Metrics.DECRYPT, context.getBitLength(), start);
+			return res;
+		}, RSAException.DecryptionException::new);
+	}
+
+	/**
+	 * Pads a message with OAEP SHA-1 and encrypts it.
+	 *
+	 * @param message The message
+	 * @param context The public key context
+	 * @return The cypher text, exactly {@link RSAKeyContext#getByteLength()} bytes
+	 */
+	public CompletableFuture<byte[]> encryptOAEP(byte[] message, RSAKeyContext context) {
+		return encryptOAEP(message, context, OAEPParameters.SHA1);
+	}
+
+	/**
+	 * Pads a message with OAEP and encrypts it.
+	 *
+	 * @param message The message
+	 * @param context The public key context
+	 * @param params  The hashes and label
+	 * @return The cypher text, exactly {@link RSAKeyContext#getByteLength()} bytes
+	 */
+	public CompletableFuture<byte[]> encryptOAEP(byte[] message, RSAKeyContext context, OAEPParameters params) {
+		return submit(cancelled -> {
+			int keySize = context.getBitLength();
+			// A leading zero so the padded block is read as unsigned
+			ByteBuffer padded = ByteBuffer.allocate(keySize / 8 + 1);
+			padded.position(1);
+			OAEP.pad(ByteBuffer.wrap(message), padded, keySize, params);
+			long start = Metrics.start();
+			byte[] res = RSA.apply(padded.array(), context);
+			Metrics.stop(Metrics.ENCRYPT, keySize, start);
+			return Util.I2OSP(new BigInteger(1, res), context.getByteLength());
+		}, RSAException.EncryptionException::new);
+	}
+
+	/**
+	 * Decrypts a cypher text and removes its OAEP SHA-1 padding.
+	 *
+	 * @param cypherText The cypher text as an unsigned big endian number
+	 * @param context    The private key context
+	 * @return The message
+	 */
+	public CompletableFuture<byte[]> decryptOAEP(byte[] cypherText, RSAKeyContext context) {
+		return decryptOAEP(cypherText, context, OAEPParameters.SHA1);
+	}
+
+	/**
+	 * Decrypts a cypher text and removes its OAEP padding.
+	 *
+	 * @param cypherText The cypher text as an unsigned big endian number
+	 * @param context    The private key context
+	 * @param params     The hashes and label used when padding
+	 * @return The message
+	 */
+	public CompletableFuture<byte[]> decryptOAEP(byte[] cypherText, RSAKeyContext context, OAEPParameters params) {
+		return submit(cancelled -> {
+			int keySize = context.getBitLength();
+			byte[] data = new byte[cypherText.length + 1];
+			System.arraycopy(cypherText, 0, data, 1, cypherText.length);
+			long start = Metrics.start();
+			byte[] padded = RSA.apply(data, context);
+			Metrics.stop(Metrics.DECRYPT, keySize, start);
+			ByteBuffer message = ByteBuffer.allocate(keySize / 8);
+			OAEP.unpad(ByteBuffer.wrap(Util.I2OSP(new BigInteger(1, padded), keySize / 8)), message, keySize, params);
+			byte[] res = new byte[message.flip().remaining()];
+			message.get(res);
+			return res;
+		}, RSAException.DecryptionException::new);
+	}
+
+	/**
+	 * Returns a random prime p of size bits where p - 1 is coprime to e.
+	 */
+	private static BigInteger keyPrime(int bits, BigInteger publicExponent, BooleanSupplier cancelled) {
+		while (true) {
+			BigInteger p = Util.randomPrime(bits, cancelled, Trace.NONE, Trace.NONE);
+			if (p.subtract(BigInteger.ONE).gcd(publicExponent).equals(BigInteger.ONE)) {
+				return p;
+			}
+		}
+	}
+
+	/**
+	 * Runs an operation on the executor. The operation sees itself cancelled once
+	 * the future is done or its thread is interrupted, and any other exception is
+	 * wrapped by type.
+	 */
+	private <T> CompletableFuture<T> submit(Operation<T> operation,
+			BiFunction<String, Throwable, ? extends RSAException> type) {
+		CompletableFuture<T> future = new CompletableFuture<T>();
+		BooleanSupplier cancelled = () -> future.isDone() || Thread.currentThread().isInterrupted();
+		try {
+			executor.execute(() -> {
+				if (future.isDone()) {
+					return;
+				}
+				try {
+					future.complete(operation.run(cancelled));
+				} catch (CancellationException e) {
+					future.cancel(false);
+				} catch (Exception e) {
+					future.completeExceptionally(type.apply(e.getMessage(), e));
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(type.apply("The executor rejected the operation.", e));
+		}
+		return future;
+	}
+
+	/**
+	 * Completes res the way a dependent future failed.
+	 */
+	private static void fail(CompletableFuture<?> res, Throwable t) {
+		Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+		if (cause instanceof CancellationException) {
+			res.cancel(false);
+		} else {
+			res.completeExceptionally(cause);
+		}
+	}
+}
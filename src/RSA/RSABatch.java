@@ -0,0 +1,223 @@
+package RSA;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A static class for encrypting or decrypting many messages under the same key.
+ * The work is split across a fork join pool so idle workers steal from busy
+ * ones. Results are written in input order and a failure of one message does
+ * not stop the others. Batches are not traced since the trace sinks are not
+ * thread safe.
+ */
+public class RSABatch {
+
+	// Messages handled by one task before it stops splitting
+	private static final int LEAF_SIZE = 8;
+
+	/**
+	 * The outcome of a batch. Each failed message keeps the exception that stopped
+	 * it.
+	 */
+	public static class Result {
+		private final Exception[] failures;
+		private volatile int failureCount;
+
+		private Result(int size) {
+			failures = new Exception[size];
+		}
+
+		private synchronized void fail(int index, Exception e) {
+			failures[index] = e;
+			failureCount++;
+		}
+
+		public int size() {
+			return failures.length;
+		}
+
+		public boolean isSuccess(int index) {
+			return failures[index] == null;
+		}
+
+		public Exception getFailure(int index) {
+			return failures[index];
+		}
+
+		public int getFailureCount() {
+			return failureCount;
+		}
+	}
+
+	/**
+	 * Encrypts every message with the same public key on the common pool.
+	 *
+	 * @param input   The messages to encrypt
+	 * @param output  Receives the cypher text of input[i] at index i, or null if it
+	 *                failed
+	 * @param context The public key context
+	 * @return The per message outcome
+	 */
+	public static Result encrypt(List<byte[]> input, byte[][] output, RSAKeyContext context) {
+		return process(input, output, context, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Decrypts every message with the same private key on the common pool.
+	 *
+	 * @param input   The messages to decrypt
+	 * @param output  Receives the plain text of input[i] at index i, or null if it
+	 *                failed
+	 * @param context The private key context
+	 * @return The per message outcome
+	 */
+	public static Result decrypt(List<byte[]> input, byte[][] output, RSAKeyContext context) {
+		return process(input, output, context, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Encrypts fixed size blocks. Both buffers hold blocks of exactly
+	 * {@link RSAKeyContext#getByteLength()} unsigned big endian bytes. Failed
+	 * blocks are zero filled in the output.
+	 *
+	 * @param input   The blocks to encrypt, from position to limit
+	 * @param output  Receives the cypher text blocks, from position on
+	 * @param context The public key context
+	 * @return The per block outcome
+	 * @throws Exception Thrown if the buffers do not hold whole blocks
+	 */
+	public static Result encrypt(ByteBuffer input, ByteBuffer output, RSAKeyContext context) throws Exception {
+		return process(input, output, context, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Decrypts fixed size blocks. Both buffers hold blocks of exactly
+	 * {@link RSAKeyContext#getByteLength()} unsigned big endian bytes. Failed
+	 * blocks are zero filled in the output.
+	 *
+	 * @param input   The blocks to decrypt, from position to limit
+	 * @param output  Receives the plain text blocks, from position on
+	 * @param context The private key context
+	 * @return The per block outcome
+	 * @throws Exception Thrown if the buffers do not hold whole blocks
+	 */
+	public static Result decrypt(ByteBuffer input, ByteBuffer output, RSAKeyContext context) throws Exception {
+		return process(input, output, context, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Raises every message to the exponent of the context on the given pool.
+	 *
+	 * @param input   The messages
+	 * @param output  Receives the result of input[i] at index i
+	 * @param context The key context
+	 * @param pool    The pool to run on
+	 * @return The per message outcome
+	 */
+	public static Result process(List<byte[]> input, byte[][] output, RSAKeyContext context, ForkJoinPool pool) {
+		if (output.length < input.size()) {
+			throw new IllegalArgumentException("The output array is smaller than the input.");
+		}
+		Result result = new Result(input.size());
+		pool.invoke(new Task(0, input.size(), i -> {
+			try {
+				output[i] = RSA.apply(input.get(i), context);
+			} catch (Exception e) {
+				output[i] = null;
+				result.fail(i, e);
+			}
+		}));
+		return result;
+	}
+
+	/**
+	 * Raises every fixed size block to the exponent of the context on the given
+	 * pool. The output position is advanced past the written blocks.
+	 *
+	 * @param input   The blocks, from position to limit
+	 * @param output  Receives the result blocks, from position on
+	 * @param context The key context
+	 * @param pool    The pool to run on
+	 * @return The per block outcome
+	 * @throws Exception Thrown if the buffers do not hold whole blocks
+	 */
+	public static Result process(ByteBuffer input, ByteBuffer output, RSAKeyContext context, ForkJoinPool pool)
+			throws Exception {
+		int blockSize = context.getByteLength();
+		if (input.remaining() % blockSize != 0) {
+			throw new Exception("Input is not a whole number of " + blockSize + " byte blocks.");
+		}
+		int count = input.remaining() / blockSize;
+		if (output.remaining() < count * blockSize) {
+			throw new Exception("Output buffer is too small for " + count + " blocks.");
+		}
+		int inStart = input.position();
+		int outStart = output.position();
+		Result result = new Result(count);
+		pool.invoke(new Task(0, count, i -> {
+			byte[] block = new byte[blockSize];
+			// Absolute gets and puts so workers do not share buffer positions
+			for (int j = 0; j < blockSize; j++) {
+				block[j] = input.get(inStart + i * blockSize + j);
+			}
+			byte[] res;
+			try {
+				BigInteger value = new BigInteger(1, block);
+				if (value.compareTo(context.getModulus()) >= 0) {
+					throw new Exception("Key too small for data");
+				}
+				res = context.modPow(value).toByteArray();
+			} catch (Exception e) {
+				result.fail(i, e);
+				res = new byte[0];
+			}
+			// Left pad to the block size, toByteArray may add a sign byte or drop
+			// leading zeros
+			int off = outStart + i * blockSize;
+			int copy = Math.min(res.length, blockSize);
+			for (int j = 0; j < blockSize - copy; j++) {
+				output.put(off + j, (byte) 0);
+			}
+			for (int j = 0; j < copy; j++) {
+				output.put(off + blockSize - copy + j, res[res.length - copy + j]);
+			}
+		}));
+		output.position(outStart + count * blockSize);
+		return result;
+	}
+
+	private interface Item {
+		void run(int index);
+	}
+
+	/**
+	 * Splits a range of indices in half until it is small enough to run.
+	 */
+	private static class Task extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int from;
+		private final int to;
+		private final Item item;
+
+		Task(int from, int to, Item item) {
+			this.from = from;
+			this.to = to;
+			this.item = item;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= LEAF_SIZE) {
+				for (int i = from; i < to; i++) {
+					item.run(i);
+				}
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new Task(from, mid, item), new Task(mid, to, item));
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package RSA;
+
+/**
+ * The failure of an operation started through {@link RSAAsync}. The subclass
+ * tells which kind of operation failed and the cause keeps the original
+ * exception.
+ */
+public class RSAException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	public RSAException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+	/**
+	 * Thrown if a key pair could not be generated, for example because the public
+	 * exponent is invalid.
+	 */
+	public static class KeyGenerationException extends RSAException {
+		private static final long serialVersionUID = 1L;
+
+		public KeyGenerationException(String message, Throwable cause) {
+			super(message, cause);
+		}
+	}
+
+	/**
+	 * Thrown if a message could not be padded or encrypted, for example because it
+	 * is too large for the key.
+	 */
+	public static class EncryptionException extends RSAException {
+		private static final long serialVersionUID = 1L;
+
+		public EncryptionException(String message, Throwable cause) {
+			super(message, cause);
+		}
+	}
+
+	/**
+	 * Thrown if a cypher text could not be decrypted or its padding is invalid.
+	 */
+	public static class DecryptionException extends RSAException {
+		private static final long serialVersionUID = 1L;
+
+		public DecryptionException(String message, Throwable cause) {
+			super(message, cause);
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package RSA;
+
+import java.math.BigInteger;
+
+/**
+ * An immutable, validated view of a key for repeated encryption or decryption.
+ * The key is checked once when the context is built and everything that only
+ * depends on the key is cached so each message only pays for the
+ * exponentiation.
+ */
+public class RSAKeyContext {
+
+	private final BigInteger modulus;
+	private final BigInteger exponent;
+	private final RSAPrivateCrtKey crtKey;
+	private final int bitLength;
+	private final int byteLength;
+
+	/**
+	 * Builds a context for a modulus and exponent. The exponent may be either the
+	 * public or private exponent.
+	 *
+	 * @param modulus  The public key (modulus n)
+	 * @param exponent The exponent used by this context
+	 * @throws Exception Thrown if a bad public key or exponent is received.
+	 */
+	public RSAKeyContext(BigInteger modulus, BigInteger exponent) throws Exception {
+		this(modulus, exponent, null);
+	}
+
+	/**
+	 * Builds a decryption context that uses the Chinese Remainder Theorem.
+	 *
+	 * @param key The CRT private key
+	 * @throws Exception Thrown if a bad key is received.
+	 */
+	public RSAKeyContext(RSAPrivateCrtKey key) throws Exception {
+		this(key.getModulus(), key.getPrivateExponent(), key);
+	}
+
+	private RSAKeyContext(BigInteger modulus, BigInteger exponent, RSAPrivateCrtKey crtKey) throws Exception {
+		// Catch invalid public keys
+		if (modulus.compareTo(BigInteger.ZERO) < 0) {
+			throw new Exception("Public key should not be negative.");
+		} else if (modulus.equals(BigInteger.ZERO)) {
+			throw new Exception("Public key should not be 0.");
+		} else if (exponent.compareTo(BigInteger.ZERO) <= 0) {
+			throw new Exception("Exponent should be positive.");
+		}
+		this.modulus = modulus;
+		this.exponent = exponent;
+		this.crtKey = crtKey;
+		bitLength = modulus.bitLength();
+		byteLength = (bitLength + 7) / 8;
+	}
+
+	/**
+	 * Computes x^exponent mod modulus. Precondition: 0 <= x < modulus.
+	 *
+	 * @param x The value to exponentiate
+	 * @return x^exponent mod modulus
+	 */
+	BigInteger modPow(BigInteger x) {
+		if (crtKey != null) {
+			return crtKey.modPow(x);
+		}
+		return x.modPow(exponent, modulus);
+	}
+
+	public BigInteger getModulus() {
+		return modulus;
+	}
+
+	public BigInteger getExponent() {
+		return exponent;
+	}
+
+	public boolean isCrt() {
+		return crtKey != null;
+	}
+
+	public int getBitLength() {
+		return bitLength;
+	}
+
+	public int getByteLength() {
+		return byteLength;
+	}
+}
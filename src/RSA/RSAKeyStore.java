@@ -0,0 +1,365 @@
+package RSA;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A file of keys looked up by the SHA-256 fingerprint of their modulus. Keys
+ * are appended as PKCS#1 DER to a data region and found through a fixed width,
+ * open addressing hash index at the start of the file. Both are memory mapped
+ * so a lookup reads one index slot and one key without loading the rest of the
+ * file. Contexts built for recently used keys are kept in an LRU cache so a
+ * repeat lookup skips the parsing and setup.
+ *
+ * The format is: magic (4 bytes) || version (1 byte) || 3 zero bytes || slot
+ * count (4 bytes) || key count (4 bytes) || slots || keys, where each slot is a
+ * fingerprint (32 bytes) followed by the file offset of its key (8 bytes), 0
+ * for an empty slot.
+ */
+public class RSAKeyStore implements AutoCloseable {
+
+	public static final int FINGERPRINT_SIZE = 32;
+	private static final byte[] MAGIC = { 'P', 'J', 'R', 'K' };
+	private static final byte VERSION = 1;
+	private static final int HEADER_SIZE = 16;
+	private static final int SLOT_SIZE = FINGERPRINT_SIZE + 8;
+	private static final int INITIAL_SLOTS = 1024;
+
+	private final Path path;
+	private final int cacheSize;
+	private final Map<ByteBuffer, RSAKeyContext> cache;
+	private FileChannel channel;
+	private MappedByteBuffer index;
+	private MappedByteBuffer data;
+	private int slots;
+	private int count;
+
+	/**
+	 * Opens the key store at path, creating an empty one if the file does not
+	 * exist.
+	 *
+	 * @param path      The key store file
+	 * @param cacheSize The number of contexts to keep
+	 * @throws Exception Thrown if the file cannot be opened or is not a key store
+	 */
+	public RSAKeyStore(Path path, int cacheSize) throws Exception {
+		if (cacheSize < 0) {
+			throw new IllegalArgumentException("The cache size should not be negative.");
+		}
+		this.path = path;
+		this.cacheSize = cacheSize;
+		cache = new LinkedHashMap<ByteBuffer, RSAKeyContext>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ByteBuffer, RSAKeyContext> eldest) {
+				return size() > RSAKeyStore.this.cacheSize;
+			}
+		};
+		if (!Files.exists(path)) {
+			create(path, INITIAL_SLOTS);
+		}
+		open();
+	}
+
+	/**
+	 * Returns the SHA-256 hash of the unsigned big endian bytes of the modulus.
+	 *
+	 * @param modulus The modulus of the key
+	 * @return The 32 byte fingerprint
+	 */
+	public static byte[] fingerprint(BigInteger modulus) {
+		byte[] bytes = modulus.toByteArray();
+		int off = bytes[0] == 0 && bytes.length > 1 ? 1 : 0;
+		MessageDigest md = OAEPParameters.newDigest("SHA-256");
+		md.update(bytes, off, bytes.length - off);
+		return md.digest();
+	}
+
+	/**
+	 * Stores a private key. If only the public key was stored it is replaced. The
+	 * key is on disk when this returns.
+	 *
+	 * @param key The CRT private key
+	 * @return The fingerprint of the key
+	 * @throws Exception Thrown if the file cannot be written
+	 */
+	public synchronized byte[] put(RSAPrivateCrtKey key) throws Exception {
+		return put(key.getModulus(), PKCS1.encodePrivateKey(key), true);
+	}
+
+	/**
+	 * Stores a public key. Nothing is written if the key is already stored. The
+	 * key is on disk when this returns.
+	 *
+	 * @param modulus        The modulus n
+	 * @param publicExponent The public exponent e
+	 * @return The fingerprint of the key
+	 * @throws Exception Thrown if the file cannot be written
+	 */
+	public synchronized byte[] put(BigInteger modulus, BigInteger publicExponent) throws Exception {
+		return put(modulus, PKCS1.encodePublicKey(modulus, publicExponent), false);
+	}
+
+	/**
+	 * Returns the context for a key. For a private key this is a CRT decryption
+	 * context, for a public key an encryption context.
+	 *
+	 * @param fingerprint The fingerprint of the key
+	 * @return The context, or null if no key has this fingerprint
+	 * @throws Exception Thrown if the stored key is not valid
+	 */
+	public synchronized RSAKeyContext getContext(byte[] fingerprint) throws Exception {
+		ByteBuffer cacheKey = ByteBuffer.wrap(fingerprint.clone());
+		RSAKeyContext context = cache.get(cacheKey);
+		if (context != null) {
+			return context;
+		}
+		ByteBuffer der = find(fingerprint);
+		if (der == null) {
+			return null;
+		} else if (PKCS1.countFields(der) == 2) {
+			context = PKCS1.decodePublicKey(der);
+		} else {
+			context = new RSAKeyContext(PKCS1.decodePrivateKey(der));
+		}
+		if (cacheSize > 0) {
+			cache.put(cacheKey, context);
+		}
+		return context;
+	}
+
+	/**
+	 * Returns a stored private key.
+	 *
+	 * @param fingerprint The fingerprint of the key
+	 * @return The private key, or null if there is no private key with this
+	 *         fingerprint
+	 * @throws Exception Thrown if the stored key is not valid
+	 */
+	public synchronized RSAPrivateCrtKey getPrivateKey(byte[] fingerprint) throws Exception {
+		ByteBuffer der = find(fingerprint);
+		if (der == null || PKCS1.countFields(der) == 2) {
+			return null;
+		}
+		return PKCS1.decodePrivateKey(der);
+	}
+
+	/**
+	 * Returns true if a key with this fingerprint is stored.
+	 *
+	 * @param fingerprint The fingerprint of the key
+	 * @return If the key is stored
+	 * @throws Exception Thrown if the file cannot be read
+	 */
+	public synchronized boolean contains(byte[] fingerprint) throws Exception {
+		return find(fingerprint) != null;
+	}
+
+	/**
+	 * Returns the number of keys stored.
+	 *
+	 * @return The number of keys
+	 */
+	public synchronized int size() {
+		return count;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		channel.close();
+		cache.clear();
+	}
+
+	private byte[] put(BigInteger modulus, byte[] der, boolean isPrivate) throws Exception {
+		byte[] fingerprint = fingerprint(modulus);
+		int slot = slot(fingerprint);
+		long existing = index.getLong(slotOffset(slot) + FINGERPRINT_SIZE);
+		if (existing != 0 && (!isPrivate || PKCS1.countFields(read(existing)) != 2)) {
+			return fingerprint;
+		}
+		if (existing == 0 && (count + 1) * 4L > slots * 3L) {
+			grow();
+			slot = slot(fingerprint);
+		}
+		// Put the key on disk before the slot so a crash leaves at most an unused key
+		long offset = channel.size();
+		ByteBuffer src = ByteBuffer.wrap(der);
+		while (src.hasRemaining()) {
+			channel.write(src, offset + src.position());
+		}
+		channel.force(true);
+		int at = slotOffset(slot);
+		for (int i = 0; i < FINGERPRINT_SIZE; i++) {
+			index.put(at + i, fingerprint[i]);
+		}
+		index.putLong(at + FINGERPRINT_SIZE, offset);
+		if (existing == 0) {
+			index.putInt(12, ++count);
+		}
+		index.force();
+		cache.remove(ByteBuffer.wrap(fingerprint));
+		return fingerprint;
+	}
+
+	/**
+	 * Returns a view positioned at the key with this fingerprint, or null.
+	 */
+	private ByteBuffer find(byte[] fingerprint) throws Exception {
+		if (fingerprint.length != FINGERPRINT_SIZE) {
+			throw new IllegalArgumentException("A fingerprint is " + FINGERPRINT_SIZE + " bytes.");
+		}
+		long offset = index.getLong(slotOffset(slot(fingerprint)) + FINGERPRINT_SIZE);
+		return offset == 0 ? null : read(offset);
+	}
+
+	/**
+	 * Returns the slot holding fingerprint, or the empty slot it would go in. The
+	 * index is never full so probing always ends.
+	 */
+	private int slot(byte[] fingerprint) {
+		// The fingerprint is already uniform so its first bytes are the hash
+		int slot = ByteBuffer.wrap(fingerprint).getInt() & (slots - 1);
+		while (true) {
+			int at = slotOffset(slot);
+			if (index.getLong(at + FINGERPRINT_SIZE) == 0) {
+				return slot;
+			}
+			int i = 0;
+			while (i < FINGERPRINT_SIZE && index.get(at + i) == fingerprint[i]) {
+				i++;
+			}
+			if (i == FINGERPRINT_SIZE) {
+				return slot;
+			}
+			slot = (slot + 1) & (slots - 1);
+		}
+	}
+
+	private static int slotOffset(int slot) {
+		return HEADER_SIZE + slot * SLOT_SIZE;
+	}
+
+	/**
+	 * Returns a view of the data region positioned at offset, remapping it if the
+	 * file has grown past the current mapping.
+	 */
+	private ByteBuffer read(long offset) throws Exception {
+		if (data == null || offset >= data.capacity() || PKCS1.elementSize(at(offset)) > data.capacity() - offset) {
+			// The key was appended after the last mapping
+			long size = channel.size();
+			if (offset >= size) {
+				throw new Exception("The index points past the end of the file.");
+			} else if (size > Integer.MAX_VALUE) {
+				throw new Exception("Key stores are limited to 2GB.");
+			}
+			data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			if (PKCS1.elementSize(at(offset)) > size - offset) {
+				throw new Exception("The key at " + offset + " is truncated.");
+			}
+		}
+		return at(offset);
+	}
+
+	private ByteBuffer at(long offset) {
+		ByteBuffer view = data.duplicate();
+		view.position((int) offset);
+		return view;
+	}
+
+	/**
+	 * Rewrites the store with twice as many slots and swaps it in.
+	 */
+	private void grow() throws Exception {
+		Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		create(tmp, slots * 2);
+		try (RSAKeyStore grown = new RSAKeyStore(tmp, 0)) {
+			for (int slot = 0; slot < slots; slot++) {
+				int at = slotOffset(slot);
+				long offset = index.getLong(at + FINGERPRINT_SIZE);
+				if (offset == 0) {
+					continue;
+				}
+				byte[] fingerprint = new byte[FINGERPRINT_SIZE];
+				for (int i = 0; i < FINGERPRINT_SIZE; i++) {
+					fingerprint[i] = index.get(at + i);
+				}
+				ByteBuffer der = read(offset);
+				der.limit(der.position() + PKCS1.elementSize(der));
+				grown.append(fingerprint, der);
+			}
+			// The rename must not publish a file whose keys are still in the page cache
+			grown.channel.force(true);
+			grown.index.force();
+		}
+		channel.close();
+		index = null;
+		data = null;
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		open();
+	}
+
+	/**
+	 * Appends a key that is known not to be stored yet.
+	 */
+	private void append(byte[] fingerprint, ByteBuffer der) throws Exception {
+		int at = slotOffset(slot(fingerprint));
+		long offset = channel.size();
+		int start = der.position();
+		while (der.hasRemaining()) {
+			channel.write(der, offset + der.position() - start);
+		}
+		for (int i = 0; i < FINGERPRINT_SIZE; i++) {
+			index.put(at + i, fingerprint[i]);
+		}
+		index.putLong(at + FINGERPRINT_SIZE, offset);
+		index.putInt(12, ++count);
+	}
+
+	private void open() throws Exception {
+		channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		while (header.hasRemaining()) {
+			if (channel.read(header, header.position()) < 0) {
+				throw new Exception("Not a key store");
+			}
+		}
+		header.flip();
+		byte[] magic = new byte[MAGIC.length];
+		header.get(magic);
+		if (!Arrays.equals(magic, MAGIC) || header.get() != VERSION) {
+			throw new Exception("Not a key store");
+		}
+		header.position(8);
+		slots = header.getInt();
+		count = header.getInt();
+		if (slots <= 0 || Integer.bitCount(slots) != 1 || count >= slots) {
+			throw new Exception("Invalid key store header");
+		}
+		index = channel.map(FileChannel.MapMode.READ_WRITE, 0, slotOffset(slots));
+	}
+
+	private static void create(Path path, int slots) throws Exception {
+		try (FileChannel out = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.put(MAGIC).put(VERSION).put(new byte[3]).putInt(slots).putInt(0).flip();
+			while (header.hasRemaining()) {
+				out.write(header);
+			}
+			// Zero filled slots are empty
+			out.write(ByteBuffer.allocate(1), slotOffset(slots) - 1);
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package RSA;
+
+import java.math.BigInteger;
+
+/**
+ * An RSA private key that keeps the factors of the modulus so decryption can
+ * use the Chinese Remainder Theorem. Source:
+ * https://tools.ietf.org/html/rfc8017#section-3.2
+ */
+public class RSAPrivateCrtKey {
+
+	private final BigInteger modulus;
+	private final BigInteger publicExponent;
+	private final BigInteger privateExponent;
+	private final BigInteger p;
+	private final BigInteger q;
+	private final BigInteger dP;
+	private final BigInteger dQ;
+	private final BigInteger qInv;
+
+	/**
+	 * Builds the CRT key from the values produced during key generation.
+	 *
+	 * @param p               The first prime factor of the modulus
+	 * @param q               The second prime factor of the modulus
+	 * @param publicExponent  The public exponent e
+	 * @param privateExponent The private exponent d
+	 * @throws Exception Thrown if p or q are invalid factors
+	 */
+	public RSAPrivateCrtKey(BigInteger p, BigInteger q, BigInteger publicExponent, BigInteger privateExponent)
+			throws Exception {
+		if (p.compareTo(BigInteger.ONE) <= 0 || q.compareTo(BigInteger.ONE) <= 0) {
+			throw new Exception("The prime factors should be greater than 1.");
+		} else if (p.equals(q)) {
+			throw new Exception("The prime factors should not be equal.");
+		}
+		this.p = p;
+		this.q = q;
+		this.publicExponent = publicExponent;
+		this.privateExponent = privateExponent;
+		modulus = p.multiply(q);
+		// d mod (p-1) and d mod (q-1) are the exponents for the two half size powers
+		dP = privateExponent.mod(p.subtract(BigInteger.ONE));
+		dQ = privateExponent.mod(q.subtract(BigInteger.ONE));
+		// Used by Garner's formula to recombine the two halves
+		qInv = q.modInverse(p);
+	}
+
+	/**
+	 * Builds the CRT key from already computed components, as stored in a PKCS#1
+	 * private key. Nothing is recomputed, but the components are checked against
+	 * each other: a CRT result made with a wrong dP, dQ or qInv is right modulo
+	 * one prime only, so it would reveal the factors of the modulus.
+	 *
+	 * @throws Exception Thrown if the components do not form a valid key
+	 */
+	RSAPrivateCrtKey(BigInteger modulus, BigInteger publicExponent, BigInteger privateExponent, BigInteger p,
+			BigInteger q, BigInteger dP, BigInteger dQ, BigInteger qInv) throws Exception {
+		BigInteger pMinusOne = p.subtract(BigInteger.ONE);
+		BigInteger qMinusOne = q.subtract(BigInteger.ONE);
+		if (pMinusOne.signum() <= 0 || qMinusOne.signum() <= 0) {
+			throw new Exception("The prime factors should be greater than 1.");
+		} else if (!p.multiply(q).equals(modulus)) {
+			throw new Exception("The prime factors do not match the modulus.");
+		} else if (!dP.equals(privateExponent.mod(pMinusOne)) || !dQ.equals(privateExponent.mod(qMinusOne))) {
+			throw new Exception("The CRT exponents do not match the private exponent.");
+		} else if (!q.multiply(qInv).mod(p).equals(BigInteger.ONE)) {
+			throw new Exception("The CRT coefficient is not the inverse of q mod p.");
+		}
+		// d only has to invert e modulo lcm(p-1, q-1)
+		BigInteger lambda = pMinusOne.divide(pMinusOne.gcd(qMinusOne)).multiply(qMinusOne);
+		if (!publicExponent.multiply(privateExponent).mod(lambda).equals(BigInteger.ONE)) {
+			throw new Exception("The private exponent does not match the public exponent.");
+		}
+		this.modulus = modulus;
+		this.publicExponent = publicExponent;
+		this.privateExponent = privateExponent;
+		this.p = p;
+		this.q = q;
+		this.dP = dP;
+		this.dQ = dQ;
+		this.qInv = qInv;
+	}
+
+	/**
+	 * Builds the CRT key from p, q and e, computing d as e^-1 mod (p-1)(q-1) the
+	 * same way the key generation pane does.
+	 *
+	 * @param p              The first prime factor of the modulus
+	 * @param q              The second prime factor of the modulus
+	 * @param publicExponent The public exponent e
+	 * @return The CRT private key
+	 * @throws Exception Thrown if p or q are invalid factors
+	 */
+	public static RSAPrivateCrtKey fromPrimes(BigInteger p, BigInteger q, BigInteger publicExponent)
+			throws Exception {
+		BigInteger m = (p.subtract(BigInteger.ONE)).multiply(q.subtract(BigInteger.ONE));
+		return new RSAPrivateCrtKey(p, q, publicExponent, publicExponent.modInverse(m));
+	}
+
+	/**
+	 * Computes c^d mod n using two half size exponentiations and Garner's formula.
+	 *
+	 * @param c The value to exponentiate, 0 <= c < n
+	 * @return c^d mod n
+	 */
+	BigInteger modPow(BigInteger c) {
+		BigInteger m1 = c.mod(p).modPow(dP, p);
+		BigInteger m2 = c.mod(q).modPow(dQ, q);
+		// h = qInv * (m1 - m2) mod p
+		BigInteger h = qInv.multiply(m1.subtract(m2)).mod(p);
+		return m2.add(h.multiply(q));
+	}
+
+	public BigInteger getModulus() {
+		return modulus;
+	}
+
+	public BigInteger getPublicExponent() {
+		return publicExponent;
+	}
+
+	public BigInteger getPrivateExponent() {
+		return privateExponent;
+	}
+
+	public BigInteger getP() {
+		return p;
+	}
+
+	public BigInteger getQ() {
+		return q;
+	}
+
+	public BigInteger getDP() {
+		return dP;
+	}
+
+	public BigInteger getDQ() {
+		return dQ;
+	}
+
+	public BigInteger getQInv() {
+		return qInv;
+	}
+}
@@ -0,0 +1,26 @@
+package RSA;
+
+/**
+ * A source of random bytes. The source used by the library can be replaced
+ * through {@link Util#random}.
+ */
+public interface RandomSource {
+
+	/**
+	 * Fills part of an array with random bytes.
+	 *
+	 * @param bytes  The array to fill
+	 * @param offset The first index to fill
+	 * @param length The number of bytes to fill
+	 */
+	void nextBytes(byte[] bytes, int offset, int length);
+
+	/**
+	 * Fills an array with random bytes.
+	 *
+	 * @param bytes The array to fill
+	 */
+	default void nextBytes(byte[] bytes) {
+		nextBytes(bytes, 0, bytes.length);
+	}
+}
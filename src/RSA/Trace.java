@@ -0,0 +1,99 @@
+package RSA;
+
+import java.util.function.Supplier;
+
+/**
+ * A sink for the step by step trace of an operation. Messages are passed as
+ * suppliers so nothing is formatted unless the trace is active. Secrets such as
+ * plain texts, padding seeds, primes and private exponents go through
+ * {@link #secret(Supplier)} so a trace that is written to a file can leave them
+ * out.
+ */
+public interface Trace {
+
+	/**
+	 * Shown in place of a secret by a trace that does not show secrets.
+	 */
+	String REDACTED = "[redacted]";
+
+	/**
+	 * A trace that discards everything. This is the default so headless use pays
+	 * nothing for tracing.
+	 */
+	Trace NONE = new Trace() {
+		@Override
+		public boolean isActive() {
+			return false;
+		}
+
+		@Override
+		public void stepIn(Supplier<String> message) {
+		}
+
+		@Override
+		public void log(Supplier<String> message) {
+		}
+
+		@Override
+		public void appendToCurrent(Supplier<String> message) {
+		}
+
+		@Override
+		public void stepOut() {
+		}
+	};
+
+	/**
+	 * Returns true if messages sent to this trace are recorded.
+	 *
+	 * @return If the trace is active
+	 */
+	boolean isActive();
+
+	/**
+	 * Returns true if secrets may be sent to this trace. The visualizer shows them
+	 * to explain each step, so this is the default.
+	 *
+	 * @return If secrets are shown
+	 */
+	default boolean showsSecrets() {
+		return true;
+	}
+
+	/**
+	 * Formats a secret for a message of this trace.
+	 *
+	 * @param text The secret
+	 * @return The secret, or {@link #REDACTED} if this trace does not show
+	 *         secrets
+	 */
+	default String secret(Supplier<String> text) {
+		return showsSecrets() ? text.get() : REDACTED;
+	}
+
+	/**
+	 * Starts a new step as a child of the current step.
+	 *
+	 * @param message The description of the step
+	 */
+	void stepIn(Supplier<String> message);
+
+	/**
+	 * Logs a message in the current step.
+	 *
+	 * @param message The message to log
+	 */
+	void log(Supplier<String> message);
+
+	/**
+	 * Appends to the description of the current step.
+	 *
+	 * @param message The text to append
+	 */
+	void appendToCurrent(Supplier<String> message);
+
+	/**
+	 * Ends the current step and returns to its parent.
+	 */
+	void stepOut();
+}
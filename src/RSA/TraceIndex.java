@@ -0,0 +1,295 @@
+package RSA;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The sparse index of a recorded trace: the offset of every
+ * {@link TraceRecorder#INDEX_INTERVAL}th step with the name of each thread
+ * number and the offsets of the steps each thread had open there, plus every
+ * template so a reader can decode from any of those offsets without reading
+ * what comes before.
+ *
+ * Format: "PJTI" || version || trace length || step count || template count ||
+ * templates || name count || thread names || thread numbers used || entry
+ * count || entries, all varints. A template is its part count then each part
+ * as length || UTF-8, a name is length || UTF-8, an entry is step || offset ||
+ * thread of the step || for each thread number its name as an index into the
+ * names plus 1, 0 if it had none yet || the number of threads with open steps
+ * || for each of them its number || depth || the offset of each open step.
+ */
+class TraceIndex {
+
+	private long[] steps = new long[16];
+	private long[] offsets = new long[16];
+	private int[] threadNumbers = new int[16];
+	private String[][] names = new String[16][];
+	private long[][][] ancestors = new long[16][][];
+	private int size;
+	private long stepCount;
+	private int numbersUsed;
+	private List<String[]> templates = new ArrayList<String[]>();
+	private List<String> threads = new ArrayList<String>();
+
+	/**
+	 * Adds an entry. Both arrays are indexed by thread number and are at most as
+	 * long as the number of threads writing at once.
+	 *
+	 * @param step      The step starting at offset
+	 * @param offset    The offset of the step, or of records just before it
+	 * @param thread    The thread of the step
+	 * @param names     The name of each thread number, null if it had none yet
+	 * @param enclosing The offsets of the open steps of each thread, empty for
+	 *                  threads without open steps
+	 */
+	void add(long step, long offset, int thread, String[] names, long[][] enclosing) {
+		if (size == steps.length) {
+			steps = Arrays.copyOf(steps, size * 2);
+			offsets = Arrays.copyOf(offsets, size * 2);
+			threadNumbers = Arrays.copyOf(threadNumbers, size * 2);
+			this.names = Arrays.copyOf(this.names, size * 2);
+			ancestors = Arrays.copyOf(ancestors, size * 2);
+		}
+		steps[size] = step;
+		offsets[size] = offset;
+		threadNumbers[size] = thread;
+		this.names[size] = names;
+		ancestors[size] = enclosing;
+		size++;
+	}
+
+	int size() {
+		return size;
+	}
+
+	long getStep(int entry) {
+		return steps[entry];
+	}
+
+	long getOffset(int entry) {
+		return offsets[entry];
+	}
+
+	int getThread(int entry) {
+		return threadNumbers[entry];
+	}
+
+	String[] getNames(int entry) {
+		return names[entry];
+	}
+
+	long[][] getAncestors(int entry) {
+		return ancestors[entry];
+	}
+
+	long getStepCount() {
+		return stepCount;
+	}
+
+	void setStepCount(long stepCount) {
+		this.stepCount = stepCount;
+	}
+
+	List<String[]> getTemplates() {
+		return templates;
+	}
+
+	/**
+	 * Returns the distinct thread names in the order they first wrote.
+	 */
+	List<String> getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Returns how many thread numbers were used, which is the most threads that
+	 * had open steps at once.
+	 */
+	int getNumbersUsed() {
+		return numbersUsed;
+	}
+
+	void setNumbersUsed(int numbersUsed) {
+		this.numbersUsed = numbersUsed;
+	}
+
+	/**
+	 * Returns the last entry at or before step, or -1 if there is none.
+	 */
+	int find(long step) {
+		int low = 0;
+		int high = size - 1;
+		int res = -1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (steps[mid] <= step) {
+				res = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return res;
+	}
+
+	void write(Path path, long traceLength, long stepCount, List<List<String>> templates, List<String> threads,
+			int numbersUsed) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(TraceRecorder.INDEX_MAGIC);
+		out.write(TraceRecorder.VERSION);
+		writeVarint(out, traceLength);
+		writeVarint(out, stepCount);
+		writeVarint(out, templates.size());
+		for (List<String> template : templates) {
+			writeVarint(out, template.size());
+			for (String part : template) {
+				byte[] bytes = part.getBytes(StandardCharsets.UTF_8);
+				writeVarint(out, bytes.length);
+				out.write(bytes);
+			}
+		}
+		writeVarint(out, threads.size());
+		HashMap<String, Integer> ids = new HashMap<String, Integer>();
+		for (String thread : threads) {
+			ids.put(thread, ids.size());
+			byte[] bytes = thread.getBytes(StandardCharsets.UTF_8);
+			writeVarint(out, bytes.length);
+			out.write(bytes);
+		}
+		writeVarint(out, numbersUsed);
+		writeVarint(out, size);
+		for (int i = 0; i < size; i++) {
+			writeVarint(out, steps[i]);
+			writeVarint(out, offsets[i]);
+			writeVarint(out, threadNumbers[i]);
+			for (int thread = 0; thread < numbersUsed; thread++) {
+				String name = thread < names[i].length ? names[i][thread] : null;
+				writeVarint(out, name == null ? 0 : ids.get(name) + 1);
+			}
+			int open = 0;
+			for (long[] enclosing : ancestors[i]) {
+				open += enclosing.length > 0 ? 1 : 0;
+			}
+			writeVarint(out, open);
+			for (int thread = 0; thread < ancestors[i].length; thread++) {
+				if (ancestors[i][thread].length > 0) {
+					writeVarint(out, thread);
+					writeVarint(out, ancestors[i][thread].length);
+					for (long offset : ancestors[i][thread]) {
+						writeVarint(out, offset);
+					}
+				}
+			}
+		}
+		Files.write(path, out.toByteArray());
+	}
+
+	/**
+	 * Reads an index, returning null if there is none or it was written for a
+	 * trace of another length.
+	 */
+	static TraceIndex read(Path path, long traceLength) throws IOException {
+		ByteBuffer in;
+		try {
+			in = ByteBuffer.wrap(Files.readAllBytes(path));
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+		try {
+			byte[] magic = new byte[TraceRecorder.INDEX_MAGIC.length];
+			in.get(magic);
+			if (!Arrays.equals(magic, TraceRecorder.INDEX_MAGIC) || in.get() != TraceRecorder.VERSION
+					|| readVarint(in) != traceLength) {
+				return null;
+			}
+			TraceIndex index = new TraceIndex();
+			index.stepCount = readVarint(in);
+			int templateCount = (int) readVarint(in);
+			for (int i = 0; i < templateCount; i++) {
+				index.templates.add(readTemplate(in));
+			}
+			int nameCount = (int) readVarint(in);
+			for (int i = 0; i < nameCount; i++) {
+				byte[] bytes = new byte[(int) readVarint(in)];
+				in.get(bytes);
+				index.threads.add(new String(bytes, StandardCharsets.UTF_8));
+			}
+			int numbers = (int) readVarint(in);
+			index.numbersUsed = numbers;
+			long entries = readVarint(in);
+			long[] none = new long[0];
+			for (long i = 0; i < entries; i++) {
+				long step = readVarint(in);
+				long offset = readVarint(in);
+				int thread = (int) readVarint(in);
+				if (thread >= numbers) {
+					return null;
+				}
+				String[] names = new String[numbers];
+				for (int j = 0; j < numbers; j++) {
+					int id = (int) readVarint(in);
+					if (id > nameCount) {
+						return null;
+					}
+					names[j] = id == 0 ? null : index.threads.get(id - 1);
+				}
+				long[][] enclosing = new long[numbers][];
+				Arrays.fill(enclosing, none);
+				long withOpen = readVarint(in);
+				for (long j = 0; j < withOpen; j++) {
+					int open = (int) readVarint(in);
+					if (open >= numbers) {
+						return null;
+					}
+					enclosing[open] = new long[(int) readVarint(in)];
+					for (int k = 0; k < enclosing[open].length; k++) {
+						enclosing[open][k] = readVarint(in);
+					}
+				}
+				index.add(step, offset, thread, names, enclosing);
+			}
+			return index;
+		} catch (BufferUnderflowException e) {
+			return null;
+		}
+	}
+
+	static String[] readTemplate(ByteBuffer in) {
+		String[] parts = new String[(int) readVarint(in)];
+		for (int i = 0; i < parts.length; i++) {
+			byte[] bytes = new byte[(int) readVarint(in)];
+			in.get(bytes);
+			parts[i] = new String(bytes, StandardCharsets.UTF_8);
+		}
+		return parts;
+	}
+
+	static long readVarint(ByteBuffer in) {
+		long value = 0;
+		for (int shift = 0;; shift += 7) {
+			byte b = in.get();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+	}
+
+	private static void writeVarint(ByteArrayOutputStream out, long value) {
+		while ((value & ~0x7FL) != 0) {
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+}
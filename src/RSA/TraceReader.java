@@ -0,0 +1,566 @@
+package RSA;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Replays a trace recorded by {@link TraceRecorder} into any other trace, such
+ * as the step tree of the visualizer. Steps are numbered from 0 in the order
+ * they were started, whichever thread started them. When threads wrote to the
+ * trace at the same time, what each thread wrote from the moment it started a
+ * step until it stepped out of its last one is replayed under a step of its
+ * own, so the threads each get their own tree even if they share a name.
+ *
+ * A range of steps can be replayed without reading the file up to it: the
+ * sparse index gives the nearest indexed step before the range and the steps
+ * each thread had open there, so at most {@link TraceRecorder#INDEX_INTERVAL}
+ * steps are skipped over. If the index is missing, for example because the
+ * recorder was not closed, the file is scanned once when it is opened and a
+ * truncated last record is ignored.
+ */
+public class TraceReader implements AutoCloseable {
+
+	private static final int HEADER_SIZE = TraceRecorder.MAGIC.length + 1;
+
+	private final FileChannel channel;
+	private final TraceIndex index;
+	private final List<String[]> templates;
+	private final List<String> threads;
+	private final ByteBuffer window = ByteBuffer.allocate(1 << 16);
+	// The offset of the start of the window in the file
+	private long windowStart;
+	private long length;
+	// The thread of the records being read and the name of each thread number
+	private int current;
+	private List<String> names = new ArrayList<String>();
+
+	/**
+	 * The offsets of the steps each thread has open.
+	 */
+	private static class OpenSteps {
+		private long[][] offsets;
+		private int[] depths;
+
+		OpenSteps(long[][] initial) {
+			offsets = new long[Math.max(initial.length, 4)][];
+			depths = new int[offsets.length];
+			for (int i = 0; i < offsets.length; i++) {
+				offsets[i] = i < initial.length ? Arrays.copyOf(initial[i], Math.max(16, initial[i].length * 2))
+						: new long[16];
+				depths[i] = i < initial.length ? initial[i].length : 0;
+			}
+		}
+
+		void push(int thread, long offset) {
+			ensure(thread);
+			if (depths[thread] == offsets[thread].length) {
+				offsets[thread] = Arrays.copyOf(offsets[thread], depths[thread] * 2);
+			}
+			offsets[thread][depths[thread]++] = offset;
+		}
+
+		void pop(int thread) {
+			ensure(thread);
+			if (depths[thread] > 0) {
+				depths[thread]--;
+			}
+		}
+
+		long[] get(int thread) {
+			ensure(thread);
+			return Arrays.copyOf(offsets[thread], depths[thread]);
+		}
+
+		int size() {
+			return offsets.length;
+		}
+
+		long[][] getAll() {
+			long[][] res = new long[offsets.length][];
+			for (int i = 0; i < res.length; i++) {
+				res[i] = get(i);
+			}
+			return res;
+		}
+
+		private void ensure(int thread) {
+			if (thread >= offsets.length) {
+				int old = offsets.length;
+				offsets = Arrays.copyOf(offsets, Math.max(old * 2, thread + 1));
+				depths = Arrays.copyOf(depths, offsets.length);
+				for (int i = old; i < offsets.length; i++) {
+					offsets[i] = new long[16];
+				}
+			}
+		}
+	}
+
+	/**
+	 * What one thread wrote in the range being replayed, from its first record
+	 * until it has no steps open. Only the oldest group is replayed as it is
+	 * read, the others are kept until they are the oldest.
+	 */
+	private static class Group {
+		private final String label;
+		private final String[] enclosing;
+		private final List<Integer> opcodes = new ArrayList<Integer>();
+		private final List<String> messages = new ArrayList<String>();
+		// The steps open once everything kept is replayed, counting enclosing
+		private int depth;
+		private boolean replaying;
+
+		/**
+		 * @param label     The step the group is replayed under, or null
+		 * @param enclosing The steps the thread had open before the range
+		 */
+		Group(String label, String[] enclosing) {
+			this.label = label;
+			this.enclosing = enclosing;
+			depth = enclosing.length;
+		}
+
+		/**
+		 * Starts the group and replays what was kept, after which records are
+		 * replayed as they are added.
+		 */
+		void replay(Trace target) {
+			replaying = true;
+			if (label != null) {
+				target.stepIn(() -> label);
+			}
+			for (String message : enclosing) {
+				target.stepIn(() -> message);
+			}
+			for (int i = 0; i < opcodes.size(); i++) {
+				apply(target, opcodes.get(i), messages.get(i));
+			}
+			opcodes.clear();
+			messages.clear();
+		}
+
+		void add(Trace target, int opcode, String message) {
+			if (opcode == TraceRecorder.STEP_OUT) {
+				if (depth == 0) {
+					return;
+				}
+				depth--;
+			} else if (opcode == TraceRecorder.STEP_IN) {
+				depth++;
+			}
+			if (replaying) {
+				apply(target, opcode, message);
+			} else {
+				opcodes.add(opcode);
+				messages.add(message);
+			}
+		}
+
+		/**
+		 * Ends the steps left open and the group.
+		 */
+		void end(Trace target) {
+			for (; depth > 0; depth--) {
+				target.stepOut();
+			}
+			if (label != null) {
+				target.stepOut();
+			}
+		}
+
+		private static void apply(Trace target, int opcode, String message) {
+			if (opcode == TraceRecorder.STEP_IN) {
+				target.stepIn(() -> message);
+			} else if (opcode == TraceRecorder.LOG) {
+				target.log(() -> message);
+			} else if (opcode == TraceRecorder.APPEND) {
+				target.appendToCurrent(() -> message);
+			} else {
+				target.stepOut();
+			}
+		}
+	}
+
+	/**
+	 * Opens a trace and its index.
+	 *
+	 * @param path The trace file
+	 * @throws Exception Thrown if the file is not a trace or cannot be read
+	 */
+	public TraceReader(Path path) throws Exception {
+		channel = FileChannel.open(path, StandardOpenOption.READ);
+		length = channel.size();
+		seek(0);
+		try {
+			byte[] magic = new byte[TraceRecorder.MAGIC.length];
+			for (int i = 0; i < magic.length; i++) {
+				magic[i] = (byte) read();
+			}
+			if (!Arrays.equals(magic, TraceRecorder.MAGIC) || read() != TraceRecorder.VERSION) {
+				throw new Exception("Not a version " + TraceRecorder.VERSION + " trace file.");
+			}
+			TraceIndex loaded = TraceIndex.read(path.resolveSibling(path.getFileName() + TraceRecorder.INDEX_SUFFIX),
+					length);
+			index = loaded != null ? loaded : scan();
+			templates = index.getTemplates();
+			threads = index.getThreads();
+		} catch (Exception e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the number of steps in the trace.
+	 *
+	 * @return The number of steps
+	 */
+	public long getStepCount() {
+		return index.getStepCount();
+	}
+
+	/**
+	 * Returns the distinct names of the threads that wrote to the trace, in the
+	 * order they first did.
+	 *
+	 * @return The thread names
+	 */
+	public List<String> getThreads() {
+		return Collections.unmodifiableList(threads);
+	}
+
+	/**
+	 * Replays the whole trace.
+	 *
+	 * @param target The trace to replay into
+	 * @throws Exception Thrown if the file cannot be read or is corrupt
+	 */
+	public void replay(Trace target) throws Exception {
+		if (getStepCount() > 0) {
+			replay(target, 0, getStepCount());
+		}
+	}
+
+	/**
+	 * Replays count steps starting at step from, with everything logged in them
+	 * and everything the other threads logged meanwhile, reading the range once.
+	 * The steps enclosing the first record of each thread are started first so
+	 * the range shows up at its place in the tree, and every step left open is
+	 * ended at the end so target is back where it was. If threads wrote at the
+	 * same time, what a thread wrote until it had no steps open is replayed
+	 * under a step "Thread number: name", in the order the threads started
+	 * writing. The oldest of these is replayed as it is read and the others are
+	 * kept in memory until it ends.
+	 *
+	 * @param target The trace to replay into
+	 * @param from   The first step
+	 * @param count  The number of steps
+	 * @throws Exception Thrown if from is out of range, or the file cannot be read
+	 *                   or is corrupt
+	 */
+	public void replay(Trace target, long from, long count) throws Exception {
+		if (from < 0 || from >= getStepCount()) {
+			throw new Exception("Step " + from + " is not in a trace of " + getStepCount() + " steps.");
+		}
+		// Skip from the nearest indexed step to the first step of the range
+		int entry = index.find(from);
+		long step = entry < 0 ? 0 : index.getStep(entry);
+		OpenSteps open = new OpenSteps(entry < 0 ? new long[0][] : index.getAncestors(entry));
+		names = entry < 0 ? new ArrayList<String>() : new ArrayList<String>(Arrays.asList(index.getNames(entry)));
+		current = entry < 0 ? -1 : index.getThread(entry);
+		seek(entry < 0 ? HEADER_SIZE : index.getOffset(entry));
+		while (true) {
+			long offset = position();
+			int opcode = read();
+			if (opcode == TraceRecorder.STEP_IN) {
+				if (step == from) {
+					seek(offset);
+					break;
+				}
+				open.push(thread(), offset);
+				step++;
+			} else if (opcode == TraceRecorder.STEP_OUT) {
+				open.pop(thread());
+			}
+			skip(opcode);
+		}
+		// The steps each thread has open before the range
+		String[][] enclosing = new String[open.size()][];
+		long start = position();
+		for (int t = 0; t < enclosing.length; t++) {
+			long[] offsets = open.get(t);
+			enclosing[t] = new String[offsets.length];
+			for (int i = 0; i < offsets.length; i++) {
+				seek(offsets[i]);
+				if (read() != TraceRecorder.STEP_IN) {
+					throw new Exception("No step at offset " + offsets[i] + ".");
+				}
+				enclosing[t][i] = message();
+			}
+		}
+		seek(start);
+		boolean perThread = index.getNumbersUsed() > 1;
+		ArrayDeque<Group> groups = new ArrayDeque<Group>();
+		Group[] byThread = new Group[Math.max(index.getNumbersUsed(), 1)];
+		while (position() < length) {
+			int opcode = read();
+			if (opcode == TraceRecorder.STEP_IN && step++ == from + count) {
+				break;
+			} else if (opcode == TraceRecorder.DEFINE || opcode == TraceRecorder.THREAD
+					|| opcode == TraceRecorder.NEW_THREAD) {
+				skip(opcode);
+				continue;
+			} else if (opcode > TraceRecorder.NEW_THREAD) {
+				throw new Exception("Unknown record " + opcode + " at offset " + (position() - 1) + ".");
+			}
+			int t = thread();
+			String message = opcode == TraceRecorder.STEP_OUT ? null : message();
+			if (t >= byThread.length) {
+				byThread = Arrays.copyOf(byThread, t + 1);
+			}
+			Group g = byThread[t];
+			if (g == null) {
+				String[] before = t < enclosing.length ? enclosing[t] : new String[0];
+				if (opcode == TraceRecorder.STEP_OUT && before.length == 0) {
+					continue;
+				}
+				g = new Group(perThread ? "Thread " + t + ": " + names.get(t) : null, before);
+				// Steps open before the range are only replayed once
+				if (t < enclosing.length) {
+					enclosing[t] = new String[0];
+				}
+				byThread[t] = g;
+				groups.add(g);
+				if (groups.size() == 1) {
+					g.replay(target);
+				}
+			}
+			g.add(target, opcode, message);
+			if (g.depth == 0) {
+				byThread[t] = null;
+				// Groups that ended behind the oldest wait for it
+				while (!groups.isEmpty() && groups.peek().depth == 0) {
+					groups.poll().end(target);
+					if (!groups.isEmpty()) {
+						groups.peek().replay(target);
+					}
+				}
+			}
+		}
+		while (!groups.isEmpty()) {
+			Group g = groups.poll();
+			if (!g.replaying) {
+				g.replay(target);
+			}
+			g.end(target);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Reads every record to build the index, the templates and the thread names.
+	 * The length is cut back to the last complete record.
+	 */
+	private TraceIndex scan() throws Exception {
+		TraceIndex res = new TraceIndex();
+		OpenSteps open = new OpenSteps(new long[0][]);
+		long steps = 0;
+		long complete = position();
+		current = -1;
+		names = new ArrayList<String>();
+		try {
+			while (position() < length) {
+				long offset = position();
+				int opcode = read();
+				int thread = current;
+				String name = null;
+				if (opcode > TraceRecorder.NEW_THREAD) {
+					throw new Exception("Unknown record " + opcode + " at offset " + offset + ".");
+				} else if (opcode == TraceRecorder.DEFINE) {
+					res.getTemplates().add(template());
+				} else if (opcode == TraceRecorder.THREAD) {
+					thread = (int) varint();
+				} else if (opcode == TraceRecorder.NEW_THREAD) {
+					thread = (int) varint();
+					name = string();
+					if (thread > names.size()) {
+						throw new Exception("Thread " + thread + " is out of order at offset " + offset + ".");
+					}
+				} else if (opcode != TraceRecorder.STEP_OUT) {
+					skipMessage(res.getTemplates());
+				}
+				if (position() > length) {
+					break;
+				}
+				// Only complete records count
+				if (name != null) {
+					if (thread == names.size()) {
+						names.add(name);
+					} else {
+						names.set(thread, name);
+					}
+					if (!res.getThreads().contains(name)) {
+						res.getThreads().add(name);
+					}
+				}
+				if (thread < 0 || thread >= names.size() || names.get(thread) == null) {
+					throw new Exception("Record of an unknown thread at offset " + offset + ".");
+				}
+				current = thread;
+				if (opcode == TraceRecorder.STEP_IN) {
+					if (steps % TraceRecorder.INDEX_INTERVAL == 0) {
+						res.add(steps, offset, current, names.toArray(new String[0]), open.getAll());
+					}
+					open.push(current, offset);
+					steps++;
+				} else if (opcode == TraceRecorder.STEP_OUT) {
+					open.pop(current);
+				}
+				complete = position();
+			}
+		} catch (EOFException e) {
+			// The recorder stopped in the middle of a record
+		}
+		length = complete;
+		res.setStepCount(steps);
+		res.setNumbersUsed(names.size());
+		return res;
+	}
+
+	/**
+	 * Returns the thread of the record just read.
+	 */
+	private int thread() throws Exception {
+		if (current < 0 || current >= names.size() || names.get(current) == null) {
+			throw new Exception("Record of an unknown thread at offset " + (position() - 1) + ".");
+		}
+		return current;
+	}
+
+	/**
+	 * Skips the rest of a record, following the thread records.
+	 */
+	private void skip(int opcode) throws Exception {
+		if (opcode == TraceRecorder.DEFINE) {
+			template();
+		} else if (opcode == TraceRecorder.THREAD) {
+			current = (int) varint();
+		} else if (opcode == TraceRecorder.NEW_THREAD) {
+			current = (int) varint();
+			String name = string();
+			while (names.size() <= current) {
+				names.add(null);
+			}
+			names.set(current, name);
+		} else if (opcode != TraceRecorder.STEP_OUT) {
+			skipMessage(templates);
+		}
+	}
+
+	private String[] template() throws IOException {
+		String[] parts = new String[(int) varint()];
+		for (int i = 0; i < parts.length; i++) {
+			parts[i] = string();
+		}
+		return parts;
+	}
+
+	private String string() throws IOException {
+		byte[] bytes = new byte[(int) varint()];
+		for (int j = 0; j < bytes.length; j++) {
+			bytes[j] = (byte) read();
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Reads a template index and its arguments and rebuilds the message.
+	 */
+	private String message() throws Exception {
+		String[] parts = template(templates);
+		StringBuilder sb = new StringBuilder(parts[0]);
+		for (int i = 1; i < parts.length; i++) {
+			long arg = varint();
+			if ((arg & 1) == 0) {
+				sb.append(arg >>> 1);
+			} else {
+				byte[] magnitude = new byte[(int) (arg >>> 1)];
+				for (int j = 0; j < magnitude.length; j++) {
+					magnitude[j] = (byte) read();
+				}
+				sb.append(new BigInteger(1, magnitude));
+			}
+			sb.append(parts[i]);
+		}
+		return sb.toString();
+	}
+
+	private void skipMessage(List<String[]> known) throws IOException {
+		String[] parts = template(known);
+		for (int i = 1; i < parts.length; i++) {
+			long arg = varint();
+			if ((arg & 1) != 0) {
+				seek(position() + (arg >>> 1));
+			}
+		}
+	}
+
+	private String[] template(List<String[]> known) throws IOException {
+		long id = varint();
+		if (id >= known.size()) {
+			throw new IOException("Undefined template " + id + " at offset " + position() + ".");
+		}
+		return known.get((int) id);
+	}
+
+	private long position() {
+		return windowStart + window.position();
+	}
+
+	private void seek(long offset) {
+		windowStart = offset;
+		window.clear().limit(0);
+	}
+
+	private int read() throws IOException {
+		if (!window.hasRemaining()) {
+			windowStart = position();
+			window.clear();
+			while (window.hasRemaining()) {
+				if (channel.read(window, windowStart + window.position()) < 0) {
+					break;
+				}
+			}
+			window.flip();
+			if (!window.hasRemaining()) {
+				throw new EOFException();
+			}
+		}
+		return window.get() & 0xFF;
+	}
+
+	private long varint() throws IOException {
+		long value = 0;
+		for (int shift = 0;; shift += 7) {
+			int b = read();
+			value |= (long) (b & 0x7F) << shift;
+			if (b < 0x80) {
+				return value;
+			}
+		}
+	}
+}
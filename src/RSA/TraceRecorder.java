@@ -0,0 +1,513 @@
+package RSA;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.function.Supplier;
+
+/**
+ * A trace that records to a file for {@link TraceReader} to replay later. Each
+ * message is split into a template, the text between its numbers, and the
+ * numbers themselves. A template is written once and later messages refer to it
+ * by index and only write their numbers as varints, so the thousands of near
+ * identical messages of a prime search take a few bytes each.
+ *
+ * Unlike the other traces this one may be written by many threads at once, so
+ * it can be installed as {@link Util#globalLog} on a server. Every thread has
+ * its own position in the trace: its steps are nested in each other and never
+ * in the steps of another thread. A thread formats and encodes its records
+ * itself and only takes a lock to append the finished record, and full buffers
+ * are written through a {@link FileChannel} by a background thread. A sparse
+ * index of every {@link #INDEX_INTERVAL}th step is written next to the trace on
+ * {@link #close()} so a reader can seek without scanning the file.
+ *
+ * A thread is given a number while it has steps open and gives it back when it
+ * steps out of its last one, so the numbers, and the open steps kept for the
+ * index, grow with the threads writing at once and not with the threads of a
+ * pool that come and go over the life of a server.
+ *
+ * Format: "PJTR" || version || records. A record is an opcode followed by
+ * DEFINE: part count, then each part as length || UTF-8; STEP_IN, LOG, APPEND:
+ * template index, then one argument per gap between parts; STEP_OUT: nothing;
+ * THREAD: a thread number; NEW_THREAD: a thread number then the name of the
+ * thread it now belongs to as length || UTF-8. The two thread records say
+ * which thread the records after them belong to, a number given back is given
+ * to the next thread that writes. An argument is a varint holding value * 2 for
+ * numbers below 2^62, or length * 2 + 1 followed by the big endian magnitude
+ * for larger ones.
+ */
+public class TraceRecorder implements Trace, AutoCloseable {
+
+	public static final int INDEX_INTERVAL = 4096;
+	static final byte[] MAGIC = { 'P', 'J', 'T', 'R' };
+	static final byte[] INDEX_MAGIC = { 'P', 'J', 'T', 'I' };
+	static final byte VERSION = 3;
+	static final int DEFINE = 0;
+	static final int STEP_IN = 1;
+	static final int LOG = 2;
+	static final int APPEND = 3;
+	static final int STEP_OUT = 4;
+	static final int THREAD = 5;
+	static final int NEW_THREAD = 6;
+	static final String INDEX_SUFFIX = ".idx";
+	// Longer digit runs are written as magnitudes
+	private static final int MAX_LONG_DIGITS = 18;
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final int BUFFERS = 4;
+	private static final long[] NO_STEPS = new long[0];
+
+	private final Path path;
+	private final FileChannel channel;
+	private final ArrayBlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<ByteBuffer>(BUFFERS);
+	private final ArrayBlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<ByteBuffer>(BUFFERS);
+	private final Thread writer;
+	private volatile IOException failure;
+	private volatile boolean closed;
+	private final ThreadLocal<Writer> writers = ThreadLocal.withInitial(Writer::new);
+
+	// Everything below is guarded by this
+	private ByteBuffer buffer;
+	private final HashMap<List<String>, Integer> templateIds = new HashMap<List<String>, Integer>();
+	private final List<List<String>> templates = new ArrayList<List<String>>();
+	// The writer holding each thread number, null while it is free
+	private final List<Writer> threads = new ArrayList<Writer>();
+	// The name each thread number was last given, and every distinct name
+	private final List<String> numberNames = new ArrayList<String>();
+	private final LinkedHashSet<String> names = new LinkedHashSet<String>();
+	// The thread of the last record appended
+	private int lastThread = -1;
+	// Scratch space for the record being appended
+	private byte[] record = new byte[256];
+	private int recordLength;
+	// Bytes emitted so far, the offset of the next record
+	private long position;
+	private long steps;
+	private final TraceIndex index = new TraceIndex();
+
+	/**
+	 * The state of one writing thread. The message is split and its arguments
+	 * encoded by the thread itself, its open steps are only touched while
+	 * appending.
+	 */
+	private static class Writer {
+		// -1 while the thread has no steps open
+		private int number = -1;
+		private final List<String> parts = new ArrayList<String>();
+		private final List<String> numbers = new ArrayList<String>();
+		private byte[] args = new byte[64];
+		private int argsLength;
+		// Offsets of the steps that are open
+		private long[] open = new long[16];
+		private int depth;
+
+		private void varint(long value) {
+			while ((value & ~0x7FL) != 0) {
+				arg((byte) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			arg((byte) value);
+		}
+
+		private void arg(int b) {
+			if (argsLength == args.length) {
+				args = Arrays.copyOf(args, argsLength * 2);
+			}
+			args[argsLength++] = (byte) b;
+		}
+	}
+
+	/**
+	 * Creates or truncates a trace file and starts the background writer.
+	 *
+	 * @param path The trace file, the index is written to path + ".idx"
+	 * @throws IOException Thrown if the file cannot be opened
+	 */
+	public TraceRecorder(Path path) throws IOException {
+		this.path = path;
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		for (int i = 0; i < BUFFERS - 1; i++) {
+			free.add(ByteBuffer.allocateDirect(BUFFER_SIZE));
+		}
+		buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		writer = new Thread(this::write, "trace-writer");
+		writer.setDaemon(true);
+		writer.start();
+		buffer.put(MAGIC).put(VERSION);
+		position = buffer.position();
+	}
+
+	@Override
+	public boolean isActive() {
+		return !closed;
+	}
+
+	/**
+	 * A trace file is not protected like a key store, so secrets are written as
+	 * {@link Trace#REDACTED}.
+	 */
+	@Override
+	public boolean showsSecrets() {
+		return false;
+	}
+
+	@Override
+	public void stepIn(Supplier<String> message) {
+		if (!closed) {
+			Writer w = writers.get();
+			encode(w, message.get());
+			append(w, STEP_IN);
+		}
+	}
+
+	@Override
+	public void log(Supplier<String> message) {
+		if (!closed) {
+			Writer w = writers.get();
+			encode(w, message.get());
+			append(w, LOG);
+		}
+	}
+
+	@Override
+	public void appendToCurrent(Supplier<String> message) {
+		if (!closed) {
+			Writer w = writers.get();
+			encode(w, message.get());
+			append(w, APPEND);
+		}
+	}
+
+	@Override
+	public void stepOut() {
+		if (!closed) {
+			append(writers.get(), STEP_OUT);
+		}
+	}
+
+	/**
+	 * Returns the number of steps recorded so far by all threads.
+	 *
+	 * @return The number of steps
+	 */
+	public synchronized long getStepCount() {
+		return steps;
+	}
+
+	/**
+	 * Hands the buffered records to the background writer without waiting for
+	 * them to reach the file.
+	 *
+	 * @throws IOException Thrown if the writer failed
+	 */
+	public synchronized void flush() throws IOException {
+		if (!closed && buffer.position() > 0) {
+			handOff();
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Writes everything recorded and the index, then closes the file. Records
+	 * made by other threads after this are dropped.
+	 *
+	 * @throws IOException Thrown if the trace or its index could not be written
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			if (buffer.position() > 0) {
+				handOff();
+			}
+			// An empty buffer tells the writer to stop
+			buffer.clear().flip();
+			full.put(buffer);
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while closing the trace.", e);
+		} finally {
+			channel.close();
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		index.write(path.resolveSibling(path.getFileName() + INDEX_SUFFIX), position, steps, templates,
+				new ArrayList<String>(names), threads.size());
+	}
+
+	/**
+	 * Splits message into a template and its numbers and encodes the numbers as
+	 * the arguments of the record.
+	 */
+	private static void encode(Writer w, String message) {
+		split(message, w.parts, w.numbers);
+		w.argsLength = 0;
+		for (String number : w.numbers) {
+			if (number.length() <= MAX_LONG_DIGITS) {
+				w.varint(Long.parseLong(number) << 1);
+			} else {
+				byte[] magnitude = new BigInteger(number).toByteArray();
+				int skip = magnitude[0] == 0 ? 1 : 0;
+				w.varint(((long) (magnitude.length - skip) << 1) | 1);
+				for (int i = skip; i < magnitude.length; i++) {
+					w.arg(magnitude[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Appends a record of w, preceded by the records naming its thread and
+	 * defining its template if they are needed. The thread number is given back
+	 * once w has no steps open.
+	 */
+	private synchronized void append(Writer w, int opcode) {
+		if (closed) {
+			return;
+		}
+		recordLength = 0;
+		if (w.number < 0) {
+			number(w);
+		} else if (w.number != lastThread) {
+			record(THREAD);
+			varint(w.number);
+		}
+		lastThread = w.number;
+		if (opcode == STEP_OUT) {
+			if (w.depth > 0) {
+				w.depth--;
+			}
+			record(STEP_OUT);
+		} else {
+			encodeRecord(w, opcode);
+		}
+		emit();
+		if (w.depth == 0) {
+			threads.set(w.number, null);
+			w.number = -1;
+		}
+	}
+
+	/**
+	 * Gives w a free thread number, preferring one last held by a thread of the
+	 * same name since switching to it then needs no name.
+	 */
+	private void number(Writer w) {
+		String name = Thread.currentThread().getName();
+		int number = -1;
+		for (int i = 0; i < threads.size(); i++) {
+			if (threads.get(i) == null && (number < 0 || name.equals(numberNames.get(i)))) {
+				number = i;
+				if (name.equals(numberNames.get(i))) {
+					break;
+				}
+			}
+		}
+		if (number < 0) {
+			number = threads.size();
+			threads.add(null);
+			numberNames.add(null);
+		}
+		threads.set(number, w);
+		w.number = number;
+		if (!name.equals(numberNames.get(number))) {
+			numberNames.set(number, name);
+			names.add(name);
+			record(NEW_THREAD);
+			varint(number);
+			bytes(name.getBytes(StandardCharsets.UTF_8));
+		} else if (number != lastThread) {
+			record(THREAD);
+			varint(number);
+		}
+	}
+
+	/**
+	 * Adds the record of a message to the scratch record, defining its template
+	 * first if it is new.
+	 */
+	private void encodeRecord(Writer w, int opcode) {
+		Integer id = templateIds.get(w.parts);
+		if (id == null) {
+			List<String> template = new ArrayList<String>(w.parts);
+			id = templates.size();
+			templates.add(template);
+			templateIds.put(template, id);
+			record(DEFINE);
+			varint(template.size());
+			for (String part : template) {
+				bytes(part.getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		if (opcode == STEP_IN) {
+			if (steps % INDEX_INTERVAL == 0) {
+				// Only threads that have a number can have steps open
+				long[][] open = new long[threads.size()][];
+				for (int i = 0; i < open.length; i++) {
+					Writer t = threads.get(i);
+					open[i] = t == null ? NO_STEPS : Arrays.copyOf(t.open, t.depth);
+				}
+				index.add(steps, position, w.number, numberNames.toArray(new String[0]), open);
+			}
+			if (w.depth == w.open.length) {
+				w.open = Arrays.copyOf(w.open, w.depth * 2);
+			}
+			w.open[w.depth++] = position + recordLength;
+			steps++;
+		}
+		record(opcode);
+		varint(id);
+		while (record.length < recordLength + w.argsLength) {
+			record = Arrays.copyOf(record, record.length * 2);
+		}
+		System.arraycopy(w.args, 0, record, recordLength, w.argsLength);
+		recordLength += w.argsLength;
+	}
+
+	/**
+	 * Fills parts with the text around the numbers of message and numbers with the
+	 * numbers. Digit runs with a leading zero stay text so they come back
+	 * unchanged.
+	 */
+	private static void split(String message, List<String> parts, List<String> numbers) {
+		parts.clear();
+		numbers.clear();
+		int literalStart = 0;
+		int i = 0;
+		int length = message.length();
+		while (i < length) {
+			char c = message.charAt(i);
+			if (c < '0' || c > '9') {
+				i++;
+				continue;
+			}
+			int end = i + 1;
+			while (end < length && message.charAt(end) >= '0' && message.charAt(end) <= '9') {
+				end++;
+			}
+			if (c != '0' || end == i + 1) {
+				parts.add(message.substring(literalStart, i));
+				numbers.add(message.substring(i, end));
+				literalStart = end;
+			}
+			i = end;
+		}
+		parts.add(message.substring(literalStart));
+	}
+
+	private void varint(long value) {
+		while ((value & ~0x7FL) != 0) {
+			record((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		record((byte) value);
+	}
+
+	private void record(int b) {
+		if (recordLength == record.length) {
+			record = Arrays.copyOf(record, recordLength * 2);
+		}
+		record[recordLength++] = (byte) b;
+	}
+
+	/**
+	 * Adds length || bytes to the record.
+	 */
+	private void bytes(byte[] bytes) {
+		varint(bytes.length);
+		while (record.length < recordLength + bytes.length) {
+			record = Arrays.copyOf(record, record.length * 2);
+		}
+		System.arraycopy(bytes, 0, record, recordLength, bytes.length);
+		recordLength += bytes.length;
+	}
+
+	/**
+	 * Copies the record into the buffers, handing each full buffer to the writer.
+	 */
+	private void emit() {
+		int offset = 0;
+		while (offset < recordLength) {
+			int n = Math.min(buffer.remaining(), recordLength - offset);
+			buffer.put(record, offset, n);
+			offset += n;
+			if (!buffer.hasRemaining()) {
+				handOff();
+			}
+		}
+		position += recordLength;
+	}
+
+	/**
+	 * Queues the current buffer and takes a free one, waiting if the writer is
+	 * behind. An interruption does not lose records, it is kept for the caller.
+	 */
+	private void handOff() {
+		buffer.flip();
+		boolean interrupted = false;
+		while (true) {
+			try {
+				full.put(buffer);
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		while (true) {
+			try {
+				buffer = free.take();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * The background writer.
+	 */
+	private void write() {
+		while (true) {
+			ByteBuffer next;
+			try {
+				next = full.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (!next.hasRemaining()) {
+				return;
+			}
+			try {
+				if (failure == null) {
+					while (next.hasRemaining()) {
+						channel.write(next);
+					}
+				}
+			} catch (IOException e) {
+				failure = e;
+			}
+			next.clear();
+			free.add(next);
+		}
+	}
+}
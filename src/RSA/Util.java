@@ -1,17 +1,17 @@
 package RSA;
 
 import java.math.BigInteger;
-import java.util.Random;
-import java.util.concurrent.ThreadLocalRandom;
-
-import ui.StepTreeView;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
 
 public class Util {
 
 	private static final char[] HEX_ARRAY = "0123456789ABCDEF".toCharArray();
-	private static final int PRIMALITY_CHECK_ITERATIONS = 50;
-	public static StepTreeView primeLog = new StepTreeView("Prime Checker Log");
-	public static StepTreeView globalLog = new StepTreeView("Global Log");
+	public static PrimalityTest primalityTest = new MillerRabin();
+	public static RandomSource random = new BufferedRandom();
+	public static Trace primeLog = Trace.NONE;
+	public static Trace globalLog = Trace.NONE;
 
 	/**
 	 * Returns a random prime BigInteger of size bits. The first and second bits are
@@ -21,15 +21,48 @@ public class Util {
 	 * @return A random prime BigInteger of size bits
 	 */
 	public static BigInteger randomPrime(int bits) {
-		globalLog.stepIn("randomPrime(" + bits + ")");
+		return randomPrime(bits, () -> false, globalLog, primeLog);
+	}
+
+	/**
+	 * Returns a random prime BigInteger of size bits, checking between candidates
+	 * whether the search should stop. Searches off the thread that owns
+	 * {@link #globalLog} pass traces of their own.
+	 * 
+	 * @param bits      The size of the prime BigInteger that will be returned
+	 * @param cancelled Returns true once the search should stop
+	 * @param globalLog The trace for the overall steps
+	 * @param primeLog  The trace for the individual trials
+	 * @return A random prime BigInteger of size bits
+	 * @throws CancellationException Thrown if cancelled returned true before a
+	 *                               prime was found
+	 */
+	public static BigInteger randomPrime(int bits, BooleanSupplier cancelled, Trace globalLog, Trace primeLog) {
+		globalLog.stepIn(() -> "randomPrime(" + bits + ")");
+		// Large candidates go through the small prime sieve first
+		PrimeSieve sieve = bits >= PrimeSieve.MIN_BITS ? new PrimeSieve(bits) : null;
 		BigInteger prime;
+		long rejected = -1;
 		// Generate random number and repeat if it is not prime
 		do {
+			if (cancelled.getAsBoolean()) {
+				globalLog.appendToCurrent(() -> ": cancelled");
+				globalLog.stepOut();
+				throw new CancellationException("randomPrime(" + bits + ") was cancelled.");
+			}
 			// Make sure the number is odd since we know even numbers other than 2 are not
 			// prime
-			prime = randomBigInteger(bits).setBit(0);
-		} while (!isPrime(prime));
-		globalLog.appendToCurrent(": " + prime.toString());
+			prime = sieve != null ? sieve.next() : randomBigInteger(bits).setBit(0);
+			rejected++;
+		} while (!isPrime(prime, globalLog, primeLog));
+		if (sieve != null) {
+			long sieved = sieve.getSieved();
+			globalLog.log(() -> "Candidates rejected by the sieve: " + sieved);
+			rejected += sieved;
+		}
+		Metrics.record(Metrics.PRIME_REJECTED, bits, rejected);
+		BigInteger result = prime;
+		globalLog.appendToCurrent(() -> ": " + globalLog.secret(result::toString));
 		globalLog.stepOut();
 		return prime;
 	}
@@ -41,131 +74,79 @@ public class Util {
 	 * @return A random BigInteger of size bits
 	 */
 	public static BigInteger randomBigInteger(int bits) {
-		BigInteger res = new BigInteger(bits, new Random()).setBit(bits - 1).setBit(bits - 2);
+		byte[] bytes = new byte[(bits + 7) / 8];
+		random.nextBytes(bytes);
+		// Clear the bits above the requested size
+		bytes[0] &= (byte) (0xFF >>> (bytes.length * 8 - bits));
+		BigInteger res = new BigInteger(1, bytes).setBit(bits - 1).setBit(bits - 2);
 		return res;
 	}
 
 	/**
-	 * Returns true if there is a very high chance that n is a prime number. Source:
-	 * http://home.sandiego.edu/~dhoffoss/teaching/cryptography/10-Rabin-Miller.pdf
+	 * Returns true if there is a very high chance that n is a prime number. Large
+	 * numbers are checked with {@link #primalityTest}.
 	 * 
 	 * @param n Some BigInteger to be tested
 	 * @return If n is probably a prime number
 	 */
 	public static boolean isPrime(BigInteger n) {
-		globalLog.stepIn("isPrime(" + n.toString() + ")");
-		primeLog.stepIn("isPrime(" + n.toString() + ")");
-		// Use some other function if n is sufficiently small (n<=10^10)
-		if (n.compareTo(BigInteger.valueOf(10000000000l)) <= 0) {
-			primeLog.log("The number " + n.toString() + " is small enough to be checked normally.");
-			return isPrime(n.longValue());
-		} else if (!n.testBit(0)) {
-			primeLog.log("The number " + n.toString() + " is even so it is composite.");
-			return false;
-		}
-		primeLog.log(
-				"The number " + n.toString() + "is too large and will be checked with Rabin Miller primality test.");
-
-		// Find values to the equation n=2^s*m where s is as large as possible
-		int s = 0;
-		// Find out how many times we can divide (n-1) by 2
-		BigInteger nMinusOne = n.subtract(BigInteger.ONE);
-		while (!nMinusOne.testBit(s)) {
-			s++;
-		}
-		// Find k by calculating n>>s
-		BigInteger m = nMinusOne.shiftRight(s);
-		primeLog.log(n.toString() + " - 1 = 2^" + s + " * " + m.toString());
-
-		int prime = 0;
-		int composite = 0;
-
-		// Check to see if n is prime using base a
-		long maxValue = n.bitLength() > 63 ? Long.MAX_VALUE : n.longValue();
-		for (int i = 0; i < PRIMALITY_CHECK_ITERATIONS; i++) {
-			primeLog.stepIn("Trial " + i);
-			BigInteger a = BigInteger.valueOf(randomLong(2, maxValue - 2));
-			primeLog.log("Checking if n is prime using a=" + a.toString() + ".");
-			// First iteration is a^m % n
-			BigInteger res = a.modPow(m, n);
-			primeLog.log("a^m % n = " + res.toString());
-			// On first iteration if |a^m mod n| = 1 then say it is prime
-			if (res.equals(BigInteger.ONE) || res.equals(nMinusOne)) {
-				primeLog.log("We can declare that " + n.toString() + " is prime.");
-				primeLog.stepOut();
-				prime++;
-				continue;
-			}
-			boolean flag = false;
-			for (int j = 1; !flag && j < s; j++) {
-				res = res.modPow(BigInteger.valueOf(2), n);
-				primeLog.log("a^(2^" + j + " * m) % n = " + res.toString());
-				if (res.equals(BigInteger.ONE)) {
-					// If a^[(2^j)*m] % n = 1 then we say is is composite
-					primeLog.log("We can declare that " + n.toString() + " is composite.");
-					composite++;
-					flag = true;
-				} else if (res.equals(nMinusOne)) {
-					primeLog.log("We can declare that " + n.toString() + " is prime.");
-					// If a^[(2^j)*m] % n = -1 then we say is is prime
-					prime++;
-					flag = true;
-				}
-			}
-			if (!flag) {
-				primeLog.log("We can declare that " + n.toString() + " is composite.");
-				composite++;
-			}
-			primeLog.stepOut();
-		}
-		primeLog.log("Out of " + (prime + composite) + " trials, " + prime + " trials claimed n was prime.");
-		primeLog.log("n is prime: " + (prime > composite));
-		globalLog.appendToCurrent(": " + (prime > composite));
-		globalLog.stepOut();
-		primeLog.appendToCurrent(": " + (prime > composite));
-		return prime > composite;
+		return isPrime(n, globalLog, primeLog);
 	}
 
 	/**
-	 * Returns true if n is prime. Precondition: n <= 10^10 so the code actually
-	 * runs in time.
+	 * Returns true if there is a very high chance that n is a prime number, tracing
+	 * the test into the given logs instead of {@link #globalLog} and
+	 * {@link #primeLog}.
 	 * 
-	 * @param n The number n
-	 * @return If n is a prime number
+	 * @param n         Some BigInteger to be tested
+	 * @param globalLog The trace for the overall steps
+	 * @param primeLog  The trace for the individual trials
+	 * @return If n is probably a prime number
 	 */
-	private static boolean isPrime(long n) {
-		boolean isPrime = true;
-		if (n < 2) {
-			isPrime = false;
-		} else if (n == 2) {
-			isPrime = true;
-		} else if (n % 2l == 1) {
-			isPrime = false;
-			primeLog.log(n + " is divisible by 2");
+	public static boolean isPrime(BigInteger n, Trace globalLog, Trace primeLog) {
+		globalLog.stepIn(() -> "isPrime(" + globalLog.secret(n::toString) + ")");
+		primeLog.stepIn(() -> "isPrime(" + n.toString() + ")");
+		// Use some other function if n is sufficiently small (n<2^63)
+		if (n.bitLength() < 64) {
+			primeLog.log(() -> "The number " + n.toString() + " is small enough to be checked normally.");
+			return isPrime(n.longValue(), globalLog, primeLog);
 		}
-		// Check n against all odd numbers greater than 2
-		for (int i = 3; isPrime && i * i <= n; i += 2) {
-			// If n is divisible by i then n is not prime
-			if (n % i == 0) {
-				primeLog.log(n + " is divisible by " + i);
-				isPrime = false;
-			}
+		boolean result;
+		if (!n.testBit(0)) {
+			primeLog.log(() -> "The number " + n.toString() + " is even so it is composite.");
+			result = false;
+		} else {
+			primeLog.log(() -> "The number " + n.toString() + " is too large and will be checked with "
+					+ primalityTest.getClass().getSimpleName() + ".");
+			result = primalityTest.isProbablePrime(n, primeLog);
 		}
-		globalLog.appendToCurrent(": " + isPrime);
+		primeLog.log(() -> "n is prime: " + result);
+		globalLog.appendToCurrent(() -> ": " + result);
 		globalLog.stepOut();
-		primeLog.appendToCurrent(": " + isPrime);
-		return isPrime;
+		primeLog.appendToCurrent(() -> ": " + result);
+		return result;
 	}
 
 	/**
-	 * Returns a random long in [lower, upper).
+	 * Returns true if n is prime. The answer is exact for every non negative long.
 	 * 
-	 * @param lower lower bound
-	 * @param upper upper bound
-	 * @return A pseudo-random long in [lower, upper)
+	 * @param n         The number n
+	 * @param globalLog The trace for the overall steps
+	 * @param primeLog  The trace for the individual trials
+	 * @return If n is a prime number
 	 */
-	private static long randomLong(long lower, long upper) {
-		return ThreadLocalRandom.current().nextLong(lower, upper);
+	private static boolean isPrime(long n, Trace globalLog, Trace primeLog) {
+		if (n < MillerRabin.SMALL_PRIME_LIMIT) {
+			primeLog.log(() -> n + " is looked up in the small prime table.");
+		} else {
+			primeLog.log(() -> n + " is checked with deterministic Miller Rabin using bases "
+					+ Arrays.toString(MillerRabin.LONG_BASES) + ".");
+		}
+		boolean result = MillerRabin.isPrime(n);
+		globalLog.appendToCurrent(() -> ": " + result);
+		globalLog.stepOut();
+		primeLog.appendToCurrent(() -> ": " + result);
+		return result;
 	}
 
 	/**
@@ -225,4 +206,25 @@ public class Util {
 		}
 		return res;
 	}
+
+	/**
+	 * Converts a non negative BigInteger to an octet stream primitive. Unlike
+	 * {@link BigInteger#toByteArray()} the result always has the given length, so
+	 * leading 0x00 bytes are kept and no sign byte is added.
+	 * 
+	 * @param value  The number to convert to OSP
+	 * @param length The length of the OSP
+	 * @return The OSP corresponding to value
+	 * @throws Exception Thrown if value does not fit in length bytes
+	 */
+	public static byte[] I2OSP(BigInteger value, int length) throws Exception {
+		if (value.signum() < 0 || value.bitLength() > length * 8) {
+			throw new Exception("Value too large for " + length + " bytes");
+		}
+		byte[] bytes = value.toByteArray();
+		byte[] res = new byte[length];
+		int copy = Math.min(bytes.length, length);
+		System.arraycopy(bytes, bytes.length - copy, res, length - copy, copy);
+		return res;
+	}
 }
@@ -1,13 +1,74 @@
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.lang.management.ManagementFactory;
 import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import RSA.BailliePSW;
+import RSA.BatchRSA;
+import RSA.BufferedRandom;
+import RSA.DeterministicRandom;
+import RSA.Histogram;
+import RSA.HybridEncryption;
+import RSA.KeyFile;
+import RSA.KeyPool;
+import RSA.Metrics;
+import RSA.MillerRabin;
+import RSA.Montgomery;
+import RSA.OAEP;
+import RSA.OAEPParameters;
+import RSA.PKCS1;
+import RSA.PrimalityTest;
+import RSA.PrimeSearch;
+import RSA.PrimeSieve;
 import RSA.RSA;
+import RSA.RSAAsync;
+import RSA.RSABatch;
+import RSA.RSAException;
+import RSA.RSAKeyContext;
+import RSA.RSAKeyStore;
+import RSA.RSAPrivateCrtKey;
+import RSA.RandomSource;
+import RSA.Trace;
+import RSA.TraceReader;
+import RSA.TraceRecorder;
 import RSA.Util;
+import cli.RecordPipeline;
+import server.LoadClient;
+import server.RSAClient;
+import server.RSAServer;
+import ui.StepStore;
 
 class RSATest {
 
@@ -15,6 +76,10 @@ class RSATest {
 	public void isPrimeTest() {
 		assertTrue(Util.isPrime(new BigInteger("104513")));
 		assertTrue(Util.isPrime(new BigInteger("7")));
+		assertTrue(Util.isPrime(new BigInteger("9223372036854775783")));
+		assertFalse(Util.isPrime(new BigInteger("3825123056546413051")));
+		assertFalse(Util.isPrime(new BigInteger("104512")));
+		assertFalse(Util.isPrime(BigInteger.ONE));
 		assertTrue(Util.isPrime(new BigInteger("269432034627817064305613273322054264967")));
 	}
 
@@ -35,7 +100,7 @@ class RSATest {
 		BigInteger totientN = (p.subtract(BigInteger.ONE)).multiply(q.subtract(BigInteger.ONE));
 		BigInteger e = Util.randomBigInteger(16);
 		// Make sure that e and m are relatively prime
-		if (!e.gcd(totientN).equals(BigInteger.ONE)) {
+		while (!e.gcd(totientN).equals(BigInteger.ONE)) {
 			e = e.divide(e.gcd(totientN));
 		}
 		BigInteger d = e.modInverse(totientN);
@@ -57,4 +122,941 @@ class RSATest {
 		byte[] res = Util.toAscii(hexString);
 		assertArrayEquals(arr, res);
 	}
+
+	@Test
+	public void crtDecryptTest() throws Exception {
+		BigInteger p = Util.randomPrime(256);
+		BigInteger q = Util.randomPrime(256);
+		BigInteger e = BigInteger.valueOf(65537);
+		RSAPrivateCrtKey key = RSAPrivateCrtKey.fromPrimes(p, q, e);
+		byte[] data = "some message".getBytes();
+		byte[] cypherText = RSA.encrypt(data, key.getModulus(), e);
+		assertArrayEquals(data, RSA.decrypt(cypherText, key));
+		assertArrayEquals(RSA.decrypt(cypherText, key.getModulus(), key.getPrivateExponent()),
+				RSA.decrypt(cypherText, key));
+	}
+
+	@Test
+	public void keyContextTest() throws Exception {
+		BigInteger p = Util.randomPrime(256);
+		BigInteger q = Util.randomPrime(256);
+		BigInteger e = BigInteger.valueOf(65537);
+		RSAPrivateCrtKey key = RSAPrivateCrtKey.fromPrimes(p, q, e);
+		RSAKeyContext publicContext = new RSAKeyContext(key.getModulus(), e);
+		RSAKeyContext privateContext = new RSAKeyContext(key.getModulus(), key.getPrivateExponent());
+		RSAKeyContext crtContext = new RSAKeyContext(key);
+		assertEquals(key.getModulus().bitLength(), publicContext.getBitLength());
+		byte[] data = "some message".getBytes();
+		byte[] cypherText = RSA.encrypt(data, publicContext);
+		assertArrayEquals(data, RSA.decrypt(cypherText, privateContext));
+		assertArrayEquals(data, RSA.decrypt(cypherText, crtContext));
+		assertThrows(Exception.class, () -> new RSAKeyContext(BigInteger.ZERO, e));
+	}
+
+	@Test
+	public void montgomeryModPowTest() {
+		Random random = new Random(315);
+		for (int bits : new int[] { 1024, 2048, 3072, 4096 }) {
+			BigInteger n = new BigInteger(bits, random).setBit(bits - 1).setBit(0);
+			Montgomery engine = new Montgomery(n);
+			BigInteger base = new BigInteger(bits - 1, random);
+			BigInteger exponent = new BigInteger(bits, random);
+			assertEquals(base.modPow(exponent, n), engine.modPow(base, Montgomery.toLimbs(exponent)));
+			assertEquals(BigInteger.ONE, engine.modPow(base, Montgomery.toLimbs(BigInteger.ZERO)));
+		}
+	}
+
+	@Test
+	public void traceTest() {
+		List<String> messages = new ArrayList<>();
+		Util.primeLog = new Trace() {
+			public boolean isActive() {
+				return true;
+			}
+
+			public void stepIn(Supplier<String> message) {
+				messages.add(message.get());
+			}
+
+			public void log(Supplier<String> message) {
+				messages.add(message.get());
+			}
+
+			public void appendToCurrent(Supplier<String> message) {
+				messages.add(message.get());
+			}
+
+			public void stepOut() {
+			}
+		};
+		try {
+			Util.isPrime(new BigInteger("269432034627817064305613273322054264967"));
+		} finally {
+			Util.primeLog = Trace.NONE;
+		}
+		assertEquals("isPrime(269432034627817064305613273322054264967)", messages.get(0));
+		assertEquals(": true", messages.get(messages.size() - 1));
+	}
+
+	@Test
+	public void primeSearchTest() throws Exception {
+		BigInteger prime = new PrimeSearch(256).get();
+		assertEquals(256, prime.bitLength());
+		assertTrue(Util.isPrime(prime), prime.toString());
+
+		PrimeSearch search = new PrimeSearch(4096, 2, ForkJoinPool.commonPool());
+		assertTrue(search.cancel());
+		assertThrows(CancellationException.class, () -> search.get());
+		assertThrows(TimeoutException.class,
+				() -> new PrimeSearch(8192, 1, ForkJoinPool.commonPool()).get(1, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void primeSieveTest() {
+		PrimeSieve sieve = new PrimeSieve(512);
+		for (int i = 0; i < 100; i++) {
+			BigInteger candidate = sieve.next();
+			assertEquals(512, candidate.bitLength());
+			for (int p : new int[] { 2, 3, 5, 7, 11, 13, 8191, 16381 }) {
+				assertTrue(candidate.mod(BigInteger.valueOf(p)).signum() != 0, candidate.toString());
+			}
+		}
+		assertTrue(sieve.getSieved() > 0);
+	}
+
+	@Test
+	public void primalityTestTest() {
+		BigInteger mersenne = BigInteger.ONE.shiftLeft(521).subtract(BigInteger.ONE);
+		// A strong pseudoprime to every prime base up to 23
+		BigInteger pseudoprime = new BigInteger("3825123056546413051");
+		BigInteger semiprime = Util.randomPrime(128).multiply(Util.randomPrime(128));
+		for (PrimalityTest test : new PrimalityTest[] { new MillerRabin(), new MillerRabin(1), new BailliePSW() }) {
+			assertTrue(test.isProbablePrime(mersenne, Trace.NONE));
+			assertTrue(test.isProbablePrime(new BigInteger("269432034627817064305613273322054264967"), Trace.NONE));
+			assertFalse(test.isProbablePrime(semiprime, Trace.NONE));
+		}
+		assertFalse(new BailliePSW().isProbablePrime(pseudoprime, Trace.NONE));
+		assertFalse(new BailliePSW().isProbablePrime(mersenne.multiply(mersenne), Trace.NONE));
+		assertEquals(5, MillerRabin.roundsFor(1024));
+		assertEquals(4, MillerRabin.roundsFor(2048));
+	}
+
+	@Test
+	public void batchTest() throws Exception {
+		RSAPrivateCrtKey key = RSAPrivateCrtKey.fromPrimes(Util.randomPrime(256), Util.randomPrime(256),
+				BigInteger.valueOf(65537));
+		RSAKeyContext publicContext = new RSAKeyContext(key.getModulus(), key.getPublicExponent());
+		RSAKeyContext privateContext = new RSAKeyContext(key);
+		List<byte[]> messages = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			messages.add(("message " + i).getBytes());
+		}
+		// Too large for the key
+		messages.add(new byte[100]);
+		messages.get(100)[0] = 1;
+		byte[][] cypherTexts = new byte[messages.size()][];
+		RSABatch.Result result = RSABatch.encrypt(messages, cypherTexts, publicContext);
+		assertEquals(1, result.getFailureCount());
+		assertFalse(result.isSuccess(100));
+		byte[][] plainTexts = new byte[100][];
+		assertEquals(0, RSABatch.decrypt(Arrays.asList(cypherTexts).subList(0, 100), plainTexts, privateContext)
+				.getFailureCount());
+		for (int i = 0; i < 100; i++) {
+			assertArrayEquals(messages.get(i), plainTexts[i]);
+		}
+
+		int blockSize = publicContext.getByteLength();
+		ByteBuffer blocks = ByteBuffer.allocate(20 * blockSize);
+		for (int i = 0; i < 20; i++) {
+			blocks.put(i * blockSize + blockSize - 1, (byte) i);
+		}
+		ByteBuffer encrypted = ByteBuffer.allocate(blocks.capacity());
+		assertEquals(0, RSABatch.encrypt(blocks, encrypted, publicContext).getFailureCount());
+		encrypted.flip();
+		ByteBuffer decrypted = ByteBuffer.allocateDirect(blocks.capacity());
+		assertEquals(0, RSABatch.decrypt(encrypted, decrypted, privateContext).getFailureCount());
+		decrypted.flip();
+		assertEquals(blocks, decrypted);
+	}
+
+	@Test
+	public void hybridEncryptionTest(@TempDir Path dir) throws Exception {
+		RSAPrivateCrtKey key = RSAPrivateCrtKey.fromPrimes(Util.randomPrime(512), Util.randomPrime(512),
+				BigInteger.valueOf(65537));
+		RSAKeyContext publicContext = new RSAKeyContext(key.getModulus(), key.getPublicExponent());
+		RSAKeyContext privateContext = new RSAKeyContext(key);
+		Random random = new Random(10);
+		for (int size : new int[] { 0, 1000, 4000, 123457 }) {
+			byte[] data = new byte[size];
+			random.nextBytes(data);
+			Path plain = dir.resolve("plain");
+			Path sealed = dir.resolve("sealed");
+			Path opened = dir.resolve("opened");
+			Files.write(plain, data);
+			try (FileChannel in = FileChannel.open(plain, StandardOpenOption.READ);
+					FileChannel out = FileChannel.open(sealed, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+							StandardOpenOption.TRUNCATE_EXISTING)) {
+				HybridEncryption.encrypt(in, out, publicContext, 1000);
+			}
+			HybridEncryption.decrypt(sealed, opened, privateContext);
+			assertArrayEquals(data, Files.readAllBytes(opened));
+
+			// Dropping the last chunk must be detected
+			byte[] truncated = Files.readAllBytes(sealed);
+			if (size > 1000) {
+				int lastChunk = size % 1000 == 0 ? 1016 : size % 1000 + 16;
+				Files.write(sealed, Arrays.copyOf(truncated, truncated.length - lastChunk));
+				assertThrows(Exception.class, () -> HybridEncryption.decrypt(sealed, opened, privateContext));
+				assertFalse(Files.exists(opened));
+			}
+		}
+	}
+
+	@Test
+	public void oaepBufferTest() throws Exception {
+		byte[] data = "some message".getBytes();
+		ByteBuffer padded = ByteBuffer.allocateDirect(128);
+		OAEP.pad(ByteBuffer.wrap(data), padded, 1024);
+		assertEquals(128, padded.position());
+		padded.flip();
+		byte[] paddedArray = new byte[128];
+		padded.duplicate().get(paddedArray);
+		assertArrayEquals(data, OAEP.unpad(paddedArray, 1024));
+
+		ByteBuffer unpadded = ByteBuffer.allocate(128);
+		assertEquals(data.length, OAEP.unpad(ByteBuffer.wrap(OAEP.pad(data, 1024)), unpadded, 1024));
+		assertArrayEquals(data, Arrays.copyOf(unpadded.array(), data.length));
+
+		paddedArray[40] ^= 1;
+		assertThrows(Exception.class,
+				() -> OAEP.unpad(ByteBuffer.wrap(paddedArray), ByteBuffer.allocate(128), 1024));
+		assertThrows(Exception.class, () -> OAEP.pad(ByteBuffer.allocate(100), ByteBuffer.allocate(128), 1024));
+	}
+
+	@Test
+	public void randomSourceTest() throws Exception {
+		byte[] data = "some message".getBytes();
+		assertArrayEquals(OAEP.pad(data, 1024, 42), OAEP.pad(data, 1024, 42));
+		assertFalse(Arrays.equals(OAEP.pad(data, 1024, 42), OAEP.pad(data, 1024, 43)));
+		assertFalse(Arrays.equals(OAEP.pad(data, 1024), OAEP.pad(data, 1024)));
+
+		byte[] a = new byte[10000];
+		byte[] b = new byte[10000];
+		RandomSource random = new BufferedRandom(100);
+		random.nextBytes(a);
+		random.nextBytes(b, 1, 9998);
+		assertFalse(Arrays.equals(a, b));
+		for (int bits = 16; bits < 80; bits++) {
+			assertEquals(bits, Util.randomBigInteger(bits).bitLength());
+		}
+	}
+
+	@Test
+	public void oaepErrorTest() throws Exception {
+		byte[] labelHash = MessageDigest.getInstance("SHA-1").digest();
+		byte[] db = new byte[128 - 20 - 1];
+		System.arraycopy(labelHash, 0, db, 0, 20);
+		db[db.length - 3] = 1;
+		db[db.length - 1] = 7;
+		assertArrayEquals(new byte[] { 0, 7 }, OAEP.unpad(oaepBlock(db), 1024));
+		List<byte[]> invalid = new ArrayList<byte[]>();
+		byte[] block = oaepBlock(db);
+		block[0] = 1;
+		invalid.add(block);
+		byte[] wrongLabel = db.clone();
+		wrongLabel[19] ^= 1;
+		invalid.add(oaepBlock(wrongLabel));
+		byte[] wrongSeparator = db.clone();
+		wrongSeparator[db.length - 3] = 2;
+		invalid.add(oaepBlock(wrongSeparator));
+		byte[] noSeparator = db.clone();
+		Arrays.fill(noSeparator, 20, noSeparator.length, (byte) 0);
+		invalid.add(oaepBlock(noSeparator));
+		// Every invalid padding fails the same way on both paths
+		for (byte[] padded : invalid) {
+			assertEquals("Decryption error", assertThrows(Exception.class, () -> OAEP.unpad(padded, 1024)).getMessage());
+			assertEquals("Decryption error", assertThrows(Exception.class,
+					() -> OAEP.unpad(ByteBuffer.wrap(padded), ByteBuffer.allocate(128), 1024)).getMessage());
+		}
+	}
+
+	/**
+	 * Masks an SHA-1 OAEP data block with an all zero seed.
+	 */
+	private static byte[] oaepBlock(byte[] db) throws Exception {
+		MessageDigest md = MessageDigest.getInstance("SHA-1");
+		byte[] em = new byte[1 + 20 + db.length];
+		byte[] dbMask = OAEP.maskGenerator(new byte[20], db.length, md);
+		for (int i = 0; i < db.length; i++) {
+			em[21 + i] = (byte) (db[i] ^ dbMask[i]);
+		}
+		byte[] seedMask = OAEP.maskGenerator(Arrays.copyOfRange(em, 21, em.length), 20, md);
+		System.arraycopy(seedMask, 0, em, 1, 20);
+		return em;
+	}
+
+	@Test
+	public void oaepParametersTest() throws Exception {
+		byte[] data = "some message".getBytes();
+		OAEPParameters params = OAEPParameters.SHA256.withLabel("label".getBytes());
+		byte[] padded = OAEP.pad(data, 2048, params, Util.random);
+		assertArrayEquals(data, OAEP.unpad(padded, 2048, params));
+		assertThrows(Exception.class, () -> OAEP.unpad(padded, 2048, OAEPParameters.SHA256));
+
+		// SHA-512 masks span several digest blocks and use the primed digest
+		ByteBuffer buffer = ByteBuffer.allocate(256);
+		OAEP.pad(ByteBuffer.wrap(data), buffer, 2048, OAEPParameters.SHA512);
+		buffer.flip();
+		ByteBuffer unpadded = ByteBuffer.allocate(256);
+		assertEquals(data.length, OAEP.unpad(buffer, unpadded, 2048, OAEPParameters.SHA512));
+		assertArrayEquals(data, Arrays.copyOf(unpadded.array(), data.length));
+
+		assertArrayEquals(OAEP.pad(data, 1024, 42),
+				OAEP.pad(data, 1024, OAEPParameters.SHA1, new DeterministicRandom(42)));
+		assertThrows(IllegalArgumentException.class, () -> new OAEPParameters("MD1", "SHA-1", new byte[0]));
+	}
+
+	@Test
+	public void batchRSATest() throws Exception {
+		long[] exponents = { 3, 5, 7, 11 };
+		BigInteger p, q;
+		BatchRSA batch = null;
+		while (batch == null) {
+			p = Util.randomPrime(256);
+			q = Util.randomPrime(256);
+			try {
+				batch = new BatchRSA(p, q, exponents);
+			} catch (Exception e) {
+				// (p-1)(q-1) shares a factor with an exponent, try again
+			}
+		}
+		byte[][] cypherTexts = new byte[exponents.length][];
+		for (int i = 0; i < exponents.length; i++) {
+			RSAPrivateCrtKey key = batch.getKey(i);
+			cypherTexts[i] = RSA.encrypt(("message " + i).getBytes(), key.getModulus(), key.getPublicExponent());
+		}
+		byte[][] plainTexts = batch.decrypt(cypherTexts);
+		for (int i = 0; i < exponents.length; i++) {
+			assertArrayEquals(("message " + i).getBytes(), plainTexts[i]);
+		}
+		cypherTexts[1] = null;
+		cypherTexts[3] = new byte[] { 0 };
+		plainTexts = batch.decrypt(cypherTexts);
+		assertArrayEquals("message 0".getBytes(), plainTexts[0]);
+		assertEquals(null, plainTexts[1]);
+		assertArrayEquals("message 2".getBytes(), plainTexts[2]);
+		assertArrayEquals(new byte[] { 0 }, plainTexts[3]);
+		BigInteger n = batch.getModulus();
+		assertThrows(Exception.class, () -> new BatchRSA(n, n.add(BigInteger.TWO), new long[] { 3, 9 }));
+	}
+
+	@Test
+	public void keyPoolTest() throws Exception {
+		try (KeyPool pool = new KeyPool(BigInteger.valueOf(65537), 2, 4, 2)) {
+			assertThrows(IllegalArgumentException.class, () -> pool.take(8));
+			List<BigInteger> moduli = new ArrayList<BigInteger>();
+			for (int i = 0; i < 10; i++) {
+				RSAPrivateCrtKey key = pool.take(128);
+				assertEquals(key.getP().multiply(key.getQ()), key.getModulus());
+				assertEquals(BigInteger.ONE,
+						key.getPublicExponent().multiply(key.getPrivateExponent()).mod(key.getP().subtract(BigInteger.ONE)));
+				assertFalse(moduli.contains(key.getModulus()));
+				// p and q are drawn independently, not from neighbouring candidates
+				assertTrue(key.getP().subtract(key.getQ()).abs().bitLength() > 128 - 32);
+				moduli.add(key.getModulus());
+			}
+			KeyPool.Stats stats = pool.getStats(128);
+			assertEquals(10, stats.getHits() + stats.getMisses());
+			assertTrue(stats.getGenerated() >= 10);
+			assertTrue(stats.getDepth() <= 4);
+		}
+		assertThrows(IllegalArgumentException.class, () -> new KeyPool(3, 3));
+	}
+
+	@Test
+	public void keyPoolFailureTest() throws Exception {
+		PrimalityTest previous = Util.primalityTest;
+		CountDownLatch stalled = new CountDownLatch(1);
+		try {
+			// The workers cannot finish a key until the latch opens
+			Util.primalityTest = (n, trace) -> {
+				try {
+					stalled.await();
+				} catch (InterruptedException e) {
+					// Closing the pool interrupts the worker
+				}
+				return false;
+			};
+			KeyPool pool = new KeyPool(BigInteger.valueOf(65537), 0, 1, 1);
+			CompletableFuture<IllegalStateException> waiting = CompletableFuture
+					.supplyAsync(() -> assertThrows(IllegalStateException.class, () -> pool.take(128)));
+			while (pool.getStats(128).getMisses() == 0) {
+				Thread.sleep(1);
+			}
+			pool.close();
+			assertEquals("The key pool is closed.", waiting.get(10, TimeUnit.SECONDS).getMessage());
+			assertThrows(IllegalStateException.class, () -> pool.take(64));
+			assertThrows(IllegalStateException.class, () -> pool.take(64, 1, TimeUnit.SECONDS));
+			// A failed worker is rethrown to every taker instead of being lost
+			Util.primalityTest = (n, trace) -> {
+				throw new ArithmeticException("broken");
+			};
+			try (KeyPool failing = new KeyPool(BigInteger.valueOf(65537), 0, 1, 1)) {
+				IllegalStateException e = assertThrows(IllegalStateException.class, () -> failing.take(128));
+				assertEquals("broken", e.getCause().getMessage());
+				assertThrows(IllegalStateException.class, () -> failing.take(128, 1, TimeUnit.SECONDS));
+			}
+		} finally {
+			Util.primalityTest = previous;
+			stalled.countDown();
+		}
+	}
+
+	@Test
+	public void pkcs1Test(@TempDir Path dir) throws Exception {
+		RSAPrivateCrtKey key = RSAPrivateCrtKey.fromPrimes(Util.randomPrime(512), Util.randomPrime(512),
+				BigInteger.valueOf(65537));
+		byte[] der = PKCS1.encodePrivateKey(key);
+		RSAPrivateCrtKey decoded = PKCS1.decodePrivateKey(ByteBuffer.wrap(der));
+		assertEquals(key.getModulus(), decoded.getModulus());
+		assertEquals(key.getPrivateExponent(), decoded.getPrivateExponent());
+		assertEquals(key.getQInv(), decoded.getQInv());
+		String pem = PKCS1.toPem(PKCS1.PRIVATE_KEY_LABEL, der);
+		assertArrayEquals(der, PKCS1.fromPem(PKCS1.PRIVATE_KEY_LABEL, pem));
+		assertThrows(Exception.class, () -> PKCS1.fromPem(PKCS1.PUBLIC_KEY_LABEL, pem));
+		assertThrows(Exception.class, () -> PKCS1.decodePublicKey(ByteBuffer.wrap(der)));
+
+		byte[] publicDer = PKCS1.encodePublicKey(key.getModulus(), key.getPublicExponent());
+		Path file = dir.resolve("keys.der");
+		Files.write(file, publicDer);
+		Files.write(file, der, StandardOpenOption.APPEND);
+		Files.write(file, publicDer, StandardOpenOption.APPEND);
+		KeyFile keys = new KeyFile(file);
+		assertEquals(3, keys.size());
+		assertFalse(keys.isPrivate(0));
+		assertTrue(keys.isPrivate(1));
+		assertEquals(key.getModulus(), keys.getPublicKey(2).getModulus());
+		assertEquals(key.getDQ(), keys.getPrivateKey(1).getDQ());
+		byte[] data = "some message".getBytes();
+		assertArrayEquals(data, RSA.decrypt(RSA.encrypt(data, keys.getPublicKey(0)),
+				new RSAKeyContext(keys.getPrivateKey(1))));
+
+		Files.write(file, Arrays.copyOf(der, der.length - 1));
+		assertThrows(Exception.class, () -> new KeyFile(file));
+
+		// A key with a faulty dP would decrypt correctly mod q only, revealing q
+		byte[] dP = key.getDP().toByteArray();
+		byte[] wrong = der.clone();
+		for (int i = 0; i + dP.length <= der.length; i++) {
+			if (Arrays.equals(dP, 0, dP.length, der, i, i + dP.length)) {
+				wrong[i + dP.length - 1] ^= 2;
+				break;
+			}
+		}
+		Exception e = assertThrows(Exception.class, () -> PKCS1.decodePrivateKey(ByteBuffer.wrap(wrong)));
+		assertEquals("The CRT exponents do not match the private exponent.", e.getMessage());
+	}
+
+	@Test
+	public void keyStoreTest(@TempDir Path dir) throws Exception {
+		Path file = dir.resolve("keys.store");
+		RSAPrivateCrtKey key = RSAPrivateCrtKey.fromPrimes(Util.randomPrime(256), Util.randomPrime(256),
+				BigInteger.valueOf(65537));
+		List<BigInteger> moduli = new ArrayList<BigInteger>();
+		byte[] fingerprint;
+		try (RSAKeyStore store = new RSAKeyStore(file, 4)) {
+			fingerprint = store.put(key.getModulus(), key.getPublicExponent());
+			assertEquals(null, store.getPrivateKey(fingerprint));
+			assertEquals(fingerprint.length, store.put(key).length);
+			// Enough keys to grow the index past its initial size
+			for (int i = 0; i < 2000; i++) {
+				BigInteger modulus = Util.randomBigInteger(512).setBit(0);
+				moduli.add(modulus);
+				store.put(modulus, BigInteger.valueOf(65537));
+			}
+			assertEquals(2001, store.size());
+			RSAKeyContext context = store.getContext(fingerprint);
+			assertTrue(context.isCrt());
+			assertTrue(context == store.getContext(fingerprint));
+		}
+		try (RSAKeyStore store = new RSAKeyStore(file, 4)) {
+			assertEquals(2001, store.size());
+			assertEquals(key.getQInv(), store.getPrivateKey(fingerprint).getQInv());
+			for (BigInteger modulus : moduli) {
+				assertEquals(modulus, store.getContext(RSAKeyStore.fingerprint(modulus)).getModulus());
+			}
+			assertFalse(store.contains(RSAKeyStore.fingerprint(BigInteger.TEN)));
+		}
+	}
+
+	@Test
+	public void metricsTest() throws Exception {
+		Histogram histogram = new Histogram("ns");
+		for (int i = 1; i <= 10000; i++) {
+			histogram.record(i);
+		}
+		assertEquals(10000, histogram.getCount());
+		assertEquals(1, histogram.getMin());
+		assertEquals(10000, histogram.getMax());
+		assertTrue(Math.abs(histogram.getPercentile50() - 5000) < 5000 / 16);
+		assertTrue(Math.abs(histogram.getPercentile99() - 9900) < 9900 / 16);
+		histogram.reset();
+		assertEquals(0, histogram.getPercentile90());
+
+		RSAPrivateCrtKey key = RSAPrivateCrtKey.fromPrimes(Util.randomPrime(256), Util.randomPrime(256),
+				BigInteger.valueOf(65537));
+		int bits = key.getModulus().bitLength();
+		byte[] data = "some message".getBytes();
+		long before = Metrics.histogram(Metrics.ENCRYPT, bits).getCount();
+		RSA.encrypt(data, key.getModulus(), key.getPublicExponent());
+		assertEquals(before, Metrics.histogram(Metrics.ENCRYPT, bits).getCount());
+		long generated = Metrics.histogram(Metrics.KEY_GENERATION, 128).getCount();
+		Metrics.setEnabled(true);
+		try {
+			RSA.encrypt(data, key.getModulus(), key.getPublicExponent());
+			Util.randomPrime(256);
+			new RSAAsync().generateKey(256, BigInteger.valueOf(65537)).get(10, TimeUnit.SECONDS);
+		} finally {
+			Metrics.setEnabled(false);
+		}
+		assertEquals(generated + 1, Metrics.histogram(Metrics.KEY_GENERATION, 128).getCount());
+		assertEquals(before + 1, Metrics.histogram(Metrics.ENCRYPT, bits).getCount());
+		assertTrue(Metrics.histogram(Metrics.PRIME_ROUNDS, 256).getCount() > 0);
+		assertEquals(1, Metrics.histogram(Metrics.PRIME_REJECTED, 256).getCount());
+		assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(Metrics.objectName(Metrics.ENCRYPT, bits)));
+	}
+
+	@Test
+	public void recordPipelineTest() throws Exception {
+		int[] next = { 0 };
+		List<byte[]> output = new ArrayList<byte[]>();
+		RecordPipeline.Stats stats = RecordPipeline.run(() -> next[0] < 1000 ? Util.I2OSP(next[0]++, 4) : null,
+				record -> {
+					// Uneven work so records finish out of order
+					Thread.sleep(record[3] & 3);
+					return Util.toAscii(Util.toHex(record));
+				}, output::add, 8);
+		assertEquals(1000, stats.getRecords());
+		assertEquals(4000, stats.getBytesOut());
+		for (int i = 0; i < 1000; i++) {
+			assertArrayEquals(Util.I2OSP(i, 4), output.get(i));
+		}
+		next[0] = 0;
+		Exception e = assertThrows(Exception.class, () -> RecordPipeline.run(
+				() -> next[0] < 100 ? Util.I2OSP(next[0]++, 4) : null, record -> {
+					if (record[3] == 42) {
+						throw new Exception("bad record");
+					}
+					return record;
+				}, record -> {
+				}, 4));
+		assertEquals("Record 42: bad record", e.getMessage());
+	}
+
+	@Test
+	public void serverTest(@TempDir Path dir) throws Exception {
+		RSAPrivateCrtKey key = RSAPrivateCrtKey.fromPrimes(Util.randomPrime(256), Util.randomPrime(256),
+				BigInteger.valueOf(65537));
+		try (RSAKeyStore store = new RSAKeyStore(dir.resolve("keys.store"), 4);
+				RSAServer server = new RSAServer(store, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+						16, 8, 2)) {
+			byte[] fingerprint = store.put(key);
+			RSAKeyContext publicKey = new RSAKeyContext(key.getModulus(), key.getPublicExponent());
+			Histogram latency = LoadClient.run(server.getAddress(), publicKey, 8, 50, 20);
+			assertEquals(400, latency.getCount());
+			assertTrue(latency.getPercentile50() <= latency.getPercentile99());
+			try (RSAClient client = new RSAClient(server.getAddress())) {
+				byte[] oaep = oaepCypherText(new byte[] { 42 }, publicKey);
+				assertArrayEquals(new byte[] { 42 }, client.call(RSAServer.DECRYPT_OAEP, fingerprint, oaep));
+				Exception e = assertThrows(Exception.class,
+						() -> client.call(RSAServer.DECRYPT_OAEP, RSAKeyStore.fingerprint(BigInteger.TEN), oaep));
+				assertEquals("No private key with this fingerprint", e.getMessage());
+				// A raw decryption would hand back the padded block
+				e = assertThrows(Exception.class, () -> client.call((byte) 1, fingerprint, oaep));
+				assertEquals("Unknown operation 1", e.getMessage());
+				// The connection is still usable after a failed request, padding errors
+				// all look the same
+				byte[] cypherText = new BigInteger(1, new byte[] { 42 }).modPow(key.getPublicExponent(), key.getModulus())
+						.toByteArray();
+				e = assertThrows(Exception.class, () -> client.call(RSAServer.DECRYPT_OAEP, fingerprint, cypherText));
+				assertEquals(RSAServer.DECRYPTION_FAILED, e.getMessage());
+				assertArrayEquals(new byte[] { 42 }, client.call(RSAServer.DECRYPT_OAEP, fingerprint, oaep));
+			}
+			// Pipelined requests are answered after the client shuts down its output
+			try (SocketChannel channel = SocketChannel.open(server.getAddress())) {
+				byte[] cypherText = oaepCypherText(new byte[] { 7 }, publicKey);
+				int frame = 8 + 1 + RSAKeyStore.FINGERPRINT_SIZE + cypherText.length;
+				ByteBuffer requests = ByteBuffer.allocate(10 * (4 + frame));
+				for (long id = 0; id < 10; id++) {
+					requests.putInt(frame).putLong(id).put(RSAServer.DECRYPT_OAEP)
+							.put(fingerprint).put(cypherText);
+				}
+				requests.flip();
+				while (requests.hasRemaining()) {
+					channel.write(requests);
+				}
+				channel.shutdownOutput();
+				ByteBuffer response = ByteBuffer.allocate(4 + 8 + 1 + 1);
+				for (int i = 0; i < 10; i++) {
+					response.clear();
+					while (response.hasRemaining()) {
+						assertTrue(channel.read(response) >= 0);
+					}
+					response.flip();
+					assertEquals(10, response.getInt());
+					response.getLong();
+					assertEquals(RSAServer.OK, response.get());
+					assertEquals(7, response.get());
+				}
+				assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+			}
+		}
+	}
+
+	private static byte[] oaepCypherText(byte[] message, RSAKeyContext publicKey) throws Exception {
+		byte[] padded = OAEP.pad(message, publicKey.getBitLength());
+		byte[] data = new byte[padded.length + 1];
+		System.arraycopy(padded, 0, data, 1, padded.length);
+		return Util.I2OSP(new BigInteger(1, RSA.encrypt(data, publicKey)), publicKey.getByteLength());
+	}
+
+	@Test
+	public void asyncTest() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			RSAAsync async = new RSAAsync(executor);
+			RSAPrivateCrtKey key = new RSAAsync().generateKey(512, BigInteger.valueOf(65537)).get(30,
+					TimeUnit.SECONDS);
+			assertEquals(512, key.getModulus().bitLength());
+			RSAKeyContext publicKey = new RSAKeyContext(key.getModulus(), key.getPublicExponent());
+			byte[] message = "async".getBytes();
+			byte[] cypherText = async.encryptOAEP(message, publicKey).get();
+			assertArrayEquals(message, async.decryptOAEP(cypherText, new RSAKeyContext(key)).get());
+			cypherText[5] ^= 1;
+			ExecutionException e = assertThrows(ExecutionException.class,
+					() -> async.decryptOAEP(cypherText, new RSAKeyContext(key)).get());
+			assertTrue(e.getCause() instanceof RSAException.DecryptionException);
+			assertTrue(async.isPrime(BigInteger.valueOf(65537)).get());
+			// The search stops so the single thread is free for the next operation
+			CompletableFuture<BigInteger> prime = async.randomPrime(16384);
+			Thread.sleep(50);
+			assertTrue(prime.cancel(true));
+			assertTrue(async.isPrime(BigInteger.valueOf(65537)).get(10, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void stepStoreTest() {
+		StepStore store = new StepStore("root", 8, 3);
+		StepStore.Cursor c = store.newCursor();
+		store.stepIn(c, "isPrime(91)");
+		for (int i = 0; i < 5; i++) {
+			store.stepIn(c, "Trial " + i);
+			store.log(c, "a = " + i);
+			store.stepOut(c);
+		}
+		store.appendToCurrent(c, ": false");
+		store.stepOut(c);
+		// Only the last 3 trials are kept and the rest are summarised
+		int first = store.getFirstChild(StepStore.ROOT);
+		assertEquals("isPrime(91): false", store.getMessage(first));
+		assertEquals(Arrays.asList("Trial 2", "Trial 3", "Trial 4"), children(store, first));
+		assertEquals("2 more trials", store.getSummary(first));
+		assertEquals(8, store.getNodeCount());
+
+		// A full store evicts the oldest run for a new one
+		store.stepIn(c, "isPrime(93)");
+		int second = store.getFirstChild(StepStore.ROOT);
+		assertEquals(Arrays.asList("isPrime(93)"), children(store, StepStore.ROOT));
+		assertEquals("1 more isPrime calls", store.getSummary(StepStore.ROOT));
+		for (int i = 0; i < 6; i++) {
+			store.stepIn(c, "Check " + i);
+		}
+		assertEquals(8, store.getNodeCount());
+		// but never the run being written, so the next step is only counted
+		store.stepIn(c, "Check 6");
+		store.log(c, "dropped");
+		store.stepOut(c);
+		assertEquals(8, store.getNodeCount());
+		int deepest = second;
+		for (int i = 0; i < 6; i++) {
+			deepest = store.getFirstChild(deepest);
+		}
+		assertEquals("Check 5", store.getMessage(deepest));
+		assertEquals("1 more checks", store.getSummary(deepest));
+		assertEquals(null, store.getSummary(second));
+
+		// Another writer at the root evicts that run, leaving the first writer stale
+		StepStore.Cursor other = store.newCursor();
+		store.stepIn(other, "Generating");
+		store.log(other, "p");
+		store.stepOut(other);
+		assertEquals(Arrays.asList("Generating"), children(store, StepStore.ROOT));
+		assertEquals("2 more isPrime calls", store.getSummary(StepStore.ROOT));
+		store.log(c, "lost");
+		store.appendToCurrent(c, "lost");
+		store.stepIn(c, "Check 7");
+		store.stepOut(c);
+		assertEquals(3, store.getNodeCount());
+		// Once back at a step that still exists it writes again
+		for (int i = 0; i < 7; i++) {
+			store.stepOut(c);
+		}
+		store.log(c, "done");
+		assertEquals(Arrays.asList("Generating", "done"), children(store, StepStore.ROOT));
+		assertEquals(Arrays.asList("p"), children(store, store.getFirstChild(StepStore.ROOT)));
+
+		store.reset("new root");
+		assertEquals(1, store.getNodeCount());
+		assertEquals("new root", store.getMessage(StepStore.ROOT));
+		assertEquals(null, store.getSummary(StepStore.ROOT));
+		assertThrows(IllegalArgumentException.class, () -> new StepStore("root", 1, 1));
+	}
+
+	private static List<String> children(StepStore store, int slot) {
+		List<String> res = new ArrayList<String>();
+		for (int child = store.getFirstChild(slot); child != StepStore.NONE; child = store.getNextSibling(child)) {
+			res.add(store.getMessage(child));
+		}
+		assertEquals(res.size(), store.getChildCount(slot));
+		return res;
+	}
+
+	@Test
+	public void traceRecordingTest(@TempDir Path dir) throws Exception {
+		Path file = dir.resolve("run.trace");
+		List<String> expected = new ArrayList<>();
+		try (TraceRecorder recorder = new TraceRecorder(file)) {
+			writeTrace(recorder);
+			writeTrace(eventTrace(expected));
+			assertEquals(10003, recorder.getStepCount());
+		}
+		List<String> replayed = new ArrayList<>();
+		try (TraceReader reader = new TraceReader(file)) {
+			assertEquals(10003, reader.getStepCount());
+			reader.replay(eventTrace(replayed));
+			assertEquals(expected, replayed);
+			// Step 9002 is the first trial of candidate 4500, indexed steps are trials
+			replayed.clear();
+			reader.replay(eventTrace(replayed), 9002, 1);
+			assertEquals(Arrays.asList("in randomPrime(100)",
+					"in isPrime(" + BigInteger.ONE.shiftLeft(100).add(BigInteger.valueOf(9001)) + ")", "in Trial 0",
+					"log a = 007", "out", "out", "out"), replayed);
+		}
+		assertTrue(Files.size(file) * 4 < String.join("", expected).length());
+		// Without the index the file is scanned on open
+		Files.delete(dir.resolve("run.trace.idx"));
+		try (TraceReader reader = new TraceReader(file)) {
+			assertEquals(10003, reader.getStepCount());
+			List<String> scanned = new ArrayList<>();
+			reader.replay(eventTrace(scanned), 9002, 1);
+			assertEquals(replayed, scanned);
+		}
+	}
+
+	@Test
+	public void concurrentTraceRecordingTest(@TempDir Path dir) throws Exception {
+		Path file = dir.resolve("threads.trace");
+		List<String> expected = new ArrayList<>();
+		writeTrace(eventTrace(expected));
+		try (TraceRecorder recorder = new TraceRecorder(file)) {
+			List<Thread> writers = new ArrayList<>();
+			for (int i = 0; i < 4; i++) {
+				Thread writer = new Thread(() -> writeTrace(recorder), "writer-" + i);
+				writers.add(writer);
+				writer.start();
+			}
+			for (Thread writer : writers) {
+				writer.join();
+			}
+			assertEquals(4 * 10003, recorder.getStepCount());
+		}
+		List<String> ranges = new ArrayList<>();
+		try (TraceReader reader = new TraceReader(file)) {
+			assertEquals(4, reader.getThreads().size());
+			List<String> replayed = new ArrayList<>();
+			reader.replay(eventTrace(replayed));
+			// Every thread gets a tree of its own holding exactly what it wrote
+			Map<String, List<String>> threads = byThread(replayed);
+			assertEquals(4, threads.size());
+			for (int i = 0; i < 4; i++) {
+				assertEquals(expected, threads.get("writer-" + i));
+			}
+			for (long step : new long[] { 4095, 4096, 20000, 40011 }) {
+				List<String> range = new ArrayList<>();
+				reader.replay(eventTrace(range), step, 3);
+				assertFalse(byThread(range).isEmpty());
+				ranges.addAll(range);
+			}
+		}
+		// Seeking without the index gives the same ranges
+		Files.delete(dir.resolve("threads.trace.idx"));
+		try (TraceReader reader = new TraceReader(file)) {
+			List<String> scanned = new ArrayList<>();
+			for (long step : new long[] { 4095, 4096, 20000, 40011 }) {
+				reader.replay(eventTrace(scanned), step, 3);
+			}
+			assertEquals(ranges, scanned);
+		}
+	}
+
+	@Test
+	public void shortLivedTraceThreadsTest(@TempDir Path dir) throws Exception {
+		Path file = dir.resolve("pool.trace");
+		try (TraceRecorder recorder = new TraceRecorder(file)) {
+			recorder.stepIn(() -> "Serving");
+			// Like the threads of a pool, one at a time next to the serving thread
+			for (int i = 0; i < 500; i++) {
+				int request = i;
+				Thread worker = new Thread(() -> {
+					recorder.stepIn(() -> "Request " + request);
+					for (int j = 0; j < 9; j++) {
+						int part = j;
+						recorder.stepIn(() -> "Part " + part);
+						recorder.stepOut();
+					}
+					recorder.stepOut();
+				}, "worker-" + i);
+				worker.start();
+				worker.join();
+			}
+			recorder.stepOut();
+		}
+		List<String> expected = Arrays.asList("in Thread 1: worker-409", "in Request 409", "in Part 4", "out", "out",
+				"out");
+		try (TraceReader reader = new TraceReader(file)) {
+			assertEquals(5001, reader.getStepCount());
+			assertEquals(501, reader.getThreads().size());
+			List<String> replayed = new ArrayList<>();
+			reader.replay(eventTrace(replayed));
+			// The workers share one thread number and each gets a tree of its own
+			Map<String, List<String>> threads = byThread(replayed);
+			assertEquals(501, threads.size());
+			assertEquals(Arrays.asList("in Serving", "out"), threads.get(Thread.currentThread().getName()));
+			for (String event : replayed) {
+				assertTrue(!event.startsWith("in Thread ") || event.startsWith("in Thread 0: ")
+						|| event.startsWith("in Thread 1: "), event);
+			}
+			List<String> range = new ArrayList<>();
+			reader.replay(eventTrace(range), 4096, 1);
+			assertEquals(expected, range);
+		}
+		Files.delete(dir.resolve("pool.trace.idx"));
+		try (TraceReader reader = new TraceReader(file)) {
+			List<String> range = new ArrayList<>();
+			reader.replay(eventTrace(range), 4096, 1);
+			assertEquals(expected, range);
+		}
+	}
+
+	@Test
+	public void redactedTraceTest(@TempDir Path dir) throws Exception {
+		RSAPrivateCrtKey key = RSAPrivateCrtKey.fromPrimes(Util.randomPrime(256), Util.randomPrime(256),
+				BigInteger.valueOf(65537));
+		byte[] message = "a secret message".getBytes();
+		Path file = dir.resolve("secret.trace");
+		List<String> shown = new ArrayList<>();
+		Trace previous = Util.globalLog;
+		try (TraceRecorder recorder = new TraceRecorder(file)) {
+			for (Trace trace : new Trace[] { eventTrace(shown), recorder }) {
+				Util.globalLog = trace;
+				byte[] padded = OAEP.pad(message, 512);
+				byte[] data = new byte[padded.length + 1];
+				System.arraycopy(padded, 0, data, 1, padded.length);
+				byte[] decrypted = RSA.decrypt(RSA.encrypt(data, key.getModulus(), key.getPublicExponent()), key);
+				assertArrayEquals(message, OAEP.unpad(Util.I2OSP(new BigInteger(1, decrypted), 64), 512));
+			}
+		} finally {
+			Util.globalLog = previous;
+		}
+		List<String> recorded = new ArrayList<>();
+		try (TraceReader reader = new TraceReader(file)) {
+			reader.replay(eventTrace(recorded));
+		}
+		// The same steps, only the secrets are left out
+		assertEquals(shown.size(), recorded.size());
+		String hex = Util.toHex(message);
+		assertTrue(String.join("\n", shown).contains(hex));
+		assertTrue(String.join("\n", shown).contains(key.getP().toString()));
+		for (String event : recorded) {
+			assertFalse(event.contains(hex), event);
+			assertFalse(event.contains(key.getP().toString()), event);
+			assertFalse(event.contains(key.getQ().toString()), event);
+		}
+		assertTrue(recorded.contains("log Random Seed: " + Trace.REDACTED));
+	}
+
+	/**
+	 * Splits replayed events into the trees of each thread, checking that every
+	 * step is ended.
+	 */
+	private static Map<String, List<String>> byThread(List<String> events) {
+		Map<String, List<String>> res = new HashMap<>();
+		List<String> thread = null;
+		int depth = 0;
+		for (String event : events) {
+			if (depth == 0) {
+				assertTrue(event.startsWith("in Thread "));
+				thread = new ArrayList<>();
+				assertEquals(null, res.put(event.substring(event.indexOf(": ") + 2), thread));
+				depth++;
+				continue;
+			}
+			depth += event.startsWith("in ") ? 1 : event.equals("out") ? -1 : 0;
+			if (depth > 0) {
+				thread.add(event);
+			}
+		}
+		assertEquals(0, depth);
+		return res;
+	}
+
+	/**
+	 * Writes a prime search over 5000 candidates, each with one trial except
+	 * candidate 4500, the prime, which has 3.
+	 */
+	private static void writeTrace(Trace trace) {
+		trace.stepIn(() -> "randomPrime(100)");
+		for (int c = 0; c < 5000; c++) {
+			BigInteger candidate = BigInteger.ONE.shiftLeft(100).add(BigInteger.valueOf(2 * c + 1));
+			boolean prime = c == 4500;
+			trace.stepIn(() -> "isPrime(" + candidate + ")");
+			trace.log(() -> "Checked with Miller Rabin \u2713");
+			for (int trial = 0; trial < (prime ? 3 : 1); trial++) {
+				int t = trial;
+				trace.stepIn(() -> "Trial " + t);
+				trace.log(() -> "a = 00" + (7 + t));
+				trace.stepOut();
+			}
+			trace.appendToCurrent(() -> ": " + prime);
+			trace.stepOut();
+		}
+		trace.stepOut();
+	}
+
+	private static Trace eventTrace(List<String> events) {
+		return new Trace() {
+			public boolean isActive() {
+				return true;
+			}
+
+			public void stepIn(Supplier<String> message) {
+				events.add("in " + message.get());
+			}
+
+			public void log(Supplier<String> message) {
+				events.add("log " + message.get());
+			}
+
+			public void appendToCurrent(Supplier<String> message) {
+				events.add("append " + message.get());
+			}
+
+			public void stepOut() {
+				events.add("out");
+			}
+		};
+	}
 }
@@ -0,0 +1,300 @@
+package cli;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+import RSA.OAEP;
+import RSA.PKCS1;
+import RSA.RSA;
+import RSA.RSAKeyContext;
+import RSA.RSAPrivateCrtKey;
+import RSA.Trace;
+import RSA.TraceRecorder;
+import RSA.Util;
+
+/**
+ * A command line entry point that needs no display. Input is streamed through
+ * {@link RecordPipeline} so large files are handled with all worker threads
+ * busy, and the throughput is reported on stderr when a command finishes.
+ */
+public class CLILaunch {
+
+	private static final String USAGE = String.join("\n", //
+			"Usage: CLILaunch <command> [options]", //
+			"", //
+			"Commands:", //
+			"  keygen      --bits N [--e 65537] [--count 1] [--out FILE]", //
+			"              Writes PKCS#1 PEM private keys with an N bit modulus.", //
+			"  encrypt     --key FILE [--oaep] [--format hex|binary] [--in FILE] [--out FILE]", //
+			"  decrypt     --key FILE [--oaep] [--format hex|binary] [--in FILE] [--out FILE]", //
+			"              Hex records are one per line. Binary records need --oaep, plain", //
+			"              text is cut into the largest records the key can pad and cypher", //
+			"              text is read in blocks of the modulus size. The key is a PEM file,", //
+			"              encrypt accepts either a public or a private key. Without --oaep a", //
+			"              hex record is a number, so leading zero bytes are not kept.", //
+			"  primecheck  [--in FILE] [--out FILE]", //
+			"              Checks one decimal (or 0x prefixed hex) number per line.", //
+			"", //
+			"Every command accepts --threads N (default: one per processor) and --trace FILE,", //
+			"which records the global log of every thread to FILE for the Trace Replay tab", //
+			"of the visualizer. The trace holds the steps, sizes and cypher texts; plain", //
+			"texts, padding seeds, primes and private exponents are written as [redacted].", //
+			"Without --in or --out stdin and stdout are used.");
+
+	public static void main(String[] args) {
+		if (args.length == 0 || args[0].equals("--help") || args[0].equals("-h")) {
+			System.out.println(USAGE);
+			return;
+		}
+		TraceRecorder recorder = null;
+		int status = 0;
+		try {
+			Map<String, String> options = parseOptions(args);
+			int threads = Integer
+					.parseInt(options.getOrDefault("threads", "" + Runtime.getRuntime().availableProcessors()));
+			if (options.containsKey("trace")) {
+				recorder = new TraceRecorder(Paths.get(options.get("trace")));
+				Util.globalLog = recorder;
+			}
+			RecordPipeline.Stats stats;
+			switch (args[0]) {
+			case "keygen":
+				stats = keygen(options, threads);
+				break;
+			case "encrypt":
+				stats = crypt(options, threads, true);
+				break;
+			case "decrypt":
+				stats = crypt(options, threads, false);
+				break;
+			case "primecheck":
+				stats = primecheck(options, threads);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown command " + args[0]);
+			}
+			stats.report(System.err);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			status = 2;
+		} catch (Exception e) {
+			System.err.println("Error: " + e.getMessage());
+			status = 1;
+		} finally {
+			// Also on failure, so the trace shows what led up to it
+			if (recorder != null) {
+				Util.globalLog = Trace.NONE;
+				try {
+					recorder.close();
+					System.err.println("Recorded " + recorder.getStepCount() + " steps");
+				} catch (IOException e) {
+					System.err.println("Error: the trace could not be written: " + e.getMessage());
+					status = 1;
+				}
+			}
+		}
+		if (status != 0) {
+			System.exit(status);
+		}
+	}
+
+	/**
+	 * Reads --name value pairs and --flag switches after the command.
+	 */
+	static Map<String, String> parseOptions(String[] args) {
+		Map<String, String> options = new HashMap<String, String>();
+		for (int i = 1; i < args.length; i++) {
+			if (!args[i].startsWith("--")) {
+				throw new IllegalArgumentException("Unexpected argument " + args[i]);
+			}
+			String name = args[i].substring(2);
+			if (name.equals("oaep")) {
+				options.put(name, "true");
+			} else if (i + 1 < args.length) {
+				options.put(name, args[++i]);
+			} else {
+				throw new IllegalArgumentException("Missing value for " + args[i]);
+			}
+		}
+		return options;
+	}
+
+	private static RecordPipeline.Stats keygen(Map<String, String> options, int threads) throws Exception {
+		int bits = Integer.parseInt(required(options, "bits"));
+		BigInteger e = new BigInteger(options.getOrDefault("e", "65537"));
+		int count = Integer.parseInt(options.getOrDefault("count", "1"));
+		if (bits < 32) {
+			throw new IllegalArgumentException("--bits should be at least 32");
+		}
+		int[] remaining = { count };
+		try (OutputStream out = output(options)) {
+			return RecordPipeline.run(() -> remaining[0]-- > 0 ? new byte[0] : null, record -> {
+				BigInteger p = keyPrime(bits / 2, e);
+				BigInteger q;
+				do {
+					q = keyPrime(bits - bits / 2, e);
+				} while (q.equals(p));
+				RSAPrivateCrtKey key = RSAPrivateCrtKey.fromPrimes(p, q, e);
+				return PKCS1.toPem(PKCS1.PRIVATE_KEY_LABEL, PKCS1.encodePrivateKey(key))
+						.getBytes(StandardCharsets.US_ASCII);
+			}, out::write, threads);
+		}
+	}
+
+	/**
+	 * Returns a random prime p of size bits where p - 1 is coprime to e.
+	 */
+	private static BigInteger keyPrime(int bits, BigInteger e) {
+		while (true) {
+			BigInteger p = Util.randomPrime(bits);
+			if (p.subtract(BigInteger.ONE).gcd(e).equals(BigInteger.ONE)) {
+				return p;
+			}
+		}
+	}
+
+	private static RecordPipeline.Stats crypt(Map<String, String> options, int threads, boolean encrypt)
+			throws Exception {
+		String pem = new String(Files.readAllBytes(Paths.get(required(options, "key"))), StandardCharsets.US_ASCII);
+		RSAKeyContext context;
+		if (pem.contains(PKCS1.PRIVATE_KEY_LABEL)) {
+			RSAPrivateCrtKey key = PKCS1
+					.decodePrivateKey(ByteBuffer.wrap(PKCS1.fromPem(PKCS1.PRIVATE_KEY_LABEL, pem)));
+			context = encrypt ? new RSAKeyContext(key.getModulus(), key.getPublicExponent()) : new RSAKeyContext(key);
+		} else if (encrypt) {
+			context = PKCS1.decodePublicKey(ByteBuffer.wrap(PKCS1.fromPem(PKCS1.PUBLIC_KEY_LABEL, pem)));
+		} else {
+			throw new IllegalArgumentException("decrypt needs a private key");
+		}
+		boolean oaep = options.containsKey("oaep");
+		String format = options.getOrDefault("format", "hex");
+		boolean binary = format.equals("binary");
+		if (!binary && !format.equals("hex")) {
+			throw new IllegalArgumentException("Unknown format " + format);
+		} else if (binary && !oaep) {
+			throw new IllegalArgumentException("Binary records need --oaep");
+		}
+		int k = context.getByteLength();
+		int keySize = context.getBitLength();
+		RecordPipeline.Transform transform = encrypt ? record -> {
+			byte[] data = oaep ? OAEP.pad(record, keySize) : unsigned(record);
+			return Util.I2OSP(new BigInteger(1, RSA.encrypt(data, context)), k);
+		} : record -> {
+			byte[] res = RSA.decrypt(unsigned(record), context);
+			if (oaep) {
+				return OAEP.unpad(Util.I2OSP(new BigInteger(1, res), keySize / 8), keySize);
+			}
+			return stripSign(res);
+		};
+		try (InputStream in = input(options); OutputStream out = output(options)) {
+			if (!binary) {
+				BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII));
+				return RecordPipeline.run(() -> nextHex(reader), transform, record -> {
+					out.write(Util.toHex(record).replace(" ", "").getBytes(StandardCharsets.US_ASCII));
+					out.write('\n');
+				}, threads);
+			}
+			// The largest message OAEP with SHA-1 can pad for this key
+			int recordSize = encrypt ? keySize / 8 - 2 * 20 - 2 : k;
+			if (recordSize <= 0) {
+				throw new IllegalArgumentException("The key is too small for OAEP");
+			}
+			return RecordPipeline.run(() -> {
+				byte[] record = in.readNBytes(recordSize);
+				if (!encrypt && record.length > 0 && record.length < recordSize) {
+					throw new IOException("The input ends with a partial block");
+				}
+				return record.length == 0 ? null : record;
+			}, transform, out::write, threads);
+		}
+	}
+
+	private static RecordPipeline.Stats primecheck(Map<String, String> options, int threads) throws Exception {
+		try (InputStream in = input(options); OutputStream out = output(options)) {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII));
+			return RecordPipeline.run(() -> {
+				String line;
+				do {
+					line = reader.readLine();
+				} while (line != null && line.isBlank());
+				return line == null ? null : line.trim().getBytes(StandardCharsets.US_ASCII);
+			}, record -> {
+				String text = new String(record, StandardCharsets.US_ASCII);
+				BigInteger n = text.startsWith("0x") ? new BigInteger(text.substring(2), 16) : new BigInteger(text);
+				if (n.signum() < 0) {
+					throw new Exception(text + " is negative");
+				}
+				return (text + (Util.isPrime(n) ? " prime\n" : " composite\n")).getBytes(StandardCharsets.US_ASCII);
+			}, out::write, threads);
+		}
+	}
+
+	private static byte[] nextHex(BufferedReader reader) throws IOException {
+		String line;
+		do {
+			line = reader.readLine();
+		} while (line != null && line.isBlank());
+		return line == null ? null : Util.toAscii(line);
+	}
+
+	/**
+	 * Adds a zero sign byte so RSA reads the record as an unsigned number.
+	 */
+	private static byte[] unsigned(byte[] record) {
+		byte[] res = new byte[record.length + 1];
+		System.arraycopy(record, 0, res, 1, record.length);
+		return res;
+	}
+
+	private static byte[] stripSign(byte[] value) {
+		if (value.length > 1 && value[0] == 0) {
+			byte[] res = new byte[value.length - 1];
+			System.arraycopy(value, 1, res, 0, res.length);
+			return res;
+		}
+		return value;
+	}
+
+	private static String required(Map<String, String> options, String name) {
+		String value = options.get(name);
+		if (value == null) {
+			throw new IllegalArgumentException("Missing --" + name);
+		}
+		return value;
+	}
+
+	private static InputStream input(Map<String, String> options) throws Exception {
+		String path = options.get("in");
+		return path == null ? new BufferedInputStream(System.in)
+				: new BufferedInputStream(Files.newInputStream(Paths.get(path)));
+	}
+
+	/**
+	 * Returns the output stream. Closing it flushes stdout without closing it.
+	 */
+	private static OutputStream output(Map<String, String> options) throws Exception {
+		String path = options.get("out");
+		if (path == null) {
+			return new BufferedOutputStream(System.out) {
+				@Override
+				public void close() throws IOException {
+					flush();
+				}
+			};
+		}
+		return new BufferedOutputStream(Files.newOutputStream(Paths.get(path)));
+	}
+}
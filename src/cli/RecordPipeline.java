@@ -0,0 +1,141 @@
+package cli;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Streams records through a transform on a pool of worker threads. Records are
+ * read and written on the calling thread in input order while up to a few
+ * records per worker are in flight, so memory use does not depend on the size
+ * of the input.
+ */
+public class RecordPipeline {
+
+	// Records in flight per worker
+	private static final int WINDOW_PER_THREAD = 4;
+
+	public interface Source {
+		/**
+		 * Returns the next record.
+		 *
+		 * @return The record, or null at the end of the input
+		 * @throws IOException Thrown if the input cannot be read
+		 */
+		byte[] next() throws IOException;
+	}
+
+	public interface Transform {
+		byte[] apply(byte[] record) throws Exception;
+	}
+
+	public interface Sink {
+		void write(byte[] record) throws IOException;
+	}
+
+	/**
+	 * The totals of one run.
+	 */
+	public static class Stats {
+		private final long records;
+		private final long bytesIn;
+		private final long bytesOut;
+		private final long nanos;
+
+		private Stats(long records, long bytesIn, long bytesOut, long nanos) {
+			this.records = records;
+			this.bytesIn = bytesIn;
+			this.bytesOut = bytesOut;
+			this.nanos = nanos;
+		}
+
+		public long getRecords() {
+			return records;
+		}
+
+		public long getBytesIn() {
+			return bytesIn;
+		}
+
+		public long getBytesOut() {
+			return bytesOut;
+		}
+
+		public long getNanos() {
+			return nanos;
+		}
+
+		/**
+		 * Prints the totals and the throughput.
+		 *
+		 * @param out The stream to print to
+		 */
+		public void report(PrintStream out) {
+			double seconds = Math.max(nanos, 1) / 1e9;
+			out.printf("%d records, %d bytes in, %d bytes out in %.3f s: %.1f records/s, %.2f MB/s in%n", records,
+					bytesIn, bytesOut, seconds, records / seconds, bytesIn / seconds / 1e6);
+		}
+	}
+
+	/**
+	 * Runs every record of source through transform and writes the results to
+	 * sink in input order. The first failing record stops the run.
+	 *
+	 * @param source    The records
+	 * @param transform The work done for each record, called on the workers
+	 * @param sink      Receives the results
+	 * @param threads   The number of workers
+	 * @return The totals of the run
+	 * @throws Exception Thrown if reading or writing fails, or the transform of a
+	 *                   record fails, with the index of the record in the message
+	 */
+	public static Stats run(Source source, Transform transform, Sink sink, int threads) throws Exception {
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least 1 worker thread is needed.");
+		}
+		long start = System.nanoTime();
+		long records = 0;
+		long bytesIn = 0;
+		long bytesOut = 0;
+		ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "record-worker");
+			t.setDaemon(true);
+			return t;
+		});
+		try {
+			ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+			int window = threads * WINDOW_PER_THREAD;
+			byte[] record;
+			while ((record = source.next()) != null) {
+				byte[] input = record;
+				bytesIn += input.length;
+				pending.add(pool.submit(() -> transform.apply(input)));
+				if (pending.size() >= window) {
+					bytesOut += write(pending.poll(), sink, records++);
+				}
+			}
+			while (!pending.isEmpty()) {
+				bytesOut += write(pending.poll(), sink, records++);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		return new Stats(records, bytesIn, bytesOut, System.nanoTime() - start);
+	}
+
+	private static int write(Future<byte[]> result, Sink sink, long index) throws Exception {
+		byte[] output;
+		try {
+			output = result.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			throw new Exception("Record " + index + ": " + cause.getMessage(), cause);
+		}
+		sink.write(output);
+		return output.length;
+	}
+}
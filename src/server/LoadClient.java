@@ -0,0 +1,141 @@
+package server;
+
+import java.io.PrintStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import RSA.Histogram;
+import RSA.OAEP;
+import RSA.PKCS1;
+import RSA.RSA;
+import RSA.RSAKeyContext;
+import RSA.RSAKeyStore;
+import RSA.RSAPrivateCrtKey;
+import RSA.Util;
+
+/**
+ * Measures the latency of {@link RSAServer} under load. Every connection runs
+ * on its own thread and sends its requests back to back. The cypher texts are
+ * made before the clock starts so only the round trips are measured, and every
+ * answer is checked against the message that was encrypted.
+ */
+public class LoadClient {
+
+	/**
+	 * Sends OAEP decryption requests and records the round trip of each.
+	 *
+	 * @param address     The address of the server
+	 * @param publicKey   The public key of a private key stored on the server
+	 * @param connections The number of concurrent connections
+	 * @param requests    The number of requests per connection
+	 * @param messageSize The size of each random message
+	 * @return The latencies in microseconds
+	 * @throws Exception Thrown if a request fails or returns the wrong message
+	 */
+	public static Histogram run(InetSocketAddress address, RSAKeyContext publicKey, int connections, int requests,
+			int messageSize) throws Exception {
+		byte[] fingerprint = RSAKeyStore.fingerprint(publicKey.getModulus());
+		int keySize = publicKey.getBitLength();
+		int k = publicKey.getByteLength();
+		// A few distinct messages are enough, the server does not cache anything
+		int distinct = Math.min(requests, 16);
+		byte[][] messages = new byte[distinct][];
+		byte[][] cypherTexts = new byte[distinct][];
+		for (int i = 0; i < distinct; i++) {
+			messages[i] = new byte[messageSize];
+			Util.random.nextBytes(messages[i], 0, messageSize);
+			byte[] padded = OAEP.pad(messages[i], keySize);
+			byte[] data = new byte[padded.length + 1];
+			System.arraycopy(padded, 0, data, 1, padded.length);
+			cypherTexts[i] = Util.I2OSP(new BigInteger(1, RSA.encrypt(data, publicKey)), k);
+		}
+		Histogram latency = new Histogram("us");
+		AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int c = 0; c < connections; c++) {
+			Thread t = new Thread(() -> {
+				try (RSAClient client = new RSAClient(address)) {
+					for (int i = 0; i < requests && failure.get() == null; i++) {
+						long start = System.nanoTime();
+						byte[] res = client.call(RSAServer.DECRYPT_OAEP, fingerprint, cypherTexts[i % distinct]);
+						latency.record((System.nanoTime() - start) / 1000);
+						if (!Arrays.equals(res, messages[i % distinct])) {
+							throw new Exception("Request " + i + " returned the wrong message.");
+						}
+					}
+				} catch (Exception e) {
+					failure.compareAndSet(null, e);
+				}
+			}, "load-client-" + c);
+			threads.add(t);
+			t.start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+		return latency;
+	}
+
+	/**
+	 * Prints the throughput and latency percentiles of a run.
+	 *
+	 * @param latency The latencies returned by
+	 *                {@link #run(InetSocketAddress, RSAKeyContext, int, int, int)}
+	 * @param nanos   The wall clock time of the run
+	 * @param out     Where to print
+	 */
+	public static void report(Histogram latency, long nanos, PrintStream out) {
+		out.printf("%d requests in %.2f s, %.0f requests/s%n", latency.getCount(), nanos / 1e9,
+				latency.getCount() * 1e9 / Math.max(nanos, 1));
+		out.printf("latency us: p50 %d, p99 %d, max %d%n", latency.getPercentile50(), latency.getPercentile99(),
+				latency.getMax());
+	}
+
+	/**
+	 * Runs a load test against a server.
+	 *
+	 * @param args --key FILE [--host localhost] [--port 7000] [--connections 16]
+	 *             [--requests 1000] [--size 32]
+	 * @throws Exception Thrown if the key cannot be read or a request fails
+	 */
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new HashMap<String, String>();
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+		}
+		if (!options.containsKey("key")) {
+			System.err.println("Usage: LoadClient --key FILE [--host localhost] [--port 7000] [--connections 16]"
+					+ " [--requests 1000] [--size 32]");
+			System.exit(2);
+		}
+		String pem = new String(Files.readAllBytes(Paths.get(options.get("key"))), StandardCharsets.US_ASCII);
+		RSAKeyContext publicKey;
+		if (pem.contains(PKCS1.PRIVATE_KEY_LABEL)) {
+			RSAPrivateCrtKey key = PKCS1
+					.decodePrivateKey(ByteBuffer.wrap(PKCS1.fromPem(PKCS1.PRIVATE_KEY_LABEL, pem)));
+			publicKey = new RSAKeyContext(key.getModulus(), key.getPublicExponent());
+		} else {
+			publicKey = PKCS1.decodePublicKey(ByteBuffer.wrap(PKCS1.fromPem(PKCS1.PUBLIC_KEY_LABEL, pem)));
+		}
+		InetSocketAddress address = new InetSocketAddress(options.getOrDefault("host", "localhost"),
+				Integer.parseInt(options.getOrDefault("port", "7000")));
+		long start = System.nanoTime();
+		Histogram latency = run(address, publicKey, Integer.parseInt(options.getOrDefault("connections", "16")),
+				Integer.parseInt(options.getOrDefault("requests", "1000")),
+				Integer.parseInt(options.getOrDefault("size", "32")));
+		report(latency, System.nanoTime() - start, System.out);
+	}
+}
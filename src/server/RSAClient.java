@@ -0,0 +1,82 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import RSA.RSAKeyStore;
+
+/**
+ * A blocking client for {@link RSAServer}. One client is one connection and
+ * sends one request at a time, so it should not be shared between threads.
+ */
+public class RSAClient implements AutoCloseable {
+
+	private final SocketChannel channel;
+	private final ByteBuffer length = ByteBuffer.allocate(4);
+	private long nextId;
+
+	/**
+	 * Connects to a server.
+	 *
+	 * @param address The address of the server
+	 * @throws IOException Thrown if the connection fails
+	 */
+	public RSAClient(InetSocketAddress address) throws IOException {
+		channel = SocketChannel.open(address);
+		channel.socket().setTcpNoDelay(true);
+	}
+
+	/**
+	 * Sends a request and waits for its response.
+	 *
+	 * @param operation   {@link RSAServer#DECRYPT_OAEP}
+	 * @param fingerprint The fingerprint of the key, see
+	 *                    {@link RSAKeyStore#fingerprint(java.math.BigInteger)}
+	 * @param data        The cypher text as an unsigned number
+	 * @return The plain text
+	 * @throws IOException Thrown if the connection fails
+	 * @throws Exception   Thrown with the message of the server if the request
+	 *                     failed
+	 */
+	public byte[] call(byte operation, byte[] fingerprint, byte[] data) throws Exception {
+		if (fingerprint.length != RSAKeyStore.FINGERPRINT_SIZE) {
+			throw new Exception("A fingerprint has " + RSAKeyStore.FINGERPRINT_SIZE + " bytes.");
+		} else if (RSAServer.REQUEST_HEADER + data.length > RSAServer.MAX_FRAME) {
+			throw new Exception("The request is larger than " + RSAServer.MAX_FRAME + " bytes.");
+		}
+		long id = nextId++;
+		ByteBuffer request = ByteBuffer.allocate(4 + RSAServer.REQUEST_HEADER + data.length);
+		request.putInt(RSAServer.REQUEST_HEADER + data.length).putLong(id).put(operation).put(fingerprint).put(data)
+				.flip();
+		while (request.hasRemaining()) {
+			channel.write(request);
+		}
+		length.clear();
+		RSAServer.readFully(channel, length);
+		int size = length.flip().getInt();
+		if (size < 9 || size > RSAServer.MAX_FRAME) {
+			throw new IOException("Invalid frame length " + size);
+		}
+		ByteBuffer response = ByteBuffer.allocate(size);
+		RSAServer.readFully(channel, response);
+		response.flip();
+		if (response.getLong() != id) {
+			throw new IOException("The response does not match the request.");
+		}
+		byte status = response.get();
+		byte[] res = new byte[response.remaining()];
+		response.get(res);
+		if (status != RSAServer.OK) {
+			throw new Exception(new String(res, StandardCharsets.UTF_8));
+		}
+		return res;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,416 @@
+package server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import RSA.OAEP;
+import RSA.RSABatch;
+import RSA.RSAKeyContext;
+import RSA.RSAKeyStore;
+import RSA.Trace;
+import RSA.TraceRecorder;
+import RSA.Util;
+
+/**
+ * A decryption service for the private keys of a {@link RSAKeyStore}. Clients
+ * send length prefixed frames over TCP and may pipeline requests. Every
+ * connection gets its own reader and writer thread, virtual threads when the
+ * runtime has them. Requests go through one bounded queue and dispatchers drain
+ * it in batches, so requests for the same key share one context lookup and one
+ * {@link RSABatch} call. A full queue blocks the readers, which stops them
+ * reading from their sockets and pushes back on the clients.
+ *
+ * A request frame is: length (4 bytes) || id (8 bytes) || operation (1 byte) ||
+ * key fingerprint (32 bytes) || cypher text. A response frame is: length (4
+ * bytes) || id (8 bytes) || status (1 byte) || plain text, or an UTF-8 error
+ * message if the status is not {@link #OK}. Lengths count the bytes after the
+ * length field. A failed {@link #DECRYPT_OAEP} request always gets
+ * {@link #DECRYPTION_FAILED}, since telling padding errors apart would let a
+ * client recover plain texts with Manger's attack.
+ *
+ * Only OAEP decryption is served. Operation 1 used to return the raw c^d mod n,
+ * which hands back the padded block of any OAEP cypher text and signs any
+ * message with the key, so it is refused as an unknown operation.
+ *
+ * A client may shut down its output once it has sent its last request, the
+ * requests in flight are still answered before the connection is closed.
+ */
+public class RSAServer implements AutoCloseable {
+
+	public static final byte DECRYPT_OAEP = 2;
+	public static final byte OK = 0;
+	public static final byte ERROR = 1;
+	public static final int MAX_FRAME = 1 << 20;
+	public static final String DECRYPTION_FAILED = "Decryption failed";
+	static final int REQUEST_HEADER = 8 + 1 + RSAKeyStore.FINGERPRINT_SIZE;
+	// Requests one connection may have in flight
+	private static final int MAX_PIPELINE = 64;
+
+	private final RSAKeyStore store;
+	private final ServerSocketChannel server;
+	private final ArrayBlockingQueue<Request> queue;
+	private final int maxBatch;
+	private final ExecutorService connections;
+	private final List<Thread> threads = new ArrayList<Thread>();
+	private volatile boolean closed;
+
+	/**
+	 * Starts the service.
+	 *
+	 * @param store         The keys that can be used
+	 * @param address       The address to listen on, port 0 picks a free port
+	 * @param queueCapacity The number of requests that may wait for a dispatcher
+	 * @param maxBatch      The most requests a dispatcher takes at once
+	 * @param dispatchers   The number of dispatcher threads
+	 * @throws IOException Thrown if the address cannot be bound
+	 */
+	public RSAServer(RSAKeyStore store, InetSocketAddress address, int queueCapacity, int maxBatch, int dispatchers)
+			throws IOException {
+		if (queueCapacity < 1 || maxBatch < 1 || dispatchers < 1) {
+			throw new IllegalArgumentException("The queue, batch size and dispatchers should be at least 1.");
+		}
+		this.store = store;
+		this.maxBatch = maxBatch;
+		queue = new ArrayBlockingQueue<Request>(queueCapacity);
+		connections = connectionExecutor();
+		server = ServerSocketChannel.open();
+		server.bind(address);
+		for (int i = 0; i < dispatchers; i++) {
+			start(this::dispatch, "rsa-dispatcher-" + i);
+		}
+		start(this::accept, "rsa-acceptor");
+	}
+
+	/**
+	 * Returns the address the service listens on.
+	 *
+	 * @return The bound address
+	 * @throws IOException Thrown if the server socket is closed
+	 */
+	public InetSocketAddress getAddress() throws IOException {
+		return (InetSocketAddress) server.getLocalAddress();
+	}
+
+	/**
+	 * Stops accepting connections and stops the dispatchers. Requests that are
+	 * still queued are dropped.
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		server.close();
+		connections.shutdownNow();
+		for (Thread t : threads) {
+			t.interrupt();
+		}
+	}
+
+	/**
+	 * Runs the service until it is killed.
+	 *
+	 * @param args --store FILE [--port 7000] [--queue 4096] [--batch 64]
+	 *             [--dispatchers 2] [--cache 1024] [--trace FILE], where the
+	 *             trace records the global log of every thread until the
+	 *             service is stopped. It holds the cypher text and the steps of
+	 *             every request, the plain texts, seeds and key material are
+	 *             written as {@link Trace#REDACTED}
+	 * @throws Exception Thrown if the store cannot be opened or the port bound
+	 */
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new HashMap<String, String>();
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+		}
+		if (!options.containsKey("store")) {
+			System.err.println("Usage: RSAServer --store FILE [--port 7000] [--queue 4096] [--batch 64]"
+					+ " [--dispatchers 2] [--cache 1024] [--trace FILE]");
+			System.err.println("The trace records every request with its secrets redacted.");
+			System.exit(2);
+		}
+		if (options.containsKey("trace")) {
+			TraceRecorder recorder = new TraceRecorder(Paths.get(options.get("trace")));
+			Util.globalLog = recorder;
+			System.err.println("Tracing every request to " + options.get("trace")
+					+ ", plain texts and key material are redacted");
+			// Writes the index so the trace can be seeked without a scan
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				Util.globalLog = Trace.NONE;
+				try {
+					recorder.close();
+				} catch (IOException e) {
+					System.err.println("The trace could not be written: " + e.getMessage());
+				}
+			}));
+		}
+		RSAKeyStore store = new RSAKeyStore(Paths.get(options.get("store")),
+				Integer.parseInt(options.getOrDefault("cache", "1024")));
+		RSAServer server = new RSAServer(store,
+				new InetSocketAddress(Integer.parseInt(options.getOrDefault("port", "7000"))),
+				Integer.parseInt(options.getOrDefault("queue", "4096")),
+				Integer.parseInt(options.getOrDefault("batch", "64")),
+				Integer.parseInt(options.getOrDefault("dispatchers", "2")));
+		System.err.println("Listening on " + server.getAddress() + " with " + store.size() + " keys");
+		Thread.currentThread().join();
+	}
+
+	/**
+	 * Uses a virtual thread per task when the runtime supports it and a cached
+	 * pool of platform threads otherwise.
+	 */
+	private static ExecutorService connectionExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool(r -> {
+				Thread t = new Thread(r, "rsa-connection");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+	}
+
+	private void start(Runnable task, String name) {
+		Thread t = new Thread(task, name);
+		t.setDaemon(true);
+		threads.add(t);
+		t.start();
+	}
+
+	private void accept() {
+		while (!closed) {
+			try {
+				SocketChannel channel = server.accept();
+				channel.socket().setTcpNoDelay(true);
+				Connection connection = new Connection(channel);
+				connections.execute(connection::read);
+				connections.execute(connection::write);
+			} catch (ClosedChannelException e) {
+				return;
+			} catch (IOException e) {
+				// A failed accept only affects that client
+			}
+		}
+	}
+
+	/**
+	 * Takes batches off the queue and runs them grouped by key and operation.
+	 */
+	private void dispatch() {
+		List<Request> batch = new ArrayList<Request>(maxBatch);
+		while (!closed) {
+			try {
+				batch.add(queue.take());
+			} catch (InterruptedException e) {
+				return;
+			}
+			queue.drainTo(batch, maxBatch - 1);
+			Map<String, List<Request>> groups = new HashMap<String, List<Request>>();
+			for (Request r : batch) {
+				groups.computeIfAbsent(Util.toHex(r.fingerprint) + r.operation, k -> new ArrayList<Request>()).add(r);
+			}
+			for (List<Request> group : groups.values()) {
+				process(group);
+			}
+			batch.clear();
+		}
+	}
+
+	/**
+	 * Decrypts requests that share a key and operation.
+	 */
+	private void process(List<Request> group) {
+		Request first = group.get(0);
+		RSAKeyContext context;
+		try {
+			context = store.getContext(first.fingerprint);
+			if (context == null || !context.isCrt()) {
+				throw new Exception("No private key with this fingerprint");
+			} else if (first.operation != DECRYPT_OAEP) {
+				throw new Exception("Unknown operation " + first.operation);
+			}
+		} catch (Exception e) {
+			for (Request r : group) {
+				r.connection.fail(r.id, e);
+			}
+			return;
+		}
+		List<byte[]> input = new ArrayList<byte[]>(group.size());
+		for (Request r : group) {
+			// One leading zero so the cypher text is read as unsigned
+			int skip = 0;
+			while (skip < r.data.length - 1 && r.data[skip] == 0) {
+				skip++;
+			}
+			byte[] data = new byte[r.data.length - skip + 1];
+			System.arraycopy(r.data, skip, data, 1, r.data.length - skip);
+			input.add(data);
+		}
+		byte[][] output = new byte[group.size()][];
+		RSABatch.Result result = RSABatch.process(input, output, context, ForkJoinPool.commonPool());
+		int keySize = context.getBitLength();
+		for (int i = 0; i < group.size(); i++) {
+			Request r = group.get(i);
+			try {
+				if (!result.isSuccess(i)) {
+					throw result.getFailure(i);
+				}
+				byte[] res = OAEP.unpad(Util.I2OSP(new BigInteger(1, output[i]), keySize / 8), keySize);
+				r.connection.respond(r.id, OK, res);
+			} catch (Exception e) {
+				r.connection.fail(r.id, new Exception(DECRYPTION_FAILED));
+			}
+		}
+	}
+
+	/**
+	 * One request waiting for a dispatcher.
+	 */
+	private static class Request {
+		private final Connection connection;
+		private final long id;
+		private final byte operation;
+		private final byte[] fingerprint;
+		private final byte[] data;
+
+		Request(Connection connection, long id, byte operation, byte[] fingerprint, byte[] data) {
+			this.connection = connection;
+			this.id = id;
+			this.operation = operation;
+			this.fingerprint = fingerprint;
+			this.data = data;
+		}
+	}
+
+	/**
+	 * The reader and writer of one client.
+	 */
+	private class Connection {
+		private final SocketChannel channel;
+		private final Semaphore pipeline = new Semaphore(MAX_PIPELINE);
+		private final LinkedBlockingQueue<ByteBuffer> responses = new LinkedBlockingQueue<ByteBuffer>();
+
+		Connection(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		/**
+		 * Reads requests until the client disconnects. If it only shuts down its
+		 * output between two frames, the requests in flight are answered first.
+		 */
+		void read() {
+			ByteBuffer length = ByteBuffer.allocate(4);
+			try {
+				while (true) {
+					length.clear();
+					readFully(channel, length);
+					int size = length.flip().getInt();
+					if (size < REQUEST_HEADER || size > MAX_FRAME) {
+						throw new IOException("Invalid frame length " + size);
+					}
+					ByteBuffer frame = ByteBuffer.allocate(size);
+					readFully(channel, frame);
+					frame.flip();
+					long id = frame.getLong();
+					byte operation = frame.get();
+					byte[] fingerprint = new byte[RSAKeyStore.FINGERPRINT_SIZE];
+					frame.get(fingerprint);
+					byte[] data = new byte[frame.remaining()];
+					frame.get(data);
+					pipeline.acquire();
+					queue.put(new Request(this, id, operation, fingerprint, data));
+				}
+			} catch (EOFException e) {
+				if (length.position() == 0) {
+					finish();
+				} else {
+					close();
+				}
+			} catch (IOException | InterruptedException e) {
+				close();
+			}
+		}
+
+		/**
+		 * Waits for every request in flight to be answered, then has the writer
+		 * close the connection.
+		 */
+		private void finish() {
+			try {
+				pipeline.acquire(MAX_PIPELINE);
+			} catch (InterruptedException e) {
+				close();
+				return;
+			}
+			responses.add(ByteBuffer.allocate(0));
+		}
+
+		/**
+		 * Writes responses in the order they complete.
+		 */
+		void write() {
+			try {
+				while (true) {
+					ByteBuffer response = responses.take();
+					if (response.capacity() == 0) {
+						close();
+						return;
+					}
+					while (response.hasRemaining()) {
+						channel.write(response);
+					}
+					pipeline.release();
+				}
+			} catch (IOException | InterruptedException e) {
+				close();
+			}
+		}
+
+		void respond(long id, byte status, byte[] payload) {
+			ByteBuffer response = ByteBuffer.allocate(4 + 8 + 1 + payload.length);
+			response.putInt(8 + 1 + payload.length).putLong(id).put(status).put(payload).flip();
+			responses.add(response);
+		}
+
+		void fail(long id, Exception e) {
+			String message = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+			respond(id, ERROR, message.getBytes(StandardCharsets.UTF_8));
+		}
+
+		private void close() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// Nothing left to clean up
+			}
+			// Wakes the writer so it stops
+			responses.add(ByteBuffer.allocate(0));
+			pipeline.release(MAX_PIPELINE);
+		}
+	}
+
+	static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new EOFException();
+			}
+		}
+	}
+}
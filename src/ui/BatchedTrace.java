@@ -0,0 +1,155 @@
+package ui;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+import RSA.Trace;
+import javafx.application.Platform;
+
+/**
+ * A trace that a background task writes to and a {@link StepTreeView} shows.
+ * Messages are formatted on the task's thread and queued, and the JavaFX thread
+ * applies everything queued in one batch, so a busy task schedules at most one
+ * update at a time. Each trace keeps its own position in the tree, so tasks
+ * running at the same time each build their own branch under the step that was
+ * current when the trace was created. Only one thread may write to a trace.
+ *
+ * The trace also counts the steps started at each depth, which a task can use
+ * as its progress, and stops the task by throwing a
+ * {@link CancellationException} from {@link #stepIn(Supplier)} once it is
+ * cancelled.
+ */
+class BatchedTrace implements Trace {
+
+	// Steps deeper than this are not counted
+	private static final int MAX_DEPTH = 8;
+
+	private enum Kind {
+		STEP_IN, LOG, APPEND, STEP_OUT
+	}
+
+	private static class Event {
+		private final Kind kind;
+		private final String message;
+
+		Event(Kind kind, String message) {
+			this.kind = kind;
+			this.message = message;
+		}
+	}
+
+	private final boolean active;
+	private final BooleanSupplier cancelled;
+	private final ConcurrentLinkedQueue<Event> events = new ConcurrentLinkedQueue<Event>();
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+	private final AtomicLongArray steps = new AtomicLongArray(MAX_DEPTH);
+	// Only used by the writing thread
+	private int depth;
+	private final StepTreeView view;
+	// Only used on the JavaFX thread
+	private final StepStore.Cursor cursor;
+
+	/**
+	 * Creates a trace that adds to the current step of target. Must be called on
+	 * the JavaFX thread.
+	 *
+	 * @param target    The trace to show the messages in, nothing is shown unless
+	 *                  it is an active {@link StepTreeView}
+	 * @param cancelled Called at every step, returns true once the task should
+	 *                  stop
+	 */
+	BatchedTrace(Trace target, BooleanSupplier cancelled) {
+		this.cancelled = cancelled;
+		active = target instanceof StepTreeView && target.isActive();
+		view = active ? (StepTreeView) target : null;
+		cursor = active ? view.newCursor() : null;
+	}
+
+	@Override
+	public boolean isActive() {
+		return active;
+	}
+
+	@Override
+	public void stepIn(Supplier<String> message) {
+		if (cancelled.getAsBoolean()) {
+			throw new CancellationException();
+		}
+		if (depth < MAX_DEPTH) {
+			steps.incrementAndGet(depth);
+		}
+		depth++;
+		if (active) {
+			add(Kind.STEP_IN, message.get());
+		}
+	}
+
+	@Override
+	public void log(Supplier<String> message) {
+		if (active) {
+			add(Kind.LOG, message.get());
+		}
+	}
+
+	@Override
+	public void appendToCurrent(Supplier<String> message) {
+		if (active) {
+			add(Kind.APPEND, message.get());
+		}
+	}
+
+	@Override
+	public void stepOut() {
+		depth--;
+		if (active) {
+			add(Kind.STEP_OUT, null);
+		}
+	}
+
+	/**
+	 * Returns the number of steps started at a depth, 0 being the steps started
+	 * directly under the step this trace was created at.
+	 *
+	 * @param depth The depth
+	 * @return The number of steps
+	 */
+	long getSteps(int depth) {
+		return depth < MAX_DEPTH ? steps.get(depth) : 0;
+	}
+
+	private void add(Kind kind, String message) {
+		events.add(new Event(kind, message));
+		if (scheduled.compareAndSet(false, true)) {
+			Platform.runLater(this::flush);
+		}
+	}
+
+	/**
+	 * Applies every queued event to the tree.
+	 */
+	private void flush() {
+		// Cleared first so events added while draining schedule another flush
+		scheduled.set(false);
+		Event event;
+		while ((event = events.poll()) != null) {
+			switch (event.kind) {
+			case STEP_IN:
+				view.stepIn(cursor, event.message);
+				break;
+			case LOG:
+				view.log(cursor, event.message);
+				break;
+			case APPEND:
+				view.appendToCurrent(cursor, event.message);
+				break;
+			case STEP_OUT:
+				view.stepOut(cursor);
+				break;
+			}
+		}
+	}
+}
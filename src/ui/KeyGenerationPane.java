@@ -3,14 +3,21 @@ package ui;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.math.BigInteger;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
+import RSA.Metrics;
+import RSA.Trace;
 import RSA.Util;
+import javafx.concurrent.Task;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
+import javafx.scene.control.ProgressIndicator;
 import javafx.scene.control.TextArea;
 import javafx.scene.control.TextField;
 import javafx.scene.control.Alert.AlertType;
+import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 
 public class KeyGenerationPane extends VBox {
@@ -21,6 +28,10 @@ public class KeyGenerationPane extends VBox {
 	private Label[] labels;
 	private TextArea[] textAreas;
 	private Button generate;
+	private Button cancel;
+	private ProgressIndicator progress;
+	private Label status;
+	private Task<BigInteger[]> task;
 
 	public KeyGenerationPane() {
 		super();
@@ -48,46 +59,137 @@ public class KeyGenerationPane extends VBox {
 		generate = new Button("Generate Key");
 		generate.setOnAction(action -> {
 			try {
-				BigInteger p, q, n, m, e, d;
-				// If p or q are empty set them.
-				if (textAreas[0].getText().isEmpty()) {
-					p = Util.randomPrime(Integer.parseInt(keySizeField.getText()));
-					textAreas[0].setText(p.toString());
-				} else {
-					p = new BigInteger(textAreas[0].getText());
-				}
-				if (textAreas[1].getText().isEmpty()) {
-					q = Util.randomPrime(Integer.parseInt(keySizeField.getText()));
-					textAreas[1].setText(q.toString());
-				} else {
-					q = new BigInteger(textAreas[1].getText());
-				}
-				n = p.multiply(q);
-				m = (p.subtract(BigInteger.ONE)).multiply(q.subtract(BigInteger.ONE));
-				if (textAreas[4].getText().isEmpty()) {
-					e = Util.randomBigInteger(16);
-					e = e.divide(e.gcd(m));
-					textAreas[4].setText(e.toString());
-				} else {
-					e = new BigInteger(textAreas[4].getText());
-				}
-				d = e.modInverse(m);
-
-				textAreas[2].setText(n.toString());
-				textAreas[3].setText(m.toString());
-				textAreas[5].setText(d.toString());
+				int bits = Integer.parseInt(keySizeField.getText());
+				String pText = textAreas[0].getText();
+				String qText = textAreas[1].getText();
+				String eText = textAreas[4].getText();
+				task = new KeyTask(bits, pText, qText, eText);
+				task.setOnSucceeded(event -> {
+					BigInteger[] key = task.getValue();
+					for (int i = 0; i < key.length; i++) {
+						textAreas[i].setText(key[i].toString());
+					}
+					finish("");
+				});
+				task.setOnCancelled(event -> finish("Cancelled"));
+				task.setOnFailed(event -> {
+					finish("");
+					showError(task.getException());
+				});
+				generate.setDisable(true);
+				cancel.setDisable(false);
+				progress.setVisible(true);
+				status.textProperty().bind(task.messageProperty());
+				Visualizer.BACKGROUND.execute(task);
 			} catch (Exception e) {
-				Alert alert = new Alert(AlertType.ERROR);
-				alert.setTitle("Key Generation Error");
-				alert.setHeaderText(e.getMessage());
-				StringWriter sw = new StringWriter();
-				e.printStackTrace(new PrintWriter(sw));
-				TextArea ta = new TextArea(sw.toString());
-				ta.setEditable(false);
-				alert.getDialogPane().setExpandableContent(ta);
-				alert.showAndWait();
+				showError(e);
 			}
 		});
-		getChildren().add(generate);
+		cancel = new Button("Cancel");
+		cancel.setDisable(true);
+		cancel.setOnAction(action -> task.cancel());
+		progress = new ProgressIndicator();
+		progress.setMaxSize(24, 24);
+		progress.setVisible(false);
+		status = new Label();
+		getChildren().add(new HBox(8, generate, cancel, progress, status));
+	}
+
+	private void finish(String message) {
+		status.textProperty().unbind();
+		status.setText(message);
+		progress.setVisible(false);
+		generate.setDisable(false);
+		cancel.setDisable(true);
+	}
+
+	private void showError(Throwable e) {
+		Alert alert = new Alert(AlertType.ERROR);
+		alert.setTitle("Key Generation Error");
+		alert.setHeaderText(e.getMessage());
+		StringWriter sw = new StringWriter();
+		e.printStackTrace(new PrintWriter(sw));
+		TextArea ta = new TextArea(sw.toString());
+		ta.setEditable(false);
+		alert.getDialogPane().setExpandableContent(ta);
+		alert.showAndWait();
+	}
+
+	/**
+	 * Computes p, q, n, m, e and d off the JavaFX thread. Missing primes are
+	 * searched for at the same time, each tracing into its own branch of the
+	 * global log.
+	 */
+	private static class KeyTask extends Task<BigInteger[]> {
+		private final int bits;
+		private final String pText;
+		private final String qText;
+		private final String eText;
+		private final BatchedTrace pLog;
+		private final BatchedTrace qLog;
+		// Not shown, only counts the candidates and trials
+		private final BatchedTrace pTrials;
+		private final BatchedTrace qTrials;
+		// Set once the task is over so a search still running gives up
+		private volatile boolean stopped;
+
+		/**
+		 * Must be called on the JavaFX thread since it creates the traces.
+		 */
+		KeyTask(int bits, String pText, String qText, String eText) {
+			this.bits = bits;
+			this.pText = pText;
+			this.qText = qText;
+			this.eText = eText;
+			pLog = new BatchedTrace(Util.globalLog, this::isStopped);
+			qLog = new BatchedTrace(Util.globalLog, this::isStopped);
+			pTrials = new BatchedTrace(Trace.NONE, this::progress);
+			qTrials = new BatchedTrace(Trace.NONE, this::progress);
+		}
+
+		@Override
+		protected BigInteger[] call() throws Exception {
+			long start = Metrics.start();
+			updateMessage("Searching for primes");
+			// q is searched for on another thread while this one looks for p
+			CompletableFuture<BigInteger> qFuture = qText.isEmpty()
+					? CompletableFuture.supplyAsync(() -> Util.randomPrime(bits, this::isStopped, qLog, qTrials),
+							Visualizer.BACKGROUND)
+					: CompletableFuture.completedFuture(new BigInteger(qText));
+			BigInteger p, q, n, m, e, d;
+			try {
+				p = pText.isEmpty() ? Util.randomPrime(bits, this::isStopped, pLog, pTrials) : new BigInteger(pText);
+				q = qFuture.join();
+			} catch (CompletionException ex) {
+				throw ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+			} finally {
+				stopped = true;
+			}
+			n = p.multiply(q);
+			m = (p.subtract(BigInteger.ONE)).multiply(q.subtract(BigInteger.ONE));
+			if (eText.isEmpty()) {
+				e = Util.randomBigInteger(16);
+				e = e.divide(e.gcd(m));
+			} else {
+				e = new BigInteger(eText);
+			}
+			d = e.modInverse(m);
+			Metrics.stop(Metrics.KEY_GENERATION, p.bitLength(), start);
+			return new BigInteger[] { p, q, n, m, e, d };
+		}
+
+		private boolean isStopped() {
+			return stopped || isCancelled();
+		}
+
+		/**
+		 * Reports the candidates tried and trials run so far, called at every step
+		 * of the prime searches.
+		 */
+		private boolean progress() {
+			updateMessage("Candidates tried: " + (pTrials.getSteps(0) + qTrials.getSteps(0))
+					+ ", trials run: " + (pTrials.getSteps(1) + qTrials.getSteps(1)));
+			return isStopped();
+		}
 	}
 }
@@ -5,12 +5,15 @@ import java.io.StringWriter;
 import java.math.BigInteger;
 
 import RSA.Util;
+import javafx.concurrent.Task;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
+import javafx.scene.control.ProgressIndicator;
 import javafx.scene.control.TextArea;
 import javafx.scene.control.TextField;
 import javafx.scene.control.Alert.AlertType;
+import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 
 public class PrimalityPane extends VBox {
@@ -19,7 +22,10 @@ public class PrimalityPane extends VBox {
 	private TextField inputField;
 	private Button checkIsPrime;
 	private Label result;
+	private Button cancel;
+	private ProgressIndicator progress;
 	private StepTreeView log;
+	private Task<Boolean> task;
 
 	public PrimalityPane() {
 		super();
@@ -37,26 +43,95 @@ public class PrimalityPane extends VBox {
 				BigInteger n = new BigInteger(inputField.getText().trim());
 				log.reset();
 				log.setIsActive(true);
-				if (Util.isPrime(n)) {
-					result.setText("The number is prime");
-				} else {
-					result.setText("The number is composite");
-				}
-				log.setIsActive(false);
+				task = new CheckTask(n, log);
+				task.setOnSucceeded(event -> {
+					finish();
+					if (task.getValue()) {
+						result.setText("The number is prime");
+					} else {
+						result.setText("The number is composite");
+					}
+				});
+				task.setOnCancelled(event -> {
+					finish();
+					result.setText("Cancelled");
+				});
+				task.setOnFailed(event -> {
+					finish();
+					showError(task.getException());
+				});
+				checkIsPrime.setDisable(true);
+				cancel.setDisable(false);
+				progress.setVisible(true);
+				result.textProperty().bind(task.messageProperty());
+				Visualizer.BACKGROUND.execute(task);
 			} catch (Exception e) {
-				Alert alert = new Alert(AlertType.ERROR);
-				alert.setTitle("Prime Checker Error");
-				alert.setHeaderText(e.getMessage());
-				StringWriter sw = new StringWriter();
-				e.printStackTrace(new PrintWriter(sw));
-				TextArea ta = new TextArea(sw.toString());
-				ta.setEditable(false);
-				alert.getDialogPane().setExpandableContent(ta);
-				alert.showAndWait();
+				log.setIsActive(false);
+				showError(e);
 			}
 		});
+		cancel = new Button("Cancel");
+		cancel.setDisable(true);
+		cancel.setOnAction(action -> task.cancel());
+		progress = new ProgressIndicator();
+		progress.setMaxSize(24, 24);
+		progress.setVisible(false);
 		result = new Label();
-		log = Util.primeLog;
-		getChildren().addAll(topLabel, inputField, checkIsPrime, log);
+		log = new StepTreeView("Prime Checker Log");
+		Util.primeLog = log;
+		getChildren().addAll(topLabel, inputField, new HBox(8, checkIsPrime, cancel, progress, result), log);
+	}
+
+	private void finish() {
+		result.textProperty().unbind();
+		progress.setVisible(false);
+		checkIsPrime.setDisable(false);
+		cancel.setDisable(true);
+		log.setIsActive(false);
+	}
+
+	private void showError(Throwable e) {
+		Alert alert = new Alert(AlertType.ERROR);
+		alert.setTitle("Prime Checker Error");
+		alert.setHeaderText(e.getMessage());
+		StringWriter sw = new StringWriter();
+		e.printStackTrace(new PrintWriter(sw));
+		TextArea ta = new TextArea(sw.toString());
+		ta.setEditable(false);
+		alert.getDialogPane().setExpandableContent(ta);
+		alert.showAndWait();
+	}
+
+	/**
+	 * Checks n off the JavaFX thread, tracing into the global log and the log of
+	 * this pane.
+	 */
+	private static class CheckTask extends Task<Boolean> {
+		private final BigInteger n;
+		private final BatchedTrace globalLog;
+		private final BatchedTrace primeLog;
+
+		/**
+		 * Must be called on the JavaFX thread since it creates the traces.
+		 */
+		CheckTask(BigInteger n, StepTreeView log) {
+			this.n = n;
+			globalLog = new BatchedTrace(Util.globalLog, this::isCancelled);
+			primeLog = new BatchedTrace(log, this::progress);
+		}
+
+		@Override
+		protected Boolean call() throws Exception {
+			updateMessage("Checking");
+			return Util.isPrime(n, globalLog, primeLog);
+		}
+
+		/**
+		 * Reports the trials run so far, called at every step of the test.
+		 */
+		private boolean progress() {
+			updateMessage("Trials run: " + primeLog.getSteps(1));
+			return isCancelled();
+		}
 	}
 }
@@ -0,0 +1,388 @@
+package ui;
+
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The steps shown by a {@link StepTreeView}, kept in flat arrays linked by slot
+ * index so a long trace costs a few ints per step. It does not depend on
+ * JavaFX; the view listens for changes and only builds items for what is
+ * expanded.
+ *
+ * The store is bounded in two ways. A step keeps at most maxChildren children;
+ * once it has more the oldest child is evicted and counted in a summary such as
+ * "48 more trials". The whole store keeps at most maxNodes steps; once it is
+ * full the oldest run (child of the root) is evicted, and if the only run left
+ * is the one being written new steps are counted in the summary of their parent
+ * instead of being kept.
+ *
+ * Steps are written through cursors. A cursor remembers the generation of each
+ * slot on its path, so a writer whose branch was evicted skips what it writes
+ * until it steps back out instead of writing into a reused slot.
+ */
+public class StepStore {
+
+	public static final int NONE = -1;
+	public static final int ROOT = 0;
+	private static final Pattern NUMBERED = Pattern.compile("^([A-Za-z]+) \\d");
+	private static final Pattern CALL = Pattern.compile("^([A-Za-z]+)\\(");
+
+	/**
+	 * Told about every change to the steps.
+	 */
+	interface Listener {
+		void stepAdded(int parent, int slot);
+
+		/**
+		 * Called before the slot and everything below it are freed.
+		 */
+		void stepEvicted(int parent, int slot);
+
+		void messageChanged(int slot);
+
+		void summaryChanged(int slot);
+	}
+
+	private final int maxNodes;
+	private final int maxChildren;
+	private Listener listener;
+
+	// The steps, indexed by slot
+	private String[] messages;
+	private int[] firstChildren;
+	private int[] lastChildren;
+	// Also links the free slots
+	private int[] nextSiblings;
+	private int[] childCounts;
+	private int[] evictedCounts;
+	private String[] evictedKinds;
+	// Bumped whenever a slot is freed so stale cursors can tell
+	private int[] generations;
+	private int used;
+	private int freeHead;
+
+	/**
+	 * A position in the store that a trace writes at. Steps that could not be
+	 * kept are skipped until the matching {@link StepStore#stepOut(Cursor)}.
+	 */
+	public static class Cursor {
+		private int[] slots = new int[16];
+		private int[] generations = new int[16];
+		private int depth;
+		private int skipped;
+
+		private Cursor(int slot, int generation) {
+			slots[0] = slot;
+			generations[0] = generation;
+		}
+
+		private Cursor(Cursor other) {
+			slots = other.slots.clone();
+			generations = other.generations.clone();
+			depth = other.depth;
+			skipped = other.skipped;
+		}
+
+		private void push(int slot, int generation) {
+			if (++depth == slots.length) {
+				slots = Arrays.copyOf(slots, depth * 2);
+				generations = Arrays.copyOf(generations, depth * 2);
+			}
+			slots[depth] = slot;
+			generations[depth] = generation;
+		}
+	}
+
+	/**
+	 * Creates a bounded store holding only the root.
+	 *
+	 * @param rootMessage The description of the root
+	 * @param maxNodes    The most steps kept, including the root
+	 * @param maxChildren The most children a step keeps
+	 */
+	public StepStore(String rootMessage, int maxNodes, int maxChildren) {
+		if (maxNodes < 2 || maxChildren < 1) {
+			throw new IllegalArgumentException("A step tree needs room for the root, a step and a child.");
+		}
+		this.maxNodes = maxNodes;
+		this.maxChildren = maxChildren;
+		allocate(Math.min(maxNodes, 1024));
+		reset(rootMessage);
+	}
+
+	void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Drops every step and starts over with a new root. Cursors made before are
+	 * stale afterwards.
+	 *
+	 * @param rootMessage The description of the root
+	 */
+	public void reset(String rootMessage) {
+		for (int slot = 0; slot < used; slot++) {
+			generations[slot]++;
+		}
+		used = 0;
+		freeHead = NONE;
+		init(allocateSlot(), rootMessage);
+	}
+
+	/**
+	 * Returns a cursor at the root.
+	 *
+	 * @return The cursor
+	 */
+	public Cursor newCursor() {
+		return new Cursor(ROOT, generations[ROOT]);
+	}
+
+	/**
+	 * Returns a cursor at the current step of another, for a trace that writes a
+	 * branch of its own.
+	 *
+	 * @param at The cursor to start from
+	 * @return The cursor
+	 */
+	public Cursor newCursor(Cursor at) {
+		return new Cursor(at);
+	}
+
+	public void stepIn(Cursor c, String message) {
+		if (c.skipped > 0 || !isValid(c)) {
+			c.skipped++;
+			return;
+		}
+		int slot = add(c.slots[c.depth], message, c);
+		if (slot == NONE) {
+			c.skipped++;
+		} else {
+			c.push(slot, generations[slot]);
+		}
+	}
+
+	public void log(Cursor c, String message) {
+		if (c.skipped == 0 && isValid(c)) {
+			add(c.slots[c.depth], message, c);
+		}
+	}
+
+	public void appendToCurrent(Cursor c, String message) {
+		if (c.skipped == 0 && isValid(c)) {
+			int slot = c.slots[c.depth];
+			messages[slot] = messages[slot] + message;
+			if (listener != null) {
+				listener.messageChanged(slot);
+			}
+		}
+	}
+
+	public void stepOut(Cursor c) {
+		if (c.skipped > 0) {
+			c.skipped--;
+		} else if (c.depth > 0) {
+			c.depth--;
+		}
+	}
+
+	/**
+	 * Returns the number of steps kept, including the root.
+	 *
+	 * @return The number of steps
+	 */
+	public int getNodeCount() {
+		int free = 0;
+		for (int slot = freeHead; slot != NONE; slot = nextSiblings[slot]) {
+			free++;
+		}
+		return used - free;
+	}
+
+	public String getMessage(int slot) {
+		return messages[slot];
+	}
+
+	/**
+	 * Returns the oldest child kept, or {@link #NONE}.
+	 *
+	 * @param slot The step
+	 * @return The slot of the child
+	 */
+	public int getFirstChild(int slot) {
+		return firstChildren[slot];
+	}
+
+	/**
+	 * Returns the next younger sibling, or {@link #NONE}.
+	 *
+	 * @param slot The step
+	 * @return The slot of the sibling
+	 */
+	public int getNextSibling(int slot) {
+		return nextSiblings[slot];
+	}
+
+	public int getChildCount(int slot) {
+		return childCounts[slot];
+	}
+
+	/**
+	 * Returns what was evicted from under a step, such as "48 more trials", or
+	 * null if nothing was.
+	 *
+	 * @param slot The step
+	 * @return The summary
+	 */
+	public String getSummary(int slot) {
+		return evictedCounts[slot] == 0 ? null : evictedCounts[slot] + " more " + evictedKinds[slot];
+	}
+
+	/**
+	 * Returns true if the step has children or a summary to show.
+	 *
+	 * @param slot The step
+	 * @return If the step can be expanded
+	 */
+	public boolean hasChildren(int slot) {
+		return childCounts[slot] > 0 || evictedCounts[slot] > 0;
+	}
+
+	private boolean isValid(Cursor c) {
+		return generations[c.slots[c.depth]] == c.generations[c.depth];
+	}
+
+	/**
+	 * Adds a step under parent, evicting to make room, and returns its slot or
+	 * {@link #NONE} if it had to be dropped.
+	 */
+	private int add(int parent, String message, Cursor writer) {
+		if (childCounts[parent] >= maxChildren) {
+			evictFirstChild(parent);
+		}
+		int slot = allocateSlot();
+		if (slot == NONE && evictOldestRun(writer)) {
+			slot = allocateSlot();
+		}
+		if (slot == NONE) {
+			countEvicted(parent, message);
+			return NONE;
+		}
+		init(slot, message);
+		if (firstChildren[parent] == NONE) {
+			firstChildren[parent] = slot;
+		} else {
+			nextSiblings[lastChildren[parent]] = slot;
+		}
+		lastChildren[parent] = slot;
+		childCounts[parent]++;
+		if (listener != null) {
+			listener.stepAdded(parent, slot);
+		}
+		return slot;
+	}
+
+	/**
+	 * Evicts the oldest run unless the writer is inside it.
+	 */
+	private boolean evictOldestRun(Cursor writer) {
+		int run = firstChildren[ROOT];
+		if (run == NONE || (writer.depth > 0 && writer.slots[1] == run)) {
+			return false;
+		}
+		evictFirstChild(ROOT);
+		return true;
+	}
+
+	private void evictFirstChild(int parent) {
+		int child = firstChildren[parent];
+		firstChildren[parent] = nextSiblings[child];
+		if (firstChildren[parent] == NONE) {
+			lastChildren[parent] = NONE;
+		}
+		childCounts[parent]--;
+		if (listener != null) {
+			listener.stepEvicted(parent, child);
+		}
+		countEvicted(parent, messages[child]);
+		free(child);
+	}
+
+	private void countEvicted(int parent, String message) {
+		if (evictedKinds[parent] == null) {
+			evictedKinds[parent] = kindOf(message);
+		}
+		evictedCounts[parent]++;
+		if (listener != null) {
+			listener.summaryChanged(parent);
+		}
+	}
+
+	/**
+	 * Names what a step is in the plural, "trials" for "Trial 7" and "isPrime
+	 * calls" for "isPrime(91)".
+	 */
+	private static String kindOf(String message) {
+		Matcher m = NUMBERED.matcher(message);
+		if (m.find()) {
+			return m.group(1).toLowerCase() + "s";
+		}
+		m = CALL.matcher(message);
+		if (m.find()) {
+			return m.group(1) + " calls";
+		}
+		return "steps";
+	}
+
+	private void free(int slot) {
+		for (int child = firstChildren[slot]; child != NONE;) {
+			int next = nextSiblings[child];
+			free(child);
+			child = next;
+		}
+		generations[slot]++;
+		messages[slot] = null;
+		evictedKinds[slot] = null;
+		nextSiblings[slot] = freeHead;
+		freeHead = slot;
+	}
+
+	private int allocateSlot() {
+		if (freeHead != NONE) {
+			int slot = freeHead;
+			freeHead = nextSiblings[slot];
+			return slot;
+		} else if (used == maxNodes) {
+			return NONE;
+		} else if (used == messages.length) {
+			allocate((int) Math.min((long) used * 2, maxNodes));
+		}
+		return used++;
+	}
+
+	private void init(int slot, String message) {
+		messages[slot] = message;
+		firstChildren[slot] = NONE;
+		lastChildren[slot] = NONE;
+		nextSiblings[slot] = NONE;
+		childCounts[slot] = 0;
+		evictedCounts[slot] = 0;
+		evictedKinds[slot] = null;
+	}
+
+	private void allocate(int capacity) {
+		messages = messages == null ? new String[capacity] : Arrays.copyOf(messages, capacity);
+		firstChildren = grow(firstChildren, capacity);
+		lastChildren = grow(lastChildren, capacity);
+		nextSiblings = grow(nextSiblings, capacity);
+		childCounts = grow(childCounts, capacity);
+		evictedCounts = grow(evictedCounts, capacity);
+		evictedKinds = evictedKinds == null ? new String[capacity] : Arrays.copyOf(evictedKinds, capacity);
+		generations = grow(generations, capacity);
+	}
+
+	private static int[] grow(int[] array, int capacity) {
+		return array == null ? new int[capacity] : Arrays.copyOf(array, capacity);
+	}
+}
@@ -1,58 +1,293 @@
 package ui;
 
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+import RSA.Trace;
 import javafx.scene.control.TreeItem;
 import javafx.scene.control.TreeView;
 
-public class StepTreeView extends TreeView<String> {
+/**
+ * A trace shown as a tree. The steps are kept in a bounded {@link StepStore},
+ * and a {@link TreeItem} only exists while its parent is expanded, so a long
+ * trace costs a few ints per step until someone looks at it. Steps evicted by
+ * the store show up as a summary such as "48 more trials" at the top of their
+ * parent.
+ */
+public class StepTreeView extends TreeView<String> implements Trace {
+
+	public static final int DEFAULT_MAX_NODES = 100000;
+	public static final int DEFAULT_MAX_CHILDREN = 32;
 
+	private final StepStore store;
 	private String rootMessage;
 	private boolean active;
-	private TreeItem<String> currentItem;
+	private StepStore.Cursor cursor;
+	// The item of each slot that is shown, indexed by slot
+	private LazyItem[] items = new LazyItem[1024];
 
 	public StepTreeView(String rootMessage) {
+		this(rootMessage, DEFAULT_MAX_NODES, DEFAULT_MAX_CHILDREN);
+	}
+
+	/**
+	 * Creates a bounded step tree.
+	 *
+	 * @param rootMessage The description of the root
+	 * @param maxNodes    The most steps kept, including the root
+	 * @param maxChildren The most children a step keeps
+	 */
+	public StepTreeView(String rootMessage, int maxNodes, int maxChildren) {
 		super();
 		this.rootMessage = rootMessage;
+		store = new StepStore(rootMessage, maxNodes, maxChildren);
+		store.setListener(new Updater());
 		active = false;
 		reset();
 	}
 
 	public void stepIn(String message) {
 		if (active) {
-			TreeItem<String> item = new TreeItem<String>(message);
-			currentItem.getChildren().add(item);
-			currentItem = item;
+			stepIn(cursor, message);
+		}
+	}
+
+	@Override
+	public void stepIn(Supplier<String> message) {
+		if (active) {
+			stepIn(message.get());
 		}
 	}
 
 	public void log(String message) {
 		if (active) {
-			currentItem.getChildren().add(new TreeItem<String>(message));
+			log(cursor, message);
 		}
 	}
 
+	@Override
+	public void log(Supplier<String> message) {
+		if (active) {
+			log(message.get());
+		}
+	}
+
+	@Override
 	public void stepOut() {
 		if (active) {
-			currentItem = currentItem.getParent();
+			stepOut(cursor);
 		}
 	}
 
 	public void appendToCurrent(String message) {
 		if (active) {
-			currentItem.setValue(currentItem.getValue() + message);
+			appendToCurrent(cursor, message);
+		}
+	}
+
+	@Override
+	public void appendToCurrent(Supplier<String> message) {
+		if (active) {
+			appendToCurrent(message.get());
 		}
 	}
 
+	@Override
+	public boolean isActive() {
+		return active;
+	}
+
 	public void setIsActive(boolean active) {
 		this.active = active;
 	}
 
+	/**
+	 * Returns the number of steps kept, including the root.
+	 *
+	 * @return The number of steps
+	 */
+	public int getNodeCount() {
+		return store.getNodeCount();
+	}
+
 	public void reset() {
 		reset(rootMessage);
 	}
 
 	public void reset(String message) {
-		currentItem = new TreeItem<String>(message);
-		currentItem.setExpanded(true);
-		setRoot(currentItem);
+		Arrays.fill(items, null);
+		store.reset(message);
+		cursor = store.newCursor();
+		LazyItem item = new LazyItem(StepStore.ROOT);
+		item.setExpanded(true);
+		setRoot(item);
+	}
+
+	/**
+	 * Returns a new cursor at the current step, for a trace that writes a branch
+	 * of its own.
+	 */
+	StepStore.Cursor newCursor() {
+		return store.newCursor(cursor);
+	}
+
+	void stepIn(StepStore.Cursor c, String message) {
+		store.stepIn(c, message);
+	}
+
+	void log(StepStore.Cursor c, String message) {
+		store.log(c, message);
+	}
+
+	void appendToCurrent(StepStore.Cursor c, String message) {
+		store.appendToCurrent(c, message);
+	}
+
+	void stepOut(StepStore.Cursor c) {
+		store.stepOut(c);
+	}
+
+	private LazyItem item(int slot) {
+		return slot < items.length ? items[slot] : null;
+	}
+
+	/**
+	 * Keeps the items that are shown in step with the store.
+	 */
+	private class Updater implements StepStore.Listener {
+		@Override
+		public void stepAdded(int parent, int slot) {
+			if (item(parent) != null) {
+				item(parent).childAdded(slot);
+			}
+		}
+
+		@Override
+		public void stepEvicted(int parent, int slot) {
+			LazyItem child = item(slot);
+			if (child != null) {
+				child.release();
+			}
+			if (item(parent) != null) {
+				item(parent).childEvicted(child);
+			}
+		}
+
+		@Override
+		public void messageChanged(int slot) {
+			if (item(slot) != null) {
+				item(slot).setValue(store.getMessage(slot));
+			}
+		}
+
+		@Override
+		public void summaryChanged(int slot) {
+			if (item(slot) != null) {
+				item(slot).updateSummary();
+			}
+		}
+	}
+
+	/**
+	 * The item of a step. Until it is expanded its only child is a placeholder
+	 * that shows the step can be expanded, and collapsing it releases the items
+	 * below it again.
+	 */
+	private class LazyItem extends TreeItem<String> {
+		private final int slot;
+		private boolean built;
+		private TreeItem<String> summary;
+
+		LazyItem(int slot) {
+			super(store.getMessage(slot));
+			this.slot = slot;
+			if (slot >= items.length) {
+				items = Arrays.copyOf(items, Math.max(items.length * 2, slot + 1));
+			}
+			items[slot] = this;
+			if (store.hasChildren(slot)) {
+				getChildren().add(new TreeItem<String>("..."));
+			}
+			expandedProperty().addListener((observable, oldValue, newValue) -> {
+				if (newValue) {
+					build();
+				} else {
+					unbuild();
+				}
+			});
+		}
+
+		private void build() {
+			if (built || item(slot) != this) {
+				return;
+			}
+			built = true;
+			getChildren().clear();
+			summary = null;
+			updateSummary();
+			for (int child = store.getFirstChild(slot); child != StepStore.NONE; child = store
+					.getNextSibling(child)) {
+				getChildren().add(new LazyItem(child));
+			}
+		}
+
+		private void unbuild() {
+			if (!built) {
+				return;
+			}
+			built = false;
+			releaseChildren();
+			getChildren().clear();
+			summary = null;
+			if (store.hasChildren(slot)) {
+				getChildren().add(new TreeItem<String>("..."));
+			}
+		}
+
+		/**
+		 * Forgets this item and the items below it.
+		 */
+		void release() {
+			if (item(slot) == this) {
+				items[slot] = null;
+			}
+			if (built) {
+				releaseChildren();
+			}
+		}
+
+		private void releaseChildren() {
+			for (TreeItem<String> child : getChildren()) {
+				if (child instanceof LazyItem) {
+					((LazyItem) child).release();
+				}
+			}
+		}
+
+		void childAdded(int child) {
+			if (built) {
+				getChildren().add(new LazyItem(child));
+			} else if (getChildren().isEmpty()) {
+				getChildren().add(new TreeItem<String>("..."));
+			}
+		}
+
+		void childEvicted(LazyItem child) {
+			if (built && child != null) {
+				getChildren().remove(child);
+			}
+		}
+
+		void updateSummary() {
+			String text = store.getSummary(slot);
+			if (!built || text == null) {
+				return;
+			} else if (summary == null) {
+				summary = new TreeItem<String>(text);
+				getChildren().add(0, summary);
+			} else {
+				summary.setValue(text);
+			}
+		}
 	}
 }
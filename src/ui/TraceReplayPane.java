@@ -0,0 +1,184 @@
+package ui;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Path;
+
+import RSA.TraceReader;
+import javafx.concurrent.Task;
+import javafx.scene.control.Alert;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressIndicator;
+import javafx.scene.control.TextArea;
+import javafx.scene.control.TextField;
+import javafx.scene.control.Alert.AlertType;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+import javafx.stage.FileChooser;
+
+public class TraceReplayPane extends VBox {
+
+	private Label topLabel;
+	private Button open;
+	private Label fileLabel;
+	private TextField fromField;
+	private TextField countField;
+	private Button replay;
+	private Button cancel;
+	private ProgressIndicator progress;
+	private Label result;
+	private StepTreeView log;
+	private Path path;
+	private Task<Long> task;
+
+	public TraceReplayPane() {
+		super();
+		topLabel = new Label("Open a recorded trace and replay a range of its steps:");
+		open = new Button("Open");
+		open.setOnAction(action -> {
+			FileChooser chooser = new FileChooser();
+			chooser.setTitle("Open Trace");
+			File file = chooser.showOpenDialog(getScene().getWindow());
+			if (file != null) {
+				path = file.toPath();
+				fileLabel.setText(file.getName());
+				start(new ReplayTask(path, 0, 0, null));
+			}
+		});
+		fileLabel = new Label("No trace");
+		fromField = new TextField("0");
+		fromField.setPromptText("First step");
+		countField = new TextField("1000");
+		countField.setPromptText("Steps");
+		for (TextField field : new TextField[] { fromField, countField }) {
+			field.textProperty().addListener((observer, oldValue, newValue) -> {
+				if (!newValue.matches("\\d*")) {
+					field.setText(newValue.replaceAll("[^\\d]", ""));
+				}
+			});
+		}
+		replay = new Button("Replay");
+		replay.setDisable(true);
+		replay.setOnAction(action -> {
+			try {
+				long from = Long.parseLong(fromField.getText().trim());
+				long count = Long.parseLong(countField.getText().trim());
+				log.reset();
+				log.setIsActive(true);
+				start(new ReplayTask(path, from, count, log));
+			} catch (Exception e) {
+				log.setIsActive(false);
+				showError(e);
+			}
+		});
+		cancel = new Button("Cancel");
+		cancel.setDisable(true);
+		cancel.setOnAction(action -> task.cancel());
+		progress = new ProgressIndicator();
+		progress.setMaxSize(24, 24);
+		progress.setVisible(false);
+		result = new Label();
+		log = new StepTreeView("Replayed Trace");
+		getChildren().addAll(topLabel, new HBox(8, open, fileLabel),
+				new HBox(8, new Label("From step"), fromField, new Label("Steps"), countField),
+				new HBox(8, replay, cancel, progress, result), log);
+	}
+
+	private void start(ReplayTask replayTask) {
+		task = replayTask;
+		task.setOnSucceeded(event -> {
+			finish();
+			result.setText("Trace of " + task.getValue() + " steps");
+		});
+		task.setOnCancelled(event -> {
+			finish();
+			result.setText("Cancelled");
+		});
+		task.setOnFailed(event -> {
+			if (!replayTask.isReplay()) {
+				path = null;
+				fileLabel.setText("No trace");
+			}
+			finish();
+			showError(task.getException());
+		});
+		open.setDisable(true);
+		replay.setDisable(true);
+		cancel.setDisable(false);
+		progress.setVisible(true);
+		result.textProperty().bind(task.messageProperty());
+		Visualizer.BACKGROUND.execute(task);
+	}
+
+	private void finish() {
+		result.textProperty().unbind();
+		progress.setVisible(false);
+		open.setDisable(false);
+		replay.setDisable(path == null);
+		cancel.setDisable(true);
+		log.setIsActive(false);
+	}
+
+	private void showError(Throwable e) {
+		Alert alert = new Alert(AlertType.ERROR);
+		alert.setTitle("Trace Replay Error");
+		alert.setHeaderText(e.getMessage());
+		StringWriter sw = new StringWriter();
+		e.printStackTrace(new PrintWriter(sw));
+		TextArea ta = new TextArea(sw.toString());
+		ta.setEditable(false);
+		alert.getDialogPane().setExpandableContent(ta);
+		alert.showAndWait();
+	}
+
+	/**
+	 * Opens a trace off the JavaFX thread and replays a range of its steps into
+	 * the log of this pane, or only counts its steps if there is no log.
+	 */
+	private static class ReplayTask extends Task<Long> {
+		private final Path path;
+		private final long from;
+		private final long count;
+		private final BatchedTrace log;
+
+		/**
+		 * Must be called on the JavaFX thread since it creates the trace.
+		 */
+		ReplayTask(Path path, long from, long count, StepTreeView log) {
+			this.path = path;
+			this.from = from;
+			this.count = count;
+			this.log = log == null ? null : new BatchedTrace(log, this::progress);
+		}
+
+		boolean isReplay() {
+			return log != null;
+		}
+
+		@Override
+		protected Long call() throws Exception {
+			updateMessage("Opening");
+			try (TraceReader reader = new TraceReader(path)) {
+				if (log != null) {
+					reader.replay(log, from, count);
+				}
+				return reader.getStepCount();
+			}
+		}
+
+		/**
+		 * Reports the steps replayed so far, called at every step.
+		 */
+		private boolean progress() {
+			long steps = 0;
+			long n;
+			for (int depth = 0; (n = log.getSteps(depth)) > 0; depth++) {
+				steps += n;
+			}
+			updateMessage("Steps replayed: " + steps);
+			return isCancelled();
+		}
+	}
+}
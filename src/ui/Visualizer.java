@@ -1,5 +1,8 @@
 package ui;
 
+import java.util.concurrent.ExecutorService;
+
+import RSA.RSAAsync;
 import RSA.Util;
 import javafx.application.Application;
 import javafx.geometry.Orientation;
@@ -13,11 +16,15 @@ import javafx.stage.Stage;
 
 public class Visualizer extends Application {
 
+	// Runs the slow operations of the panes so the JavaFX thread stays responsive
+	static final ExecutorService BACKGROUND = RSAAsync.newDefaultExecutor();
+
 	private SplitPane splitPane;
 	private TabPane tabPane;
 	private Tab isPrimeTab;
 	private Tab keyGenerationTab;
 	private Tab encryptionTab;
+	private Tab traceReplayTab;
 	private BorderPane borderPane;
 	private Scene scene;
 	private StepTreeView globalLog;
@@ -31,7 +38,8 @@ public class Visualizer extends Application {
 		splitPane = new SplitPane();
 		tabPane = new TabPane();
 		setupTabs();
-		globalLog = Util.globalLog;
+		globalLog = new StepTreeView("Global Log");
+		Util.globalLog = globalLog;
 		globalLog.setIsActive(true);
 		borderPane = new BorderPane(globalLog);
 
@@ -51,6 +59,8 @@ public class Visualizer extends Application {
 		tabPane.getTabs().add(keyGenerationTab);
 		encryptionTab = new Tab("Encryption", new EncryptionPane());
 		tabPane.getTabs().add(encryptionTab);
+		traceReplayTab = new Tab("Trace Replay", new TraceReplayPane());
+		tabPane.getTabs().add(traceReplayTab);
 
 		tabPane.tabClosingPolicyProperty().set(TabClosingPolicy.UNAVAILABLE);
 	}